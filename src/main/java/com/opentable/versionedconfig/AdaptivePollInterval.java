@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Polls quickly while a repository is changing and backs off while it is quiet or failing.
+ * <ul>
+ * <li>For a short window after an update (five minutes by default) every poll waits the minimum, since releases
+ * tend to come in bursts.</li>
+ * <li>After that, each poll that finds nothing doubles the wait, from the minimum up to a ceiling.  The ceiling is
+ * half the recent average time between commits, so a busy repository is never polled much more slowly than it
+ * changes; a quiet one backs off all the way to the maximum.  An update that brings several commits counts as that
+ * many evenly spaced changes, since slow polling would otherwise batch commits and hide how busy the repository is.
+ * </li>
+ * <li>Failures back off exponentially to the maximum on their own count, so an unreachable remote is not hammered
+ * whatever the change rate.</li>
+ * </ul>
+ */
+@NotThreadSafe
+public final class AdaptivePollInterval implements PollInterval {
+    /**
+     * Weight of the newest gap in the average time between commits.
+     */
+    private static final double GAP_WEIGHT = 0.3;
+
+    private final Duration min;
+    private final Duration max;
+    private final LongSupplier nanoTime;
+    private Duration fastWindow = Duration.ofMinutes(5);
+
+    private long lastUpdateNanos;
+    private boolean updated;
+    private double averageGapNanos = -1;
+    private int unchangedPolls;
+    private int failures;
+
+    AdaptivePollInterval(Duration min, Duration max, LongSupplier nanoTime) {
+        Preconditions.checkArgument(!min.isNegative() && !min.isZero(), "min must be positive");
+        Preconditions.checkArgument(max.compareTo(min) >= 0, "max must not be less than min");
+        this.min = min;
+        this.max = max;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @param fastWindow how long after an update to keep polling at the minimum interval
+     */
+    public AdaptivePollInterval setFastWindow(Duration fastWindow) {
+        Preconditions.checkArgument(!fastWindow.isNegative(), "fastWindow must not be negative");
+        this.fastWindow = fastWindow;
+        return this;
+    }
+
+    @Override
+    public Duration afterUpdate(VersionedConfigUpdate update) {
+        final long now = nanoTime.getAsLong();
+        if (updated) {
+            final int commits = Math.max(1, update.getPropagation().map(PropagationTimes::getCommitCount).orElse(1));
+            final double gap = (double) (now - lastUpdateNanos) / commits;
+            // the same as averaging in one gap per commit
+            final double weight = 1 - Math.pow(1 - GAP_WEIGHT, commits);
+            averageGapNanos = averageGapNanos < 0 ? gap : weight * gap + (1 - weight) * averageGapNanos;
+        }
+        updated = true;
+        lastUpdateNanos = now;
+        unchangedPolls = 0;
+        failures = 0;
+        return min;
+    }
+
+    @Override
+    public Duration afterNoChange() {
+        failures = 0;
+        if (updated && nanoTime.getAsLong() - lastUpdateNanos < fastWindow.toNanos()) {
+            return min;
+        }
+        return backOff(++unchangedPolls, ceiling());
+    }
+
+    @Override
+    public Duration afterFailure(RuntimeException failure) {
+        return backOff(++failures, max);
+    }
+
+    /**
+     * The longest wait that still keeps up with the observed change rate.
+     */
+    private Duration ceiling() {
+        if (averageGapNanos < 0) {
+            return max;
+        }
+        final Duration half = Duration.ofNanos((long) (averageGapNanos / 2));
+        return half.compareTo(min) < 0 ? min : half.compareTo(max) > 0 ? max : half;
+    }
+
+    /**
+     * @return min doubled {@code count - 1} times, but no more than {@code limit}
+     */
+    private Duration backOff(int count, Duration limit) {
+        final int doublings = Math.min(count - 1, 62);
+        final long limitNanos = limit.toNanos();
+        if (min.toNanos() > limitNanos >> doublings) {
+            return limit;
+        }
+        return Duration.ofNanos(Math.min(min.toNanos() << doublings, limitNanos));
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive " + min + ".." + max;
+    }
+}
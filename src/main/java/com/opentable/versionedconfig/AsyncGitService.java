@@ -0,0 +1,279 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link GitService} that is created on a background thread, so that a slow remote does not hold up whoever
+ * constructs it (typically application context startup).
+ * <p>
+ * If a checkout from a previous run exists at the configured local path, it is opened right away and served as
+ * is, and the background thread fetches from the remote; {@link #ready()} completes once that fetch is done, even
+ * if it failed, and its update is handed out by the next {@link #checkForUpdate()}.  Without a checkout, the background thread
+ * clones; until then {@link #checkForUpdate()} finds nothing and the state accessors throw
+ * {@link IllegalStateException}.  If that clone fails, each {@link #checkForUpdate()} tries it again.
+ */
+@ThreadSafe
+class AsyncGitService implements VersioningService {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncGitService.class);
+
+    private final GitProperties config;
+    private volatile CompletableFuture<VersioningService> ready = new CompletableFuture<>();
+    private final UpdatePublisher<VersionedConfigUpdate> updates =
+            new UpdatePublisher<>(ForkJoinPool.commonPool(), UpdatePublisher::coalesce, this::recordListenerCompleted);
+    private final Object lock = new Object();
+
+    private volatile GitService delegate;
+    private volatile RuntimeException cloneFailure;
+    // guarded by lock
+    private VersionedConfigUpdate pending;
+    private boolean closed;
+
+    AsyncGitService(GitProperties config) {
+        this.config = config;
+        final Path local = config.getLocalRepository();
+        final Runnable init;
+        if (local != null && Files.isDirectory(local.resolve(".git"))) {
+            LOG.info("Serving last known checkout {} while fetching in the background", local);
+            delegate = new GitService(config);
+            init = this::initialFetch;
+        } else {
+            init = this::initialClone;
+        }
+        final Thread thread = new Thread(init, "versioned-config-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void initialClone() {
+        final GitService service;
+        try {
+            service = new GitService(config);
+        } catch (RuntimeException e) {
+            LOG.error("Initial clone of {} failed", config.getRemoteRepositories(), e);
+            cloneFailure = e;
+            ready.completeExceptionally(e);
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                closeQuietly(service);
+                ready.cancel(false);
+                return;
+            }
+            delegate = service;
+        }
+        ready.complete(this);
+    }
+
+    private void initialFetch() {
+        try {
+            synchronized (lock) {
+                if (closed) {
+                    ready.cancel(false);
+                    return;
+                }
+                delegate.checkForUpdate().ifPresent(this::stash);
+            }
+            ready.complete(this);
+        } catch (RuntimeException e) {
+            // The checkout is still usable, and the next checkForUpdate() fetches again
+            LOG.warn("Initial fetch of {} failed, serving the last known checkout", config.getRemoteRepositories(), e);
+            ready.complete(this);
+        }
+    }
+
+    /**
+     * Called with the lock held.  Once the clone succeeds, {@link #ready()} returns a completed future.
+     */
+    private GitService retryClone() {
+        LOG.info("Retrying the clone of {}", config.getRemoteRepositories());
+        final GitService service;
+        try {
+            service = new GitService(config);
+        } catch (RuntimeException e) {
+            cloneFailure = e;
+            throw e;
+        }
+        delegate = service;
+        cloneFailure = null;
+        ready = CompletableFuture.completedFuture(this);
+        return service;
+    }
+
+    private void stash(VersionedConfigUpdate update) {
+        pending = pending == null ? update : UpdatePublisher.coalesce(pending, update);
+    }
+
+    @Override
+    public CompletableFuture<VersioningService> ready() {
+        return ready;
+    }
+
+    /**
+     * Before the initial clone finishes there is nothing to report.  Afterwards this fetches as usual, and
+     * includes whatever the background fetch found.  After a failed initial clone, this clones on the calling
+     * thread instead, failing as the clone does.
+     */
+    @Override
+    public Optional<VersionedConfigUpdate> checkForUpdate() throws VersioningServiceException {
+        final VersionedConfigUpdate update;
+        synchronized (lock) {
+            GitService service = delegate;
+            if (service == null) {
+                if (cloneFailure == null || closed) {
+                    return Optional.empty();
+                }
+                service = retryClone();
+            }
+            service.checkForUpdate().ifPresent(this::stash);
+            update = pending;
+            pending = null;
+        }
+        if (update != null) {
+            updates.publish(update);
+        }
+        return Optional.ofNullable(update);
+    }
+
+    @Override
+    public VersionedConfigUpdate getCurrentState() {
+        return initialized().getCurrentState();
+    }
+
+    @Override
+    public Set<Path> getAffectedPaths(ObjectId currentHash, ObjectId newHash) {
+        return initialized().getAffectedPaths(currentHash, newHash);
+    }
+
+    @Override
+    public Path getCheckoutDirectory() {
+        return initialized().getCheckoutDirectory();
+    }
+
+    @Override
+    public String getLatestRevision() {
+        return initialized().getLatestRevision();
+    }
+
+    @Override
+    public Optional<ObjectId> getHead() {
+        final GitService service = delegate;
+        return service == null ? Optional.empty() : service.getHead();
+    }
+
+    @Override
+    public String getBranch() {
+        return config.getBranch();
+    }
+
+    @Override
+    public void cancelUpdate() {
+        final GitService service = delegate;
+        if (service != null) {
+            service.cancelUpdate();
+        }
+    }
+
+    @Override
+    public Flow.Publisher<VersionedConfigUpdate> updates() {
+        return updates;
+    }
+
+    @Override
+    public Optional<FileRevision> getFileRevision(Path path) {
+        return initialized().getFileRevision(path);
+    }
+
+    @Override
+    public Optional<ObjectId> getBlobId(ObjectId revision, Path path) {
+        return initialized().getBlobId(revision, path);
+    }
+
+    @Override
+    public Optional<ObjectLoader> openBlob(ObjectId blobId) {
+        return initialized().openBlob(blobId);
+    }
+
+    @Override
+    public Stream<ConfigCommit> getChangeLog(@Nullable ObjectId from, ObjectId to) {
+        return initialized().getChangeLog(from, to);
+    }
+
+    @Override
+    public Optional<PropagationMetrics> getPropagationMetrics() {
+        final GitService service = delegate;
+        return service == null ? Optional.empty() : service.getPropagationMetrics();
+    }
+
+    private void recordListenerCompleted(VersionedConfigUpdate update) {
+        getPropagationMetrics().ifPresent(metrics -> metrics.recordListenerCompleted(update));
+    }
+
+    GitService getDelegate() {
+        return initialized();
+    }
+
+    private GitService initialized() {
+        final GitService service = delegate;
+        if (service == null) {
+            if (cloneFailure != null) {
+                throw new IllegalStateException("config repository could not be cloned", cloneFailure);
+            }
+            throw new IllegalStateException("config repository is still being cloned, wait for ready()");
+        }
+        return service;
+    }
+
+    @Override
+    @PreDestroy
+    public void close() throws IOException {
+        updates.close();
+        cancelUpdate();
+        final GitService service;
+        synchronized (lock) {
+            closed = true;
+            service = delegate;
+        }
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private static void closeQuietly(GitService service) {
+        try {
+            service.close();
+        } catch (IOException e) {
+            LOG.warn("while closing {}", service.getCheckoutDirectory(), e);
+        }
+    }
+}
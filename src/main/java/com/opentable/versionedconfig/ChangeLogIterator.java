@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Walks the commits in a range oldest first, diffing each against its first parent only when it is reached.
+ * <p>
+ * A single {@link RevWalk} and {@link TreeWalk} share one object reader for the whole range, so a consumer catching
+ * up over thousands of commits opens no more than one of each.  Ordering the range means reading every commit
+ * header up front; with a commit-graph in the repository that comes from the graph rather than from the commits.
+ */
+@NotThreadSafe
+final class ChangeLogIterator implements Iterator<ConfigCommit>, Closeable {
+    private final RevWalk walk;
+    private final TreeWalk diff;
+    private RevCommit next;
+
+    ChangeLogIterator(Repository repository, @Nullable ObjectId from, ObjectId to) throws IOException {
+        this.walk = new RevWalk(repository);
+        this.diff = new TreeWalk(repository, walk.getObjectReader());
+        try {
+            walk.sort(RevSort.TOPO);
+            walk.sort(RevSort.REVERSE, true);
+            walk.markStart(walk.parseCommit(to));
+            if (from != null && !ObjectId.zeroId().equals(from)) {
+                walk.markUninteresting(walk.parseCommit(from));
+            }
+            diff.setRecursive(true);
+            diff.setFilter(TreeFilter.ANY_DIFF);
+            next = walk.next();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the commits lazily, releasing the walk when the stream is closed
+     */
+    static Stream<ConfigCommit> stream(Repository repository, @Nullable ObjectId from, ObjectId to) {
+        final ChangeLogIterator iterator;
+        try {
+            iterator = new ChangeLogIterator(repository, from, to);
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not walk from " + from + " to " + to, e);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false)
+                .onClose(iterator::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public ConfigCommit next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        final RevCommit commit = next;
+        try {
+            final ConfigCommit result = toConfigCommit(commit);
+            next = walk.next();
+            return result;
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not read commit " + commit.name(), e);
+        }
+    }
+
+    private ConfigCommit toConfigCommit(RevCommit commit) throws IOException {
+        diff.reset();
+        if (commit.getParentCount() == 0) {
+            diff.addTree(new EmptyTreeIterator());
+        } else {
+            diff.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+        }
+        diff.addTree(commit.getTree());
+        final Set<Path> changed = new LinkedHashSet<>();
+        while (diff.next()) {
+            changed.add(Paths.get(diff.getPathString()));
+        }
+        final PersonIdent author = commit.getAuthorIdent();
+        return new ConfigCommit(commit.copy(), author.getName(), author.getEmailAddress(), author.getWhenAsInstant(),
+                commit.getCommitterIdent().getWhenAsInstant(), commit.getFullMessage(), changed);
+    }
+
+    @Override
+    public void close() {
+        diff.close();
+        walk.close();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * One commit in a {@link VersioningService#getChangeLog(ObjectId, ObjectId) change log}.
+ */
+public final class ConfigCommit {
+    private final ObjectId id;
+    private final String authorName;
+    private final String authorEmail;
+    private final Instant authorTime;
+    private final Instant commitTime;
+    private final String message;
+    private final Set<Path> changedFiles;
+
+    ConfigCommit(ObjectId id, String authorName, String authorEmail, Instant authorTime, Instant commitTime,
+                 String message, Iterable<Path> changedFiles) {
+        this.id = id;
+        this.authorName = authorName;
+        this.authorEmail = authorEmail;
+        this.authorTime = authorTime;
+        this.commitTime = commitTime;
+        this.message = message;
+        this.changedFiles = ImmutableSet.copyOf(changedFiles);
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    public String getAuthorEmail() {
+        return authorEmail;
+    }
+
+    public Instant getAuthorTime() {
+        return authorTime;
+    }
+
+    /**
+     * @return when the commit was made, which for rebased or cherry-picked changes is later than the author time
+     */
+    public Instant getCommitTime() {
+        return commitTime;
+    }
+
+    /**
+     * @return the full commit message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the files this commit changed relative to its first parent, or all of them for a root commit
+     */
+    public Set<Path> getChangedFiles() {
+        return changedFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigCommit{" + id.name() + " by " + authorName + " at " + commitTime + ", " + changedFiles.size() + " files}";
+    }
+}
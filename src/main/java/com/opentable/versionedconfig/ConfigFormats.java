@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flattens config files into keys and values by file extension.  Properties files are always supported; JSON
+ * needs Jackson on the classpath and YAML additionally {@code jackson-dataformat-yaml}.  Both are optional
+ * dependencies, so only the nested {@code Jackson} class refers to it, and it is loaded only when Jackson is present.
+ * A file must hold a single document; multi-document YAML does not parse.
+ */
+final class ConfigFormats {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigFormats.class);
+    private static final boolean JACKSON = isPresent("com.fasterxml.jackson.databind.ObjectMapper");
+    private static final String YAML_FACTORY = "com.fasterxml.jackson.dataformat.yaml.YAMLFactory";
+
+    private ConfigFormats() {
+    }
+
+    /**
+     * @return whether the file has a format that {@link #parse} can read with the current classpath
+     */
+    static boolean isSupported(Path path) {
+        final String name = path.getFileName().toString();
+        if (name.endsWith(".properties")) {
+            return true;
+        }
+        if (name.endsWith(".json")) {
+            return JACKSON;
+        }
+        if (name.endsWith(".yaml") || name.endsWith(".yml")) {
+            return JACKSON && Jackson.hasYaml();
+        }
+        return false;
+    }
+
+    /**
+     * Pass every key and value in a {@link #isSupported supported} file to {@code sink}.
+     */
+    private static void flatten(Path path, byte[] contents, BiConsumer<String, String> sink) throws IOException {
+        final String name = path.getFileName().toString();
+        if (name.endsWith(".properties")) {
+            final Properties properties = new Properties();
+            properties.load(new InputStreamReader(new ByteArrayInputStream(contents), StandardCharsets.UTF_8));
+            properties.stringPropertyNames().forEach(key -> sink.accept(key, properties.getProperty(key)));
+        } else if (name.endsWith(".json")) {
+            Jackson.flatten(false, contents, sink);
+        } else {
+            Jackson.flatten(true, contents, sink);
+        }
+    }
+
+    /**
+     * @return the keys and values of a {@link #isSupported supported} file
+     * @throws IOException if it does not parse; a malformed file is never taken for one without keys
+     */
+    static SortedMap<String, String> parse(Path path, byte[] contents) throws IOException {
+        final SortedMap<String, String> entries = new TreeMap<>();
+        try {
+            flatten(path, contents, entries::put);
+        } catch (IOException | RuntimeException e) {
+            // Properties.load rejects malformed escapes with an IllegalArgumentException
+            throw new IOException("could not parse " + path, e);
+        }
+        return entries;
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, ConfigFormats.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static final class Jackson {
+        private static final ObjectMapper JSON = new ObjectMapper();
+        @Nullable
+        private static final ObjectMapper YAML = yamlMapper();
+
+        @Nullable
+        private static ObjectMapper yamlMapper() {
+            if (!isPresent(YAML_FACTORY)) {
+                return null;
+            }
+            try {
+                return new ObjectMapper((JsonFactory) Class.forName(YAML_FACTORY).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LOG.warn("could not create a YAML parser, YAML files will not be indexed", e);
+                return null;
+            }
+        }
+
+        static boolean hasYaml() {
+            return YAML != null;
+        }
+
+        /**
+         * A YAML file may hold several documents, which Spring would treat as separate, often profile specific,
+         * property sources; merging them into one set of keys would be wrong, so such files do not parse.
+         */
+        static void flatten(boolean yaml, byte[] contents, BiConsumer<String, String> sink) throws IOException {
+            JsonNode root = null;
+            try (MappingIterator<JsonNode> documents = (yaml ? YAML : JSON).readerFor(JsonNode.class)
+                    .readValues(contents)) {
+                while (documents.hasNextValue()) {
+                    final JsonNode document = documents.nextValue();
+                    if (document == null || document.isMissingNode() || document.isNull()) {
+                        continue;
+                    }
+                    if (root != null) {
+                        throw new IOException("files with more than one document are not supported");
+                    }
+                    root = document;
+                }
+            }
+            if (root != null) {
+                flatten("", root, sink);
+            }
+        }
+
+        private static void flatten(String prefix, JsonNode node, BiConsumer<String, String> sink) {
+            if (node.isObject()) {
+                final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    final Map.Entry<String, JsonNode> field = fields.next();
+                    flatten(prefix.isEmpty() ? field.getKey() : prefix + "." + field.getKey(), field.getValue(), sink);
+                }
+            } else if (node.isArray()) {
+                for (int i = 0; i < node.size(); i++) {
+                    flatten(prefix + "[" + i + "]", node.get(i), sink);
+                }
+            } else if (!prefix.isEmpty()) {
+                sink.accept(prefix, node.isNull() ? "" : node.asText());
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+/**
+ * The keys that one update added, removed and changed in one config file, in the formats (and with the flattened
+ * key names) of {@link ConfigKeyIndex}; see {@link VersioningService#getKeyChanges(VersionedConfigUpdate)}.
+ */
+public final class ConfigKeyChanges {
+    private final Path path;
+    private final SortedMap<String, String> added;
+    private final SortedMap<String, String> removed;
+    private final SortedMap<String, String> changed;
+    @Nullable
+    private final IOException parseFailure;
+
+    ConfigKeyChanges(Path path, SortedMap<String, String> added, SortedMap<String, String> removed,
+                     SortedMap<String, String> changed) {
+        this(path, added, removed, changed, null);
+    }
+
+    private ConfigKeyChanges(Path path, SortedMap<String, String> added, SortedMap<String, String> removed,
+                             SortedMap<String, String> changed, @Nullable IOException parseFailure) {
+        this.path = path;
+        this.added = ImmutableSortedMap.copyOfSorted(added);
+        this.removed = ImmutableSortedMap.copyOfSorted(removed);
+        this.changed = ImmutableSortedMap.copyOfSorted(changed);
+        this.parseFailure = parseFailure;
+    }
+
+    private static ConfigKeyChanges unparseable(Path path, IOException failure) {
+        return new ConfigKeyChanges(path, Collections.emptySortedMap(), Collections.emptySortedMap(),
+                Collections.emptySortedMap(), failure);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return new keys and their values
+     */
+    public SortedMap<String, String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return keys that are gone, and the values they had
+     */
+    public SortedMap<String, String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return keys whose value changed, and their new values
+     */
+    public SortedMap<String, String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return every added, removed or changed key
+     */
+    public SortedSet<String> getAffectedKeys() {
+        final SortedSet<String> result = new TreeSet<>(added.keySet());
+        result.addAll(removed.keySet());
+        result.addAll(changed.keySet());
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    /**
+     * @return why the file could not be parsed at the old or the new revision, in which case its keys are unknown
+     * and no added, removed or changed keys are reported for it
+     */
+    public Optional<IOException> getParseFailure() {
+        return Optional.ofNullable(parseFailure);
+    }
+
+    public boolean isEmpty() {
+        return parseFailure == null && added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (parseFailure != null) {
+            return "ConfigKeyChanges{" + path + ": " + parseFailure.getMessage() + "}";
+        }
+        return "ConfigKeyChanges{" + path + ": +" + added.keySet() + " -" + removed.keySet() + " ~" + changed.keySet() + "}";
+    }
+
+    /**
+     * Compare the supported files an update touched, at its old and new revisions.  A file that does not parse at
+     * either revision is reported with its {@link #getParseFailure() failure} rather than as keys removed or added.
+     */
+    static Map<Path, ConfigKeyChanges> between(VersioningService service, VersionedConfigUpdate update) {
+        final ObjectId oldRevision = update.getOldRevisionMetadata();
+        final ObjectId newRevision = update.getNewRevisionMetadata();
+        final Map<Path, ConfigKeyChanges> result = new TreeMap<>();
+        for (Path path : update.getChangedFiles()) {
+            if (path.getFileName() == null || !ConfigFormats.isSupported(path)) {
+                continue;
+            }
+            ConfigKeyChanges changes;
+            try {
+                changes = compare(path, keys(service, oldRevision, path), keys(service, newRevision, path));
+            } catch (IOException e) {
+                changes = unparseable(path, e);
+            }
+            if (!changes.isEmpty()) {
+                result.put(path, changes);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @throws IOException if the file does not parse at {@code revision}
+     */
+    private static SortedMap<String, String> keys(VersioningService service, ObjectId revision, Path path)
+            throws IOException {
+        if (revision == null || ObjectId.zeroId().equals(revision)) {
+            return Collections.emptySortedMap();
+        }
+        final Optional<ObjectLoader> blob = service.getBlobId(revision, path).flatMap(service::openBlob);
+        if (blob.isEmpty()) {
+            return Collections.emptySortedMap();
+        }
+        final byte[] contents;
+        try {
+            contents = blob.get().getCachedBytes(Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new VersioningServiceException("could not read " + path + " at " + revision.name(), e);
+        }
+        try {
+            return ConfigFormats.parse(path, contents);
+        } catch (IOException e) {
+            throw new IOException("could not parse " + path + " at " + revision.name(), e.getCause());
+        }
+    }
+
+    /**
+     * Walk both sorted key sets in step.
+     */
+    private static ConfigKeyChanges compare(Path path, SortedMap<String, String> before, SortedMap<String, String> after) {
+        final SortedMap<String, String> added = new TreeMap<>();
+        final SortedMap<String, String> removed = new TreeMap<>();
+        final SortedMap<String, String> changed = new TreeMap<>();
+        final Iterator<Map.Entry<String, String>> oldEntries = before.entrySet().iterator();
+        final Iterator<Map.Entry<String, String>> newEntries = after.entrySet().iterator();
+        Map.Entry<String, String> oldEntry = oldEntries.hasNext() ? oldEntries.next() : null;
+        Map.Entry<String, String> newEntry = newEntries.hasNext() ? newEntries.next() : null;
+        while (oldEntry != null || newEntry != null) {
+            final int order = oldEntry == null ? 1 : newEntry == null ? -1 : oldEntry.getKey().compareTo(newEntry.getKey());
+            if (order < 0) {
+                removed.put(oldEntry.getKey(), oldEntry.getValue());
+                oldEntry = oldEntries.hasNext() ? oldEntries.next() : null;
+            } else if (order > 0) {
+                added.put(newEntry.getKey(), newEntry.getValue());
+                newEntry = newEntries.hasNext() ? newEntries.next() : null;
+            } else {
+                if (!oldEntry.getValue().equals(newEntry.getValue())) {
+                    changed.put(newEntry.getKey(), newEntry.getValue());
+                }
+                oldEntry = oldEntries.hasNext() ? oldEntries.next() : null;
+                newEntry = newEntries.hasNext() ? newEntries.next() : null;
+            }
+        }
+        return new ConfigKeyChanges(path, added, removed, changed);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One shared, immutable key index over the {@code .properties}, {@code .json} and {@code .yaml} files of a
+ * {@link VersioningService}'s current revision, so consumers that need a few keys need not each parse and hold
+ * every file.  Only the files that {@link VersioningService#getAffectedPaths(ObjectId, ObjectId) changed} since
+ * the indexed revision are looked at again, and of those only the ones whose contents changed are parsed; keys and
+ * values are interned process-wide, so strings that survive a revision are not duplicated by the next one.
+ * <p>
+ * Files are read at the head revision through {@link VersioningService#getBlobId(ObjectId, Path)} where the
+ * service keeps revisions, and from the checkout directory otherwise.  Files that fail to parse are logged and
+ * contribute no keys.
+ */
+@ThreadSafe
+public final class ConfigKeyIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigKeyIndex.class);
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    private final VersioningService service;
+    private SortedMap<Path, FileKeys> files = Collections.emptySortedMap();
+    private ConfigKeys current;
+
+    private ConfigKeyIndex(VersioningService service) {
+        this.service = service;
+    }
+
+    public static ConfigKeyIndex forService(VersioningService service) {
+        return new ConfigKeyIndex(service);
+    }
+
+    /**
+     * The keys of the service's current head, re-indexing the files that changed if the head moved since the
+     * last call.  The result is immutable and may be kept and shared freely.
+     */
+    public synchronized ConfigKeys current() throws VersioningServiceException {
+        final ObjectId head = service.getHead().orElse(ObjectId.zeroId());
+        if (current != null && current.getRevision().equals(head)) {
+            return current;
+        }
+        final ObjectId indexed = current == null ? ObjectId.zeroId() : current.getRevision();
+        final SortedMap<Path, FileKeys> next = new TreeMap<>(files);
+        int read = 0;
+        try {
+            for (Path path : service.getAffectedPaths(indexed, head)) {
+                if (path.getFileName() == null || !ConfigFormats.isSupported(path)) {
+                    continue;
+                }
+                final FileKeys keys = load(head, path);
+                if (keys == null) {
+                    next.remove(path);
+                } else {
+                    next.put(path, keys);
+                }
+                read++;
+            }
+        } catch (IOException e) {
+            throw new VersioningServiceException("could not index keys of " + head.getName(), e);
+        }
+        current = merge(head, next);
+        files = next;
+        LOG.debug("indexed {} keys from {} files at {}, {} looked at again", current.size(), next.size(), head.getName(), read);
+        return current;
+    }
+
+    /**
+     * @return the keys of the file at {@code head}, the indexed ones if its contents are unchanged, or null if
+     * there is no such file
+     */
+    @Nullable
+    private FileKeys load(ObjectId head, Path path) throws IOException {
+        final FileKeys previous = files.get(path);
+        final Optional<ObjectId> blob = head.equals(ObjectId.zeroId()) ? Optional.empty() : service.getBlobId(head, path);
+        if (blob.isPresent()) {
+            if (previous != null && previous.key.equals(blob.get())) {
+                return previous;
+            }
+            final Optional<ObjectLoader> contents = service.openBlob(blob.get());
+            if (contents.isPresent()) {
+                return parse(path, blob.get(), contents.get().getCachedBytes(Integer.MAX_VALUE));
+            }
+        }
+        // no revision to read it at, so the checkout has to do
+        final Path file = service.getCheckoutDirectory().resolve(path);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final Object key = Arrays.asList(attrs.size(), attrs.lastModifiedTime(), attrs.fileKey());
+        return previous != null && previous.key.equals(key) ? previous : parse(path, key, Files.readAllBytes(file));
+    }
+
+    private static FileKeys parse(Path path, Object key, byte[] contents) {
+        SortedMap<String, String> entries;
+        try {
+            entries = ConfigFormats.parse(path, contents);
+        } catch (IOException e) {
+            LOG.warn("{}, indexing no keys from it", e.getMessage(), e);
+            entries = Collections.emptySortedMap();
+        }
+        final String[] keys = new String[entries.size()];
+        final String[] values = new String[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            keys[i] = STRINGS.intern(entry.getKey());
+            values[i] = STRINGS.intern(entry.getValue());
+            i++;
+        }
+        return new FileKeys(key, keys, values);
+    }
+
+    /**
+     * Merge the sorted keys of every file, letting files later in path order override earlier ones.
+     */
+    private static ConfigKeys merge(ObjectId revision, SortedMap<Path, FileKeys> files) {
+        final PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        int total = 0;
+        int order = 0;
+        for (Map.Entry<Path, FileKeys> file : files.entrySet()) {
+            if (file.getValue().keys.length > 0) {
+                queue.add(new Cursor(file.getKey(), file.getValue(), order++));
+                total += file.getValue().keys.length;
+            }
+        }
+        final String[] keys = new String[total];
+        final String[] values = new String[total];
+        final Path[] sources = new Path[total];
+        int n = 0;
+        while (!queue.isEmpty()) {
+            final Cursor cursor = queue.poll();
+            final String key = cursor.file.keys[cursor.position];
+            if (n > 0 && keys[n - 1].equals(key)) {
+                n--;
+            }
+            keys[n] = key;
+            values[n] = cursor.file.values[cursor.position];
+            sources[n] = cursor.path;
+            n++;
+            if (++cursor.position < cursor.file.keys.length) {
+                queue.add(cursor);
+            }
+        }
+        return new ConfigKeys(revision, Arrays.copyOf(keys, n), Arrays.copyOf(values, n), Arrays.copyOf(sources, n));
+    }
+
+    /**
+     * The sorted keys of one file, and what identifies its contents: the blob id or the checkout file attributes.
+     */
+    private static final class FileKeys {
+        private final Object key;
+        private final String[] keys;
+        private final String[] values;
+
+        FileKeys(Object key, String[] keys, String[] values) {
+            this.key = key;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Path path;
+        private final FileKeys file;
+        private final int order;
+        private int position;
+
+        Cursor(Path path, FileKeys file, int order) {
+            this.path = path;
+            this.file = file;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            final int byKey = file.keys[position].compareTo(other.file.keys[other.position]);
+            return byKey != 0 ? byKey : Integer.compare(order, other.order);
+        }
+    }
+}
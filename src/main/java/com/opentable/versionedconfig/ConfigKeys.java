@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.SortedMap;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Every key of every supported config file in one revision, flattened into one immutable sorted index; see
+ * {@link ConfigKeyIndex}.  Nested YAML and JSON keys are joined with {@code .} and list elements are indexed as
+ * {@code key[0]}, as Spring does.  When two files define the same key, the one whose path sorts last wins.
+ */
+public final class ConfigKeys {
+    private final ObjectId revision;
+    private final String[] keys;
+    private final String[] values;
+    private final Path[] sources;
+
+    ConfigKeys(ObjectId revision, String[] keys, String[] values, Path[] sources) {
+        this.revision = revision;
+        this.keys = keys;
+        this.values = values;
+        this.sources = sources;
+    }
+
+    public ObjectId getRevision() {
+        return revision;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return the value, in {@code O(log n)}
+     */
+    public Optional<String> get(String key) {
+        final int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? Optional.empty() : Optional.of(values[index]);
+    }
+
+    /**
+     * @return the file relative to the repository root that the key's value came from
+     */
+    public Optional<Path> getSource(String key) {
+        final int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? Optional.empty() : Optional.of(sources[index]);
+    }
+
+    /**
+     * @return every key starting with {@code prefix} (e.g. {@code "server."}) and its value, in key order
+     */
+    public SortedMap<String, String> withPrefix(String prefix) {
+        final ImmutableSortedMap.Builder<String, String> result = ImmutableSortedMap.naturalOrder();
+        final int found = Arrays.binarySearch(keys, prefix);
+        for (int i = found < 0 ? -found - 1 : found; i < keys.length && keys[i].startsWith(prefix); i++) {
+            result.put(keys[i], values[i]);
+        }
+        return result.build();
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigKeys{" + revision.name() + ", " + keys.length + " keys}";
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only HTTP view of one {@link VersioningService}, so that other processes on the host can share its
+ * checkout instead of each cloning the repository.  Built on the JDK's HTTP server:
+ * <ul>
+ * <li>{@code GET /files/<path>} serves a file at the current revision straight from the checkout, with its blob id
+ * as {@code ETag} when the service {@link VersioningService#getFileRevision(Path) indexes file revisions}.</li>
+ * <li>{@code GET /files/<path>?revision=<id>} serves it at a pinned revision, through
+ * {@link VersioningService#getBlobId(ObjectId, Path)}.  Such responses never change and are marked immutable;
+ * revisions the service does not have are {@code 404}.</li>
+ * <li>{@code GET /revision?after=<id>&timeout=<duration>} answers with the current revision as soon as it differs
+ * from {@code after}, or {@code 304} when the timeout (default 30 seconds) passes first.  Waiting requests hold no
+ * thread.</li>
+ * </ul>
+ * File responses carry the revision they were served at in {@value #REVISION_HEADER} and honour
+ * {@code If-None-Match}.  A file requested while the service is checking out a new revision may arrive with the
+ * previous revision's {@code ETag}; the next conditional request then fetches it again.
+ */
+@ThreadSafe
+public final class ConfigServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigServer.class);
+    public static final String REVISION_HEADER = "X-Config-Revision";
+    private static final String FILES = "/files/";
+    private static final String REVISION = "/revision";
+    private static final Duration DEFAULT_WAIT = Duration.ofSeconds(30);
+    private static final Duration MAX_WAIT = Duration.ofMinutes(5);
+
+    private final VersioningService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private volatile Flow.Subscription subscription;
+
+    private ConfigServer(VersioningService service, InetSocketAddress address, int threads) throws IOException {
+        this.service = service;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("config-server-%d").setDaemon(true).build());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("config-server-timer").setDaemon(true).build());
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext(FILES, this::handleFile);
+        server.createContext(REVISION, this::handleRevision);
+        service.updates().subscribe(new RevisionSubscriber());
+        server.start();
+    }
+
+    public static ConfigServer serve(VersioningService service, InetSocketAddress address) {
+        return serve(service, address, 8);
+    }
+
+    /**
+     * @param threads requests are handled by at most this many threads, more wait in line; long polls do not
+     * count until they are answered
+     */
+    public static ConfigServer serve(VersioningService service, InetSocketAddress address, int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        try {
+            return new ConfigServer(service, address, threads);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not start config server on " + address, e);
+        }
+    }
+
+    public URI getUri() {
+        final InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/");
+    }
+
+    @Override
+    public void close() {
+        final Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private ObjectId currentRevision() {
+        return service.getCurrentState().getNewRevisionMetadata();
+    }
+
+    private void handleFile(HttpExchange exchange) throws IOException {
+        try {
+            if (!isRead(exchange)) {
+                return;
+            }
+            final Path path = relativePath(exchange.getRequestURI().getPath().substring(FILES.length()));
+            final String pinned = query(exchange).get("revision");
+            if (path == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (pinned == null) {
+                serveCurrent(exchange, path);
+            } else if (ObjectId.isId(pinned)) {
+                servePinned(exchange, path, ObjectId.fromString(pinned));
+            } else {
+                exchange.sendResponseHeaders(400, -1);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("while serving {}", exchange.getRequestURI(), e);
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serveCurrent(HttpExchange exchange, Path path) throws IOException {
+        final ObjectId revision = currentRevision();
+        // without an indexed revision the file goes out without an ETag; whether it exists is up to the checkout
+        final String eTag = service.getFileRevision(path).map(FileRevision::getETag).orElse(null);
+        serveFromCheckout(exchange, path, revision, eTag);
+    }
+
+    private void serveFromCheckout(HttpExchange exchange, Path path, ObjectId revision, @Nullable String eTag)
+            throws IOException {
+        final Path file = resolveInside(service.getCheckoutDirectory(), path);
+        if (file == null || !Files.isRegularFile(file)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (notModified(exchange, revision, eTag)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (isHead(exchange) || size == 0) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, size);
+            // The JDK server only hands out a stream, so this is not zero-copy: transferTo copies the file through
+            // a small buffer into it.  It does keep large files from being read into memory whole.
+            try (OutputStream out = exchange.getResponseBody();
+                 WritableByteChannel target = Channels.newChannel(out)) {
+                long sent = 0;
+                while (sent < size) {
+                    sent += channel.transferTo(sent, size - sent, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Revisions the service no longer has, or never kept, are not found like missing files.
+     */
+    private void servePinned(HttpExchange exchange, Path path, ObjectId revision) throws IOException {
+        final Optional<ObjectId> blob = service.getBlobId(revision, path);
+        final Optional<ObjectLoader> contents = blob.flatMap(service::openBlob);
+        if (contents.isEmpty()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+        if (notModified(exchange, revision, FileRevision.eTag(blob.get()))) {
+            return;
+        }
+        final ObjectLoader loader = contents.get();
+        if (isHead(exchange) || loader.getSize() == 0) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, loader.getSize());
+        try (OutputStream out = exchange.getResponseBody()) {
+            loader.copyTo(out);
+        }
+    }
+
+    /**
+     * Set the validators and answer {@code 304} if the client's copy is current.
+     */
+    private static boolean notModified(HttpExchange exchange, ObjectId revision, @Nullable String eTag)
+            throws IOException {
+        exchange.getResponseHeaders().set(REVISION_HEADER, revision.name());
+        if (eTag == null) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("ETag", eTag);
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handleRevision(HttpExchange exchange) throws IOException {
+        final Map<String, String> query = query(exchange);
+        final Duration timeout;
+        try {
+            final Duration requested = VersionedConfig.parseDuration(query.get("timeout"));
+            timeout = requested == null ? DEFAULT_WAIT : requested;
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        if (!isRead(exchange)) {
+            exchange.close();
+            return;
+        }
+        final String after = query.get("after");
+        final Waiter waiter = new Waiter(exchange, after);
+        waiters.add(waiter);
+        // Check only once registered, so that an update in between is not missed
+        waiter.revisionChanged(currentRevision());
+        if (!waiter.done.get()) {
+            waiter.expiry = timer.schedule(waiter::expire,
+                    Math.min(timeout.toMillis(), MAX_WAIT.toMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean isRead(HttpExchange exchange) throws IOException {
+        if ("GET".equals(exchange.getRequestMethod()) || isHead(exchange)) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        exchange.sendResponseHeaders(405, -1);
+        return false;
+    }
+
+    private static boolean isHead(HttpExchange exchange) {
+        return "HEAD".equals(exchange.getRequestMethod());
+    }
+
+    /**
+     * @return the request path relative to the checkout, or null if it could point anywhere else
+     */
+    @Nullable
+    private static Path relativePath(String requested) {
+        if (requested.isEmpty()) {
+            return null;
+        }
+        final Path path;
+        try {
+            path = Paths.get(requested).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (path.isAbsolute() || path.startsWith("..") || path.startsWith(".git") || path.toString().isEmpty()) {
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * Symbolic links are followed, as in a mounted Kubernetes ConfigMap, but only as far as they stay inside the
+     * checkout and out of its {@code .git}.
+     *
+     * @return the real file, or null if it does not exist or is outside the checkout
+     */
+    @Nullable
+    private static Path resolveInside(Path checkout, Path path) {
+        try {
+            final Path root = checkout.toRealPath();
+            final Path file = root.resolve(path).toRealPath();
+            if (!file.startsWith(root) || root.relativize(file).startsWith(".git")) {
+                return null;
+            }
+            return file;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        final Map<String, String> result = new HashMap<>();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return result;
+        }
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                result.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * One long poll, answered exactly once: by a revision change, its timeout, or the server closing.
+     */
+    private final class Waiter {
+        private final HttpExchange exchange;
+        @Nullable
+        private final String after;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ScheduledFuture<?> expiry;
+
+        Waiter(HttpExchange exchange, @Nullable String after) {
+            this.exchange = exchange;
+            this.after = after;
+        }
+
+        void revisionChanged(ObjectId revision) {
+            if (!revision.name().equals(after) && finish()) {
+                try {
+                    executor.execute(() -> respond(200, revision));
+                } catch (RejectedExecutionException e) {
+                    // the server is closing; nothing else will ever answer this exchange
+                    exchange.close();
+                }
+            }
+        }
+
+        void expire() {
+            if (finish()) {
+                respond(304, currentRevision());
+            }
+        }
+
+        private boolean finish() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            waiters.remove(this);
+            final ScheduledFuture<?> scheduled = expiry;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            return true;
+        }
+
+        private void respond(int status, ObjectId revision) {
+            try {
+                exchange.getResponseHeaders().set(REVISION_HEADER, revision.name());
+                exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                if (status != 200 || isHead(exchange)) {
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                final byte[] body = (revision.name() + "\n").getBytes(StandardCharsets.US_ASCII);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (IOException e) {
+                LOG.debug("client went away while waiting for {}", exchange.getRequestURI(), e);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private final class RevisionSubscriber implements Flow.Subscriber<VersionedConfigUpdate> {
+        @Override
+        public void onSubscribe(Flow.Subscription newSubscription) {
+            subscription = newSubscription;
+            newSubscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(VersionedConfigUpdate update) {
+            final ObjectId revision = update.getNewRevisionMetadata();
+            waiters.forEach(waiter -> waiter.revisionChanged(revision));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOG.warn("stopped receiving updates, long polls will only time out", throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            LOG.debug("update stream completed");
+        }
+    }
+}
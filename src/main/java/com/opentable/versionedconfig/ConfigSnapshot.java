@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The contents of every file in one revision of a config repository, held outside the Java heap.
+ * <p>
+ * Snapshots are reference counted: each {@link ConfigSnapshotStore#acquire()} or {@link #retain()} must be
+ * matched by a {@link #close()}.  When the last reference goes, memory no longer shared with a newer snapshot is
+ * released immediately.  Buffers handed out by {@link #get(Path)} are only valid until then; do not keep them
+ * (or slices of them) past {@link #close()}.
+ */
+public final class ConfigSnapshot implements Closeable {
+    private final ObjectId revision;
+    private final Map<Path, Content> files;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    ConfigSnapshot(ObjectId revision, Map<Path, Content> files) {
+        this.revision = revision;
+        this.files = files;
+    }
+
+    public ObjectId getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the files in this snapshot, relative to the repository root
+     */
+    public Set<Path> getPaths() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    /**
+     * @return a read-only view of the file's contents, positioned at its start
+     */
+    public Optional<ByteBuffer> get(Path path) {
+        checkOpen();
+        final Content content = files.get(path);
+        return content == null ? Optional.empty() : Optional.of(content.view());
+    }
+
+    /**
+     * @return total size of the file contents
+     */
+    public long getSize() {
+        return files.values().stream().mapToLong(Content::size).sum();
+    }
+
+    /**
+     * Take another reference, to be released with its own {@link #close()}.
+     */
+    public ConfigSnapshot retain() {
+        references.updateAndGet(n -> {
+            if (n <= 0) {
+                throw new IllegalStateException("snapshot " + revision.getName() + " already released");
+            }
+            return n + 1;
+        });
+        return this;
+    }
+
+    @Override
+    public void close() {
+        final int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            files.values().forEach(Content::release);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("snapshot " + revision.getName() + " released too often");
+        }
+    }
+
+    Map<Path, Content> files() {
+        return files;
+    }
+
+    private void checkOpen() {
+        if (references.get() <= 0) {
+            throw new IllegalStateException("snapshot " + revision.getName() + " already released");
+        }
+    }
+
+    /**
+     * One file's bytes, shared by every snapshot in which the file is unchanged.
+     */
+    static final class Content {
+        private final ByteBuffer buffer;
+        private final Object key;
+        private final Runnable free;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * @param key identifies the bytes: a blob id, or file metadata for checkout files
+         * @param free returns the buffer's memory, called when the last snapshot using it is released
+         */
+        Content(ByteBuffer buffer, Object key, Runnable free) {
+            this.buffer = buffer;
+            this.key = key;
+            this.free = free;
+        }
+
+        Object key() {
+            return key;
+        }
+
+        long size() {
+            return buffer.capacity();
+        }
+
+        ByteBuffer view() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        Content retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                free.run();
+            }
+        }
+    }
+}
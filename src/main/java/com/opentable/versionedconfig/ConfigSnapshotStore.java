@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the file contents of a {@link VersioningService}'s current revision off the Java heap, for services that
+ * hold large generated configuration in memory.  Contents live in direct or memory-mapped buffers; files that did
+ * not change between revisions share the same buffer, and a revision's memory is released as soon as the store
+ * has moved on and every consumer has closed its {@link ConfigSnapshot}.
+ * <p>
+ * For git services the bytes come straight from the object database at the service's head commit, so a snapshot
+ * is never torn by a checkout in progress.  For other services they are read from the checkout directory.
+ */
+@ThreadSafe
+public final class ConfigSnapshotStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigSnapshotStore.class);
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("cannot free buffers eagerly, leaving them to the garbage collector", e);
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    public enum Storage {
+        /**
+         * Copy contents into direct buffers.
+         */
+        DIRECT,
+        /**
+         * Map checkout files into memory, sharing pages with the OS file cache.  Only safe when files are replaced
+         * rather than rewritten in place, which is how git checkouts update them; always reads the checkout.
+         */
+        MAPPED
+    }
+
+    private final VersioningService service;
+    private final Storage storage;
+    private final AtomicLong allocated = new AtomicLong();
+    private ConfigSnapshot current;
+    private boolean closed;
+
+    private ConfigSnapshotStore(VersioningService service, Storage storage) {
+        this.service = service;
+        this.storage = storage;
+    }
+
+    public static ConfigSnapshotStore forService(VersioningService service) {
+        return forService(service, Storage.DIRECT);
+    }
+
+    public static ConfigSnapshotStore forService(VersioningService service, Storage storage) {
+        return new ConfigSnapshotStore(service, storage);
+    }
+
+    /**
+     * The snapshot of the service's current head, loading it first if the head moved since the last call.
+     * The caller owns one reference and must {@link ConfigSnapshot#close()} it.
+     */
+    public synchronized ConfigSnapshot acquire() throws VersioningServiceException {
+        if (closed) {
+            throw new IllegalStateException("snapshot store is closed");
+        }
+        final ObjectId head = service.getHead().orElse(ObjectId.zeroId());
+        if (current == null || !current.getRevision().equals(head)) {
+            final ConfigSnapshot loaded = load(head);
+            if (current != null) {
+                current.close();
+            }
+            current = loaded;
+        }
+        return current.retain();
+    }
+
+    /**
+     * @return bytes currently held by this store's snapshots, including those still referenced by consumers
+     */
+    public long getAllocatedBytes() {
+        return allocated.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private ConfigSnapshot load(ObjectId head) throws VersioningServiceException {
+        final Map<Path, ConfigSnapshot.Content> previous = current == null
+                ? Collections.emptyMap() : current.files();
+        final Map<Path, ConfigSnapshot.Content> files = new HashMap<>();
+        try {
+            final GitService git = service instanceof AsyncGitService
+                    ? ((AsyncGitService) service).getDelegate()
+                    : service instanceof GitService ? (GitService) service : null;
+            if (git != null && storage == Storage.DIRECT && !head.equals(ObjectId.zeroId())) {
+                loadBlobs(git.getRepository(), head, previous, files);
+            } else {
+                loadCheckout(service.getCheckoutDirectory(), previous, files);
+            }
+        } catch (IOException | RuntimeException e) {
+            files.values().forEach(ConfigSnapshot.Content::release);
+            throw new VersioningServiceException("could not load snapshot of " + head.getName(), e);
+        }
+        LOG.debug("loaded snapshot {} with {} files, {} bytes off-heap", head.getName(), files.size(), allocated.get());
+        return new ConfigSnapshot(head, Collections.unmodifiableMap(files));
+    }
+
+    private void loadBlobs(Repository repository, ObjectId head, Map<Path, ConfigSnapshot.Content> previous,
+            Map<Path, ConfigSnapshot.Content> files) throws IOException {
+        try (ObjectReader reader = repository.newObjectReader();
+                RevWalk walk = new RevWalk(reader);
+                TreeWalk tree = new TreeWalk(reader)) {
+            tree.addTree(walk.parseCommit(head).getTree());
+            tree.setRecursive(true);
+            while (tree.next()) {
+                final int mode = tree.getRawMode(0);
+                if (mode != FileMode.REGULAR_FILE.getBits() && mode != FileMode.EXECUTABLE_FILE.getBits()) {
+                    continue;
+                }
+                final Path path = Paths.get(tree.getPathString());
+                final ObjectId blob = tree.getObjectId(0);
+                final ConfigSnapshot.Content reused = reuse(previous.get(path), blob);
+                files.put(path, reused != null ? reused : readBlob(reader, blob));
+            }
+        }
+    }
+
+    private ConfigSnapshot.Content readBlob(ObjectReader reader, ObjectId blob) throws IOException {
+        final ObjectLoader loader = reader.open(blob, Constants.OBJ_BLOB);
+        final ByteBuffer buffer = allocate(loader.getSize());
+        try {
+            loader.copyTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    buffer.put(b, off, len);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            free(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return content(buffer, blob);
+    }
+
+    private void loadCheckout(Path root, Map<Path, ConfigSnapshot.Content> previous,
+            Map<Path, ConfigSnapshot.Content> files) throws IOException {
+        final List<Path> regularFiles;
+        try (Stream<Path> walk = Files.walk(root)) {
+            regularFiles = walk
+                    .filter(path -> !root.relativize(path).startsWith(".git"))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        for (Path file : regularFiles) {
+            final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            final Object key = Arrays.asList(attrs.size(), attrs.lastModifiedTime(), attrs.fileKey());
+            final Path path = root.relativize(file);
+            final ConfigSnapshot.Content reused = reuse(previous.get(path), key);
+            files.put(path, reused != null ? reused : readFile(file, attrs.size(), key));
+        }
+    }
+
+    private ConfigSnapshot.Content readFile(Path file, long size, Object key) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (storage == Storage.MAPPED) {
+                final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                allocated.addAndGet(size);
+                return content(mapped, key);
+            }
+            final ByteBuffer buffer = allocate(size);
+            try {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+            } catch (IOException | RuntimeException e) {
+                free(buffer);
+                throw e;
+            }
+            buffer.flip();
+            return content(buffer, key);
+        }
+    }
+
+    private static ConfigSnapshot.Content reuse(ConfigSnapshot.Content candidate, Object key) {
+        return candidate != null && candidate.key().equals(key) ? candidate.retain() : null;
+    }
+
+    private ByteBuffer allocate(long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("file of " + size + " bytes is too large for a snapshot");
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        allocated.addAndGet(size);
+        return buffer;
+    }
+
+    private ConfigSnapshot.Content content(ByteBuffer buffer, Object key) {
+        return new ConfigSnapshot.Content(buffer, key, () -> free(buffer));
+    }
+
+    private void free(ByteBuffer buffer) {
+        allocated.addAndGet(-buffer.capacity());
+        if (INVOKE_CLEANER != null && buffer.capacity() > 0) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("could not free buffer eagerly", e);
+            }
+        }
+    }
+}
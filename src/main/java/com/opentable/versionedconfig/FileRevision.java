@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Objects;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The version of one file at the current revision; see {@link VersioningService#getFileRevision(Path)}.
+ */
+public final class FileRevision {
+    private final Path path;
+    private final ObjectId blobId;
+    private final ObjectId commitId;
+    private final Instant commitTime;
+
+    FileRevision(Path path, ObjectId blobId, ObjectId commitId, Instant commitTime) {
+        this.path = path;
+        this.blobId = blobId;
+        this.commitId = commitId;
+        this.commitTime = commitTime;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the git blob id of the file's contents, which changes exactly when the contents do
+     */
+    public ObjectId getBlobId() {
+        return blobId;
+    }
+
+    /**
+     * @return the newest commit on the branch's first-parent history that changed this file
+     */
+    public ObjectId getCommitId() {
+        return commitId;
+    }
+
+    public Instant getCommitTime() {
+        return commitTime;
+    }
+
+    /**
+     * @return a strong HTTP entity tag for the file's contents
+     */
+    public String getETag() {
+        return eTag(blobId);
+    }
+
+    static String eTag(ObjectId blobId) {
+        return '"' + blobId.name() + '"';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final FileRevision that = (FileRevision) o;
+        return Objects.equals(path, that.path)
+                && Objects.equals(blobId, that.blobId)
+                && Objects.equals(commitId, that.commitId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, blobId, commitId);
+    }
+
+    @Override
+    public String toString() {
+        return "FileRevision{" +
+                "path=" + path +
+                ", blobId=" + blobId.name() +
+                ", commitId=" + commitId.name() +
+                ", commitTime=" + commitTime +
+                '}';
+    }
+}
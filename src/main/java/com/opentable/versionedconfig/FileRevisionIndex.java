@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Path to {@link FileRevision} for every file at the current revision, kept up to date from each update's diff.
+ * <p>
+ * An update re-attributes only the files whose blob changed, walking the new head's first-parent history just far
+ * enough to find the commit that last touched each of them.  The first update, from no revision, attributes every
+ * file and so may walk back to the commit that introduced the oldest one.  Readers see each path change atomically,
+ * but may see some paths of an update in progress before others.
+ */
+@ThreadSafe
+class FileRevisionIndex {
+    private final Map<Path, FileRevision> revisions = new ConcurrentHashMap<>();
+    private volatile ObjectId revision;
+
+    Optional<FileRevision> get(Path path) {
+        return Optional.ofNullable(revisions.get(path.normalize()));
+    }
+
+    int size() {
+        return revisions.size();
+    }
+
+    /**
+     * @return the revision the index reflects, or null before the first update
+     */
+    @Nullable
+    ObjectId getRevision() {
+        return revision;
+    }
+
+    /**
+     * Bring the index from the revision it reflects to {@code newId}.  After a failure the index stays at its
+     * old revision, and the next update covers both changes.
+     */
+    synchronized void update(Repository repository, ObjectId newId) throws IOException {
+        final ObjectId oldId = revision;
+        if (newId.equals(oldId)) {
+            return;
+        }
+        final boolean rebuild = oldId == null;
+        try (RevWalk walk = new RevWalk(repository);
+             TreeWalk diff = new TreeWalk(repository, walk.getObjectReader())) {
+            diff.setRecursive(true);
+            final RevCommit head = walk.parseCommit(newId);
+
+            diff.setFilter(TreeFilter.ANY_DIFF);
+            if (rebuild) {
+                diff.addTree(new EmptyTreeIterator());
+            } else {
+                diff.addTree(walk.parseCommit(oldId).getTree());
+            }
+            diff.addTree(head.getTree());
+            final Map<String, ObjectId> changed = new HashMap<>();
+            final List<String> removed = new ArrayList<>();
+            while (diff.next()) {
+                if (diff.getFileMode(1) == FileMode.MISSING) {
+                    removed.add(diff.getPathString());
+                } else {
+                    changed.put(diff.getPathString(), diff.getObjectId(1));
+                }
+            }
+
+            final Map<Path, FileRevision> attributed = attribute(walk, diff, head, changed);
+            revisions.putAll(attributed);
+            if (rebuild) {
+                revisions.keySet().retainAll(attributed.keySet());
+            } else {
+                removed.forEach(path -> revisions.remove(Paths.get(path)));
+            }
+            revision = newId.copy();
+        }
+    }
+
+    /**
+     * Walk back from {@code head} along first parents until every changed path has met the commit that last
+     * changed it.  Merges count as changing whatever they brought in from their other parents.
+     */
+    private static Map<Path, FileRevision> attribute(RevWalk walk, TreeWalk diff, RevCommit head,
+                                                     Map<String, ObjectId> changed) throws IOException {
+        final Map<Path, FileRevision> result = new HashMap<>();
+        final Set<String> pending = new HashSet<>(changed.keySet());
+        walk.setFirstParent(true);
+        walk.markStart(head);
+        RevCommit commit;
+        while (!pending.isEmpty() && (commit = walk.next()) != null) {
+            diff.reset();
+            diff.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(pending), TreeFilter.ANY_DIFF));
+            if (commit.getParentCount() == 0) {
+                diff.addTree(new EmptyTreeIterator());
+            } else {
+                diff.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+            }
+            diff.addTree(commit.getTree());
+            while (diff.next()) {
+                final String path = diff.getPathString();
+                if (pending.remove(path)) {
+                    final Path key = Paths.get(path);
+                    result.put(key, new FileRevision(key, changed.get(path), commit.copy(),
+                            commit.getCommitterIdent().getWhenAsInstant()));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.Optional.empty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves configuration that is already delivered to a local directory (by a sidecar, a volume mount, or a
+ * developer's editor) through the same contract as {@link GitService}, without running git.
+ * <p>
+ * Changes are noticed through a {@link WatchService}, so {@link #checkForUpdate()} is cheap to call often: when
+ * nothing has changed it only drains the watch queue.  Bursts of events are batched into one update.
+ * Revisions are content hashes over every file's git blob id, so identical trees get identical revisions.
+ * Paths with a component starting with {@code ..} (Kubernetes' atomic-swap directories) and {@code .git}
+ * are ignored, as are symbolic links to files outside the directory.  A file's {@link FileRevision} names the
+ * revision in which its content last changed, and the file's modification time.  The current and previous
+ * revisions can be read back through {@link #getBlobId(ObjectId, Path)}: files up to {@value #MAX_RETAINED_BYTES}
+ * bytes are kept in memory for that, up to {@value #MAX_RETAINED_TOTAL_BYTES} bytes per revision, and an unchanged
+ * file shares its copy between the two.  Other files are read from the directory as long as they are unchanged.
+ */
+@NotThreadSafe
+class FileSystemService implements VersioningService {
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemService.class);
+    private static final long SETTLE_MILLIS = 50;
+    private static final long MAX_BATCH_MILLIS = 1000;
+    /**
+     * Files modified this recently may be rewritten within the same timestamp granularity, so are always re-hashed.
+     */
+    private static final long RACY_MILLIS = 2000;
+    private static final int MAX_RETAINED_BYTES = 1024 * 1024;
+    private static final long MAX_RETAINED_TOTAL_BYTES = 16 * 1024 * 1024;
+
+    private final Path directory;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final UpdatePublisher<VersionedConfigUpdate> updates = new UpdatePublisher<>(UpdatePublisher::coalesce);
+    // every path any scan found, for diffs between revisions other than the last two
+    private final Set<String> seenPaths = ConcurrentHashMap.newKeySet();
+
+    // read by the revision lookups from any thread
+    private volatile Snapshot previous;
+    private volatile Snapshot current;
+    private ObjectId latestKnownObjectId = ObjectId.zeroId();
+    // events were drained that no successful scan has looked at yet
+    private boolean dirty;
+
+    FileSystemService(Path directory) throws VersioningServiceException {
+        this.directory = directory.toAbsolutePath();
+        if (!Files.isDirectory(this.directory)) {
+            throw new VersioningServiceException("Configuration directory " + directory + " does not exist");
+        }
+        try {
+            this.watcher = FileSystems.getDefault().newWatchService();
+            registerTree(this.directory);
+            this.current = scan(Snapshot.EMPTY);
+            seenPaths.addAll(current.files.keySet());
+        } catch (IOException e) {
+            throw new VersioningServiceException("Configuration initialization failed, application can't start", e);
+        }
+        this.previous = current;
+        LOG.info("Watching {}, revision {}", this.directory, current.revision.getName());
+    }
+
+    @Override
+    public VersionedConfigUpdate getCurrentState() {
+        return new VersionedConfigUpdate(directory, Collections.emptySet(), null, latestKnownObjectId);
+    }
+
+    /**
+     * The first call reports every file, like {@link GitService#checkForUpdate()}.  Later calls report the files
+     * whose content changed since the previous update.
+     */
+    @Override
+    public Optional<VersionedConfigUpdate> checkForUpdate() throws VersioningServiceException {
+        if (!latestKnownObjectId.equals(ObjectId.zeroId())) {
+            drainEvents();
+            if (!dirty) {
+                return empty();
+            }
+            final Snapshot scanned = scan(current);
+            dirty = false;
+            if (scanned.revision.equals(current.revision)) {
+                LOG.trace("events but no content change in {}", directory);
+                return empty();
+            }
+            seenPaths.addAll(scanned.files.keySet());
+            previous = current;
+            current = scanned;
+        }
+        final ObjectId old = latestKnownObjectId;
+        final Set<Path> affectedPaths = getAffectedPaths(old, current.revision);
+        latestKnownObjectId = current.revision;
+        final VersionedConfigUpdate update = new VersionedConfigUpdate(directory, affectedPaths, old, current.revision);
+        updates.publish(update);
+        return Optional.of(update);
+    }
+
+    /**
+     * Exact between the previous and the current revision.  From nothing, every current file; otherwise every
+     * file ever seen, since the revisions in between are gone and deleted files must not be missed.
+     */
+    @Override
+    public Set<Path> getAffectedPaths(ObjectId currentHash, ObjectId newHash) {
+        final Set<String> changed;
+        if (currentHash.equals(previous.revision) && newHash.equals(current.revision)) {
+            changed = new HashSet<>();
+            previous.files.forEach((path, entry) -> {
+                if (!entry.equals(current.files.get(path))) {
+                    changed.add(path);
+                }
+            });
+            current.files.keySet().stream()
+                    .filter(path -> !previous.files.containsKey(path))
+                    .forEach(changed::add);
+        } else if (currentHash.equals(ObjectId.zeroId())) {
+            changed = current.files.keySet();
+        } else {
+            changed = seenPaths;
+        }
+        final PathSet.Builder builder = PathSet.builder();
+        changed.forEach(builder::add);
+        final PathSet affectedPaths = builder.build();
+        LOG.info("Update from {} to {} affected {} paths", currentHash, newHash, affectedPaths.size());
+        LOG.debug("Affected paths = {}", affectedPaths);
+        return affectedPaths;
+    }
+
+    /**
+     * Marks the tree dirty if anything happened in it, until a scan succeeds; events arriving in quick succession
+     * are collected into the same batch.
+     */
+    private void drainEvents() {
+        final long batchDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_MILLIS);
+        WatchKey key = watcher.poll();
+        while (key != null) {
+            dirty = true;
+            handle(key);
+            if (System.nanoTime() - batchDeadline > 0) {
+                break;
+            }
+            try {
+                key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Registers new directories, and after an overflow the whole tree again, since directories created during
+     * the overflow would otherwise never be watched.  The key is always reset, so its directory stays watched.
+     */
+    private void handle(WatchKey key) {
+        try {
+            final Path dir = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    LOG.debug("watch overflow in {}, registering the tree again", directory);
+                    registerTree(directory);
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                final Path child = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(child) && !ignored(directory.relativize(child))) {
+                    registerTree(child);
+                }
+            }
+        } catch (IOException e) {
+            throw new VersioningServiceException(e);
+        } finally {
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Directories deleted while this walks are skipped.
+     */
+    private void registerTree(Path root) throws IOException {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                if (!ignored(directory.relativize(dir))) {
+                    try {
+                        watchedDirectories.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    } catch (NoSuchFileException e) {
+                        LOG.debug("{} went away before it could be watched", dir);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            LOG.debug("{} went away before it could be watched", root);
+        } catch (UncheckedIOException e) {
+            if (!(e.getCause() instanceof NoSuchFileException)) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Hash every file, reusing the blob id from the last scan when size and modification time are unchanged.  A
+     * file deleted while this walks is left out; the deletion's own event causes another scan.
+     */
+    private Snapshot scan(Snapshot last) {
+        final long racyAfter = System.currentTimeMillis() - RACY_MILLIS;
+        final SortedMap<String, FileEntry> files = new TreeMap<>();
+        long retained = 0;
+        try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+             Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                final Path relative = directory.relativize(path);
+                if (ignored(relative) || !Files.isRegularFile(path) || linksOutside(path)) {
+                    continue;
+                }
+                final String name = relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+                try {
+                    FileEntry entry = scanFile(formatter, path, last.files.get(name), racyAfter);
+                    if (entry.content != null) {
+                        if (retained + entry.content.length > MAX_RETAINED_TOTAL_BYTES) {
+                            entry = entry.withoutContent();
+                        } else {
+                            retained += entry.content.length;
+                        }
+                    }
+                    files.put(name, entry);
+                } catch (NoSuchFileException e) {
+                    LOG.debug("{} went away during the scan", path);
+                }
+            }
+        } catch (IOException e) {
+            throw new VersioningServiceException(e);
+        } catch (UncheckedIOException e) {
+            throw new VersioningServiceException(e.getCause());
+        }
+        return new Snapshot(files, last);
+    }
+
+    private static FileEntry scanFile(ObjectInserter.Formatter formatter, Path path, @Nullable FileEntry known,
+                                      long racyAfter) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        final long modified = attrs.lastModifiedTime().toMillis();
+        if (known != null && known.size == attrs.size() && known.modified == modified && modified < racyAfter) {
+            return known;
+        }
+        if (attrs.size() <= MAX_RETAINED_BYTES) {
+            final byte[] content = Files.readAllBytes(path);
+            return new FileEntry(formatter.idFor(Constants.OBJ_BLOB, content), content.length, modified, content);
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return new FileEntry(formatter.idFor(Constants.OBJ_BLOB, attrs.size(), in), attrs.size(), modified, null);
+        }
+    }
+
+    /**
+     * Symbolic links are followed, as a mounted ConfigMap needs, but not out of the directory.
+     */
+    private boolean linksOutside(Path path) throws IOException {
+        try {
+            return Files.isSymbolicLink(path) && !path.toRealPath().startsWith(directory.toRealPath());
+        } catch (NoSuchFileException e) {
+            // gone since the walk found it
+            return true;
+        }
+    }
+
+    private static boolean ignored(Path relative) {
+        for (Path part : relative) {
+            final String name = part.toString();
+            if (name.equals(Constants.DOT_GIT) || name.startsWith("..")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Optional<FileRevision> getFileRevision(Path path) {
+        return Optional.ofNullable(current.revisions.get(PathSet.gitPath(path)));
+    }
+
+    /**
+     * Only the current and the previous revision are kept.
+     */
+    @Override
+    public Optional<ObjectId> getBlobId(ObjectId revision, Path path) {
+        final Snapshot snapshot = snapshotAt(revision);
+        final FileEntry entry = snapshot == null ? null : snapshot.files.get(PathSet.gitPath(path));
+        return entry == null ? empty() : Optional.of(entry.blobId);
+    }
+
+    @Override
+    public Optional<ObjectLoader> openBlob(ObjectId blobId) {
+        final Snapshot latest = current;
+        for (Snapshot snapshot : new Snapshot[] {latest, previous}) {
+            final String path = snapshot.blobs.get(blobId);
+            if (path == null) {
+                continue;
+            }
+            final byte[] content = snapshot.files.get(path).content;
+            if (content != null) {
+                return Optional.of(new ObjectLoader.SmallObject(Constants.OBJ_BLOB, content));
+            }
+            if (snapshot == latest) {
+                return readUnchanged(path, blobId);
+            }
+        }
+        return empty();
+    }
+
+    @Nullable
+    private Snapshot snapshotAt(ObjectId revision) {
+        final Snapshot latest = current;
+        if (latest.revision.equals(revision)) {
+            return latest;
+        }
+        final Snapshot before = previous;
+        return before.revision.equals(revision) ? before : null;
+    }
+
+    /**
+     * A file too large to keep in memory, if it still has the content it was scanned with.
+     */
+    private Optional<ObjectLoader> readUnchanged(String path, ObjectId blobId) {
+        try {
+            final byte[] content = Files.readAllBytes(directory.resolve(path));
+            try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+                if (formatter.idFor(Constants.OBJ_BLOB, content).equals(blobId)) {
+                    return Optional.of(new ObjectLoader.SmallObject(Constants.OBJ_BLOB, content));
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("could not read {} back", path, e);
+        }
+        return empty();
+    }
+
+    @Override
+    public Path getCheckoutDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String getLatestRevision() {
+        return latestKnownObjectId.getName();
+    }
+
+    @Override
+    public Optional<ObjectId> getHead() {
+        return Optional.of(current.revision);
+    }
+
+    /**
+     * A plain directory has no branches.
+     */
+    @Override
+    public String getBranch() {
+        return "";
+    }
+
+    @Override
+    public Flow.Publisher<VersionedConfigUpdate> updates() {
+        return updates;
+    }
+
+    @Override
+    @PreDestroy
+    public void close() throws IOException {
+        updates.close();
+        watcher.close();
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new TreeMap<>(), null);
+
+        private final Map<String, FileEntry> files;
+        private final ObjectId revision;
+        private final Map<String, FileRevision> revisions;
+        // one path for each blob id, to find contents by id
+        private final Map<ObjectId, String> blobs;
+
+        /**
+         * @param last files whose content it had keep their revision from it
+         */
+        Snapshot(SortedMap<String, FileEntry> files, Snapshot last) {
+            this.files = ImmutableSortedMap.copyOfSorted(files);
+            this.revision = hash(this.files);
+            final ImmutableMap.Builder<String, FileRevision> builder = ImmutableMap.builderWithExpectedSize(files.size());
+            this.files.forEach((path, entry) -> {
+                final FileRevision known = last == null ? null : last.revisions.get(path);
+                builder.put(path, known != null && known.getBlobId().equals(entry.blobId) ? known
+                        : new FileRevision(Paths.get(path), entry.blobId, revision, Instant.ofEpochMilli(entry.modified)));
+            });
+            this.revisions = builder.build();
+            final Map<ObjectId, String> byBlob = new HashMap<>();
+            this.files.forEach((path, entry) -> byBlob.putIfAbsent(entry.blobId, path));
+            this.blobs = Collections.unmodifiableMap(byBlob);
+        }
+
+        private static ObjectId hash(Map<String, FileEntry> files) {
+            try {
+                final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                files.forEach((path, entry) -> {
+                    digest.update(path.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(entry.blobId.name().getBytes(StandardCharsets.US_ASCII));
+                });
+                return ObjectId.fromRaw(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class FileEntry {
+        private final ObjectId blobId;
+        private final long size;
+        private final long modified;
+        @Nullable
+        private final byte[] content;
+
+        FileEntry(ObjectId blobId, long size, long modified, @Nullable byte[] content) {
+            this.blobId = blobId;
+            this.size = size;
+            this.modified = modified;
+            this.content = content;
+        }
+
+        FileEntry withoutContent() {
+            return new FileEntry(blobId, size, modified, null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FileEntry && blobId.equals(((FileEntry) o).blobId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(blobId);
+        }
+    }
+}
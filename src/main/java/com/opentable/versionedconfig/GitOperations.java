@@ -13,54 +13,126 @@
  */
 package com.opentable.versionedconfig;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.PullCommand;
-import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.LockFile;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.TransportHttp;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.SystemReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-final class GitOperations {
+import com.opentable.io.DeleteRecursively;
+
+final class GitOperations implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(GitOperations.class);
+    /**
+     * How many commits the commit-graph may fall behind the branch before it is written again.  Writing it walks
+     * the whole history, which on every update would cost more than the change log walks it saves.
+     */
+    @VisibleForTesting
+    static final int COMMIT_GRAPH_SLACK = 100;
     private final Git git;
     private final GitProperties config;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicReference<LoggingProgressMonitor> currentAttempt = new AtomicReference<>();
+    private final ScheduledThreadPoolExecutor deadlines;
+    @Nullable
+    private final HttpConnectionPool httpConnections;
+    private final ThreadPoolExecutor checkoutExecutor;
+    private final IncrementalCheckout checkout;
+    private volatile Instant fetchedAt = Instant.EPOCH;
+    private volatile long fetchedNanos;
 
     GitOperations(final GitProperties config, Path checkoutDir) throws VersioningServiceException, IOException {
+        this(config, checkoutDir, false);
+    }
+
+    /**
+     * @param bare keep a bare repository that mirrors the remotes, updated with {@link #fetch()}, instead of a checkout
+     */
+    GitOperations(final GitProperties config, Path directory, boolean bare) throws VersioningServiceException, IOException {
         this.config = config;
-        this.git = openRepo(config, checkoutDir);
+        this.deadlines = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("versioned-config-deadline-%d").setDaemon(true).build());
+        deadlines.setRemoveOnCancelPolicy(true);
+        this.httpConnections = config.getHttpMaxConnectionsPerRemote() > 0
+                ? new HttpConnectionPool(unpooledHttpConnections(), config.getHttpMaxConnectionsPerRemote(),
+                        config.getHttpIdleTimeout(), config.getConnectTimeout(), deadlines)
+                : null;
+        this.git = bare ? openMirror(directory) : openRepo(config, directory);
+        this.checkoutExecutor = new ThreadPoolExecutor(config.getCheckoutThreads(), config.getCheckoutThreads(),
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("versioned-config-checkout-%d").setDaemon(true).build());
+        checkoutExecutor.allowCoreThreadTimeOut(true);
+        this.checkout = new IncrementalCheckout(git.getRepository(), checkoutExecutor, config.getCheckoutThreads());
     }
 
     private void configureCredentials(TransportCommand<?, ?> op, URI uri) {
@@ -70,62 +142,476 @@ final class GitOperations {
         }
     }
 
+    /**
+     * @return null unless HTTP connections are pooled
+     */
+    @Nullable
+    private HttpConnectionPool.Session openHttpSession() {
+        return httpConnections == null ? null : httpConnections.openSession();
+    }
+
+    private void configureTransport(TransportCommand<?, ?> op, URI uri, @Nullable HttpConnectionPool.Session http,
+            LoggingProgressMonitor monitor) {
+        configureCredentials(op, uri);
+        final Duration readTimeout = monitor.clamp(config.getReadTimeout());
+        if (readTimeout != null) {
+            op.setTimeout(toTimeoutSeconds(readTimeout));
+        }
+        final Duration connectTimeout = monitor.clamp(config.getConnectTimeout());
+        if (connectTimeout != null || http != null) {
+            op.setTransportConfigCallback(transport -> {
+                if (transport instanceof TransportHttp) {
+                    ((TransportHttp) transport).setHttpConnectionFactory(
+                            http != null ? http : unpooledHttpConnections(connectTimeout, readTimeout));
+                } else if (connectTimeout != null && readTimeout == null) {
+                    // other transports only have a single timeout, which also bounds connecting
+                    transport.setTimeout(toTimeoutSeconds(connectTimeout));
+                }
+            });
+        }
+    }
+
+    private HttpConnectionFactory unpooledHttpConnections() {
+        return unpooledHttpConnections(config.getConnectTimeout(), config.getReadTimeout());
+    }
+
+    private static HttpConnectionFactory unpooledHttpConnections(@Nullable Duration connectTimeout, @Nullable Duration readTimeout) {
+        final HttpConnectionFactory factory = HttpTransport.getConnectionFactory();
+        return connectTimeout == null ? factory : new TimeoutHttpConnectionFactory(factory, connectTimeout, readTimeout);
+    }
+
+    private static int toTimeoutSeconds(Duration timeout) {
+        return (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout.toMillis() + 999));
+    }
+
+    /**
+     * A fresh progress monitor per remote attempt, so that the operation deadline restarts when
+     * {@link #upstreamRetry(Function)} moves on to the next remote.  The attempt runs on the calling thread
+     * until {@link LoggingProgressMonitor#finish()}.
+     * <p>
+     * JGit only polls the monitor while it transfers objects, not while it connects or negotiates refs, so the
+     * deadline and {@link #cancel()} also {@link LoggingProgressMonitor#abort() abort} the attempt, and every
+     * transport timeout is cut to the time left.
+     */
+    private LoggingProgressMonitor startAttempt() {
+        final Duration timeout = config.getOperationTimeout();
+        final LoggingProgressMonitor monitor = new LoggingProgressMonitor(
+                timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos(),
+                cancelled, Thread.currentThread());
+        currentAttempt.set(monitor);
+        if (timeout != null) {
+            monitor.watchdog = deadlines.schedule(() -> {
+                LOG.warn("git operation exceeded its deadline of {}, aborting", timeout);
+                monitor.abort();
+            }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (cancelled.get()) {
+            monitor.abort();
+        }
+        return monitor;
+    }
+
+    Repository getRepository() {
+        return git.getRepository();
+    }
+
+    @Override
+    public void close() {
+        checkoutExecutor.shutdown();
+        deadlines.shutdownNow();
+        if (httpConnections != null) {
+            httpConnections.close();
+        }
+    }
+
+    /**
+     * Abort the clone or fetch currently running, or the next one if none is; it fails with a
+     * {@link VersioningServiceException} and no further remotes are tried.
+     */
+    void cancel() {
+        LOG.info("cancelling in-progress git operation");
+        cancelled.set(true);
+        final LoggingProgressMonitor attempt = currentAttempt.get();
+        if (attempt != null) {
+            attempt.abort();
+        }
+    }
+
     private Git openRepo(final GitProperties serviceConfig, Path checkoutDir)
             throws VersioningServiceException, IOException {
         if (Files.isDirectory(checkoutDir) && Files.exists(checkoutDir.resolve(".git"))) {
             LOG.info("Using existing checkout directory {}", checkoutDir);
-            return new Git(new FileRepository(checkoutDir.resolve(".git").toFile()));
+            final Git existing = new Git(new FileRepository(checkoutDir.resolve(".git").toFile()));
+            configureRemotes(existing);
+            return existing;
+        }
+        final boolean existed = Files.exists(checkoutDir);
+        if (existed && !isEmptyDirectory(checkoutDir)) {
+            // never clean up after a clone into a directory that holds something else
+            throw new VersioningServiceException("Checkout directory " + checkoutDir + " is not empty and not a git checkout");
+        }
+        if (serviceConfig.isSeeded()) {
+            return seedRepo(serviceConfig, checkoutDir, existed);
         }
         final List<URI> remotes = config.getRemoteRepositories();
         final Git result = upstreamRetry(remoteIndex -> {
             final String cloneBranch = serviceConfig.getBranch();
             LOG.info("cloning {} (branch {}) to {}", remoteIndex, cloneBranch, checkoutDir);
 
-            try {
+            try (HttpConnectionPool.Session http = openHttpSession();
+                 LoggingProgressMonitor monitor = startAttempt()) {
                 final URI uri = remotes.get(remoteIndex);
                 SystemReader.getInstance().getUserConfig().setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTODETACH, false);
                 CloneCommand clone = Git.cloneRepository()
                         .setBare(false)
                         .setBranch(cloneBranch)
+                        .setCloneAllBranches(false)
+                        .setBranchesToClone(Collections.singleton(Constants.R_HEADS + cloneBranch))
+                        .setNoTags()
                         .setDirectory(checkoutDir.toFile())
-                        .setURI(uri.toString());
-                configureCredentials(clone, uri);
-                return clone.call();
-            } catch (GitAPIException | ConfigInvalidException | IOException ioe) {
+                        .setURI(uri.toString())
+                        .setProgressMonitor(monitor);
+                configureTransport(clone, uri, http, monitor);
+                final Git cloned = clone.call();
+                if (monitor.wasCancelled()) {
+                    cloned.close();
+                    discardPartialCheckout(checkoutDir, existed);
+                    throw new VersioningServiceException("Clone from remote " + remoteIndex + " was cancelled or timed out");
+                }
+                return cloned;
+            } catch (GitAPIException | JGitInternalException | ConfigInvalidException | IOException ioe) {
+                discardPartialCheckout(checkoutDir, existed);
                 throw new VersioningServiceException("Could not clone repo", ioe);
             }
         });
+        configureRemotes(result);
+        return result;
+    }
+
+    /**
+     * Remove what a failed clone or seed wrote into {@code checkoutDir}, which was empty or did not exist
+     * beforehand.
+     */
+    private static void discardPartialCheckout(Path checkoutDir, boolean existed) {
+        if (!Files.exists(checkoutDir)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(checkoutDir, DeleteRecursively.INSTANCE);
+            if (existed) {
+                Files.createDirectories(checkoutDir);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not clean up partial checkout in {}", checkoutDir, e);
+        }
+    }
+
+    private static boolean isEmptyDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.findAny().isEmpty();
+        }
+    }
+
+    /**
+     * Initialize the checkout from a local seed (bundle and/or alternates) and then fetch only what the
+     * seed is missing from the remotes.  The seed refs double as "have"s during negotiation, so a fresh
+     * container only downloads the commits made since the seed was built.
+     * <p>
+     * If seeding fails, what it wrote is removed again, so the next start does not mistake a half-initialized
+     * repository for an existing checkout.
+     */
+    private Git seedRepo(final GitProperties serviceConfig, Path checkoutDir, boolean existed)
+            throws VersioningServiceException, IOException {
+        final String branch = serviceConfig.getBranch();
+        LOG.info("seeding {} (branch {}) from bundle {} / objects {}",
+                checkoutDir, branch, serviceConfig.getSeedBundle(), serviceConfig.getSeedObjectDirectory());
+        Git result = null;
+        try {
+            try {
+                SystemReader.getInstance().getUserConfig().setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTODETACH, false);
+                Git.init().setBare(false).setDirectory(checkoutDir.toFile()).call().close();
+            } catch (GitAPIException | ConfigInvalidException e) {
+                throw new VersioningServiceException("Could not initialize repo", e);
+            }
+
+            final Path seedObjects = serviceConfig.getSeedObjectDirectory();
+            if (seedObjects != null) {
+                final Path alternates = checkoutDir.resolve(Constants.DOT_GIT).resolve("objects").resolve("info").resolve("alternates");
+                Files.createDirectories(alternates.getParent());
+                Files.write(alternates, Collections.singletonList(seedObjects.toAbsolutePath().toString()));
+            }
+
+            result = Git.open(checkoutDir.toFile());
+            final Path seedBundle = serviceConfig.getSeedBundle();
+            if (seedBundle != null) {
+                try {
+                    result.fetch()
+                            .setRemote(seedBundle.toAbsolutePath().toUri().toString())
+                            .setRefSpecs(new RefSpec(Constants.R_HEADS + "*:" + Constants.R_REMOTES + "seed/*").setForceUpdate(true))
+                            .setTagOpt(TagOpt.NO_TAGS)
+                            .call();
+                } catch (GitAPIException | JGitInternalException e) {
+                    throw new VersioningServiceException("Could not read seed bundle " + seedBundle, e);
+                }
+            }
+
+            configureRemotes(result);
+            final Git seeded = result;
+            final int fetchedFrom = upstreamRetry(remoteIndex -> fetchFrom(seeded, remoteIndex));
+            try {
+                result.checkout()
+                        .setCreateBranch(true)
+                        .setName(branch)
+                        .setStartPoint(Constants.R_REMOTES + "remote" + fetchedFrom + "/" + branch)
+                        .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                        .call();
+            } catch (GitAPIException | JGitInternalException e) {
+                throw new VersioningServiceException("Could not check out branch " + branch + " in seeded repo", e);
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            if (result != null) {
+                result.close();
+            }
+            discardPartialCheckout(checkoutDir, existed);
+            throw e;
+        }
+    }
+
+    private Git openMirror(Path directory) throws VersioningServiceException, IOException {
+        final Git result;
+        if (Files.exists(directory.resolve(Constants.HEAD))) {
+            result = Git.open(directory.toFile());
+        } else {
+            LOG.info("creating mirror of {} in {}", config.getRemoteRepositories(), directory);
+            try {
+                result = Git.init().setBare(true).setDirectory(directory.toFile()).call();
+            } catch (GitAPIException e) {
+                throw new VersioningServiceException("Could not initialize mirror " + directory, e);
+            }
+        }
+        configureRemotes(result);
+        return result;
+    }
+
+    /**
+     * Fetch the configured refs into the {@code remoteN} namespace, without touching any checkout.  Refs the remote
+     * no longer has are deleted, so a mirror does not go on serving branches removed upstream.
+     * @return the index of the remote that was fetched from
+     */
+    int fetch() throws VersioningServiceException {
+        try {
+            return upstreamRetry(remoteIndex -> fetchFrom(git, remoteIndex));
+        } finally {
+            cancelled.set(false);
+        }
+    }
+
+    private int fetchFrom(Git repo, int remoteIndex) throws VersioningServiceException {
+        try (HttpConnectionPool.Session http = openHttpSession();
+             LoggingProgressMonitor monitor = startAttempt()) {
+            final FetchCommand fetch = repo.fetch()
+                    .setRemote("remote" + remoteIndex)
+                    .setTagOpt(TagOpt.NO_TAGS)
+                    .setRemoveDeletedRefs(true)
+                    .setProgressMonitor(monitor);
+            configureTransport(fetch, config.getRemoteRepositories().get(remoteIndex), http, monitor);
+            LOG.trace("Fetch got {}", fetch.call().getTrackingRefUpdates());
+            if (monitor.wasCancelled()) {
+                throw new VersioningServiceException("Fetch from remote " + remoteIndex + " was cancelled or timed out");
+            }
+            return remoteIndex;
+        } catch (GitAPIException | JGitInternalException e) {
+            throw new VersioningServiceException("Could not fetch from remote " + remoteIndex, e);
+        }
+    }
+
+    /**
+     * (Re)write the {@code remoteN} sections so that each remote fetches only the configured branch
+     * plus any explicitly requested refs, and never follows tags.  Without this every poll would
+     * negotiate every branch and tag the upstream advertises.
+     */
+    private void configureRemotes(Git repo) throws VersioningServiceException {
+        final StoredConfig repoConfig = repo.getRepository().getConfig();
+        final List<URI> remotes = config.getRemoteRepositories();
         for (int i = 0; i < remotes.size(); i++) {
+            final String name = "remote" + i;
             try {
-                result.remoteAdd()
-                    .setName("remote" + i)
-                    .setUri(new URIish(remotes.get(i).toString()))
-                    .call();
-            } catch (GitAPIException | URISyntaxException e) {
+                final RemoteConfig remote = new RemoteConfig(repoConfig, name);
+                new ArrayList<>(remote.getURIs()).forEach(remote::removeURI);
+                remote.addURI(new URIish(remotes.get(i).toString()));
+                remote.setFetchRefSpecs(fetchRefSpecs(name));
+                remote.setTagOpt(TagOpt.NO_TAGS);
+                remote.update(repoConfig);
+            } catch (URISyntaxException e) {
                 throw new VersioningServiceException("Could not add remote " + remotes.get(i), e);
             }
         }
+        // Read commit parents from the commit-graph that pull() writes, and let a manual gc rewrite it too
+        repoConfig.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+        repoConfig.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
+        try {
+            repoConfig.save();
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not save remote configuration", e);
+        }
+    }
+
+    @VisibleForTesting
+    List<RefSpec> fetchRefSpecs(String remoteName) {
+        final List<RefSpec> result = new ArrayList<>();
+        result.add(branchRefSpec(remoteName, config.getBranch()));
+        for (String ref : config.getFetchRefs()) {
+            if (ref.contains(":")) {
+                result.add(new RefSpec(ref));
+            } else if (ref.startsWith(Constants.R_HEADS)) {
+                result.add(branchRefSpec(remoteName, ref.substring(Constants.R_HEADS.length())));
+            } else if (ref.startsWith(Constants.R_REFS)) {
+                result.add(new RefSpec(ref + ":" + ref).setForceUpdate(true));
+            } else {
+                result.add(branchRefSpec(remoteName, ref));
+            }
+        }
         return result;
     }
 
+    private static RefSpec branchRefSpec(String remoteName, String branch) {
+        return new RefSpec(Constants.R_HEADS + branch + ":" + Constants.R_REMOTES + remoteName + "/" + branch)
+                .setForceUpdate(true);
+    }
+
+    /**
+     * Fetch the configured refs, then fast-forward the checkout to the fetched branch, writing only what changed.
+     * History that cannot be fast-forwarded (e.g. after a force push) is merged as {@code git pull} would.
+     */
     boolean pull() throws VersioningServiceException {
         LOG.trace("pulling latest");
-        return upstreamRetry(remoteIndex -> {
-            try {
-                final PullCommand pull = git.pull();
-                LOG.trace("Git pull completed");
-                configureCredentials(pull, config.getRemoteRepositories().get(remoteIndex));
-                LOG.trace("Configuration of credentials completed, setting remote {}", remoteIndex);
-                pull.setRemote("remote" + remoteIndex);
-                // Added but not deployed yet
-                pull.setProgressMonitor(LOGGING_PROGRESS_MONITOR);
-                PullResult result = pull.call();
+        try {
+            return upstreamRetry(this::pullFrom);
+        } finally {
+            cancelled.set(false);
+        }
+    }
+
+    private boolean pullFrom(int remoteIndex) throws VersioningServiceException {
+        final String remote = "remote" + remoteIndex;
+        try (HttpConnectionPool.Session http = openHttpSession();
+             LoggingProgressMonitor monitor = startAttempt()) {
+            final FetchCommand fetch = git.fetch()
+                    .setRemote(remote)
+                    .setTagOpt(TagOpt.NO_TAGS)
+                    .setProgressMonitor(monitor);
+            configureTransport(fetch, config.getRemoteRepositories().get(remoteIndex), http, monitor);
+            LOG.trace("Fetch got {}", fetch.call().getTrackingRefUpdates());
+            fetchedAt = Instant.now();
+            fetchedNanos = System.nanoTime();
+            // only the transfer is aborted; the checkout below is local and runs to completion
+            monitor.finish();
+            if (monitor.wasCancelled()) {
+                throw new VersioningServiceException("Pull from remote " + remoteIndex + " was cancelled or timed out");
+            }
+            final Ref fetched = git.getRepository().exactRef(Constants.R_REMOTES + remote + "/" + config.getBranch());
+            if (fetched == null) {
+                throw new VersioningServiceException("Remote " + remoteIndex + " has no branch " + config.getBranch());
+            }
+            final boolean pulled;
+            if (checkout.fastForward(fetched.getObjectId())) {
+                pulled = true;
+            } else {
+                LOG.info("{} cannot be fast-forwarded to {}, merging", config.getBranch(), fetched.getObjectId().name());
+                final MergeResult result = git.merge().include(fetched).setProgressMonitor(monitor).call();
                 LOG.trace("Got result {}", result);
-                return result.isSuccessful();
-            } catch (GitAPIException e) {
-                throw new VersioningServiceException("could not pull", e);
+                pulled = result.getMergeStatus().isSuccessful();
             }
-        });
+            refreshCommitGraph();
+            return pulled;
+        } catch (GitAPIException | JGitInternalException | IOException e) {
+            throw new VersioningServiceException("could not pull", e);
+        }
+    }
+
+    /**
+     * JGit reads commit parents from {@code objects/info/commit-graph} when there is one, but only its gc writes
+     * the file and nothing here runs gc.  So write it ourselves once {@link #COMMIT_GRAPH_SLACK} commits of the
+     * checked out history are missing from it.  A graph that could not be written only makes walks slower.
+     */
+    private void refreshCommitGraph() {
+        if (!(git.getRepository() instanceof FileRepository)) {
+            return;
+        }
+        final FileRepository repository = (FileRepository) git.getRepository();
+        try (RevWalk walk = new RevWalk(repository)) {
+            final ObjectId head = repository.resolve(Constants.HEAD);
+            if (head == null) {
+                return;
+            }
+            final CommitGraph graph = walk.getObjectReader().getCommitGraph().orElse(CommitGraph.EMPTY);
+            if (countMissing(walk, graph, head, COMMIT_GRAPH_SLACK) < COMMIT_GRAPH_SLACK) {
+                return;
+            }
+            final LockFile lock = new LockFile(new File(repository.getObjectsDirectory(), Constants.INFO_COMMIT_GRAPH));
+            if (!lock.lock()) {
+                LOG.debug("The commit-graph of {} is being written by someone else", repository.getDirectory());
+                return;
+            }
+            try (RevWalk graphWalk = new RevWalk(repository)) {
+                final GraphCommits commits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, Collections.singleton(head), graphWalk);
+                try (OutputStream out = lock.getOutputStream()) {
+                    new CommitGraphWriter(commits).write(NullProgressMonitor.INSTANCE, out);
+                }
+                if (!lock.commit()) {
+                    throw new IOException("could not replace " + Constants.INFO_COMMIT_GRAPH);
+                }
+                LOG.debug("Wrote the commit-graph of {} up to {}", repository.getDirectory(), head.name());
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not write the commit-graph of {}", repository.getDirectory(), e);
+        }
+    }
+
+    /**
+     * @return how many commits reachable from {@code tip} the graph lacks, counting no further than {@code limit};
+     * only those commits are read, since the graph covers everything behind a commit it has
+     */
+    private static int countMissing(RevWalk walk, CommitGraph graph, ObjectId tip, int limit) throws IOException {
+        final Deque<RevCommit> pending = new ArrayDeque<>();
+        final Set<ObjectId> queued = new HashSet<>();
+        pending.add(walk.parseCommit(tip));
+        queued.add(tip.copy());
+        int missing = 0;
+        while (!pending.isEmpty() && missing < limit) {
+            final RevCommit commit = pending.remove();
+            if (graph.findGraphPosition(commit) >= 0) {
+                continue;
+            }
+            missing++;
+            walk.parseHeaders(commit);
+            for (RevCommit parent : commit.getParents()) {
+                if (queued.add(parent.copy())) {
+                    pending.add(parent);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return when the fetch of the last {@link #pull()} returned, before the checkout
+     */
+    Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the fetch of the last {@link #pull()} returned
+     */
+    long getFetchedNanos() {
+        return fetchedNanos;
     }
 
     @VisibleForTesting
@@ -159,54 +645,101 @@ final class GitOperations {
         }
     }
 
-    Set<String> affectedFiles(ObjectId oldId, ObjectId newId) throws VersioningServiceException {
+    /**
+     * Paths that differ between the two commits, collected straight from a tree walk in the order it visits them,
+     * which is the order {@link PathSet} keeps.
+     */
+    PathSet affectedFiles(ObjectId oldId, ObjectId newId) throws VersioningServiceException {
         LOG.trace("innerAffectedFiles {}, {}", oldId, newId);
-        final List<DiffEntry> diffEntries = affectedFilesBetweenCommits(oldId, newId);
-        LOG.trace("diff entries {}", diffEntries);
-        final Set<String> items = diffEntries.stream()
-                .map(this::relevantDiffPath)
-                .collect(Collectors.toSet());
-        return ImmutableSet.copyOf(items);
+        final Repository repo = git.getRepository();
+        try (RevWalk walk = new RevWalk(repo);
+             TreeWalk diff = new TreeWalk(repo, walk.getObjectReader())) {
+            diff.setRecursive(true);
+            diff.setFilter(TreeFilter.ANY_DIFF);
+            diff.addTree(walk.parseCommit(oldId).getTree());
+            diff.addTree(walk.parseCommit(newId).getTree());
+            final PathSet.Builder result = PathSet.builder();
+            while (diff.next()) {
+                final byte[] path = diff.getRawPath();
+                result.add(path, path.length);
+            }
+            return result.build();
+        } catch (IOException e) {
+            throw new VersioningServiceException("Can't get diff", e);
+        }
     }
 
-    private String relevantDiffPath(DiffEntry diff) {
-        if (DiffEntry.ChangeType.ADD == diff.getChangeType()) {
-            return diff.getNewPath();  // there is no old path
+    /**
+     * Committer times of the commits reachable from {@code newId} but not {@code oldId}, newest first.
+     */
+    List<Instant> commitTimesBetween(ObjectId oldId, ObjectId newId, int limit) throws VersioningServiceException {
+        try (RevWalk walk = new RevWalk(git.getRepository())) {
+            walk.markStart(walk.parseCommit(newId));
+            if (!ObjectId.zeroId().equals(oldId)) {
+                walk.markUninteresting(walk.parseCommit(oldId));
+            }
+            final List<Instant> result = new ArrayList<>();
+            for (RevCommit commit : walk) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(commit.getCommitterIdent().getWhenAsInstant());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new VersioningServiceException("Can't walk commits", e);
         }
-        return diff.getOldPath();
     }
 
-    List<DiffEntry> affectedFilesBetweenCommits(ObjectId oldId, ObjectId headId) throws VersioningServiceException {
+    /**
+     * @return the blob at {@code path} in {@code revision}, or null if there is no such file or revision
+     */
+    @Nullable
+    ObjectId blobAt(ObjectId revision, String path) throws VersioningServiceException {
         final Repository repo = git.getRepository();
-        try (RevWalk walk = new RevWalk(repo)) {
-            LOG.trace("trying to figure out difference between {} and {}", oldId.toString(), headId.toString());
-
-            final CanonicalTreeParser oldTreeParser = new CanonicalTreeParser();
-            try (ObjectReader oldReader = repo.newObjectReader()) {
-                final RevTree oldTree = walk.parseCommit(oldId).getTree();
-                oldTreeParser.reset(oldReader, oldTree.getId());
-            }
-
-            final CanonicalTreeParser newTreeParser = new CanonicalTreeParser();
-            try (ObjectReader newReader = repo.newObjectReader()) {
-                final RevTree newTree = walk.parseCommit(headId).getTree();
-                newTreeParser.reset(newReader, newTree.getId());
+        try (RevWalk walk = new RevWalk(repo);
+             TreeWalk treeWalk = TreeWalk.forPath(repo, walk.getObjectReader(), path, walk.parseCommit(revision).getTree())) {
+            if (treeWalk == null || treeWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+                return null;
             }
+            return treeWalk.getObjectId(0);
+        } catch (MissingObjectException | IncorrectObjectTypeException e) {
+            return null;
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not look up " + path + " at " + revision.name(), e);
+        }
+    }
 
-            return git.diff()
-                    .setOldTree(oldTreeParser)
-                    .setNewTree(newTreeParser)
-                    .call();
-        } catch (GitAPIException | IOException e) {
-            throw new VersioningServiceException("Can't get diff", e);
+    /**
+     * @return empty if there is no such blob
+     */
+    Optional<ObjectLoader> openBlob(ObjectId blobId) throws VersioningServiceException {
+        try {
+            return Optional.of(git.getRepository().open(blobId, Constants.OBJ_BLOB));
+        } catch (MissingObjectException | IncorrectObjectTypeException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not open blob " + blobId.name(), e);
         }
     }
 
+    /**
+     * The commits reachable from {@code newId} but not {@code oldId}, oldest first; see
+     * {@link VersioningService#getChangeLog(ObjectId, ObjectId)}.
+     */
+    Stream<ConfigCommit> changeLog(@Nullable ObjectId oldId, ObjectId newId) {
+        return ChangeLogIterator.stream(git.getRepository(), oldId, newId);
+    }
+
     private <T> T upstreamRetry(Function<Integer, T> action) {
         RuntimeException failure = null;
         int idx = -1;
         for (URI remote : config.getRemoteRepositories()) {
             idx += 1;
+            if (cancelled.get()) {
+                LOG.info("cancelled, not trying remote {} '{}'", idx, remote);
+                break;
+            }
             try {
                 final T result = action.apply(idx);
                 if (failure != null) {
@@ -225,11 +758,28 @@ final class GitOperations {
         if (failure != null) {
             throw failure;
         }
+        if (cancelled.get()) {
+            throw new VersioningServiceException("Git operation was cancelled");
+        }
         throw new IllegalStateException("no remotes to fetch");
     }
 
-    private static final LoggingProgressMonitor LOGGING_PROGRESS_MONITOR = new LoggingProgressMonitor();
-    static class LoggingProgressMonitor implements ProgressMonitor {
+    static class LoggingProgressMonitor implements ProgressMonitor, AutoCloseable {
+            private final long deadlineNanos;
+            private final AtomicBoolean cancelled;
+            private final Thread thread;
+            private volatile boolean wasCancelled;
+            private boolean finished;
+            private boolean interrupted;
+            @Nullable
+            private volatile Future<?> watchdog;
+
+            LoggingProgressMonitor(long deadlineNanos, AtomicBoolean cancelled, Thread thread) {
+                this.deadlineNanos = deadlineNanos;
+                this.cancelled = cancelled;
+                this.thread = thread;
+            }
+
             @Override
             public void start(final int totalTasks) {
                 LOG.trace("start {}", totalTasks);
@@ -252,7 +802,72 @@ final class GitOperations {
 
             @Override
             public boolean isCancelled() {
-                return false;
+                if (wasCancelled) {
+                    return true;
+                }
+                if (cancelled.get()) {
+                    wasCancelled = true;
+                } else if (deadlineNanos - System.nanoTime() < 0) {
+                    LOG.warn("git operation exceeded its deadline, cancelling");
+                    wasCancelled = true;
+                }
+                return wasCancelled;
+            }
+
+            /**
+             * JGit may return normally from a cancelled operation, so callers must check this afterwards.
+             */
+            boolean wasCancelled() {
+                return wasCancelled;
+            }
+
+            /**
+             * @return the timeout, cut to the time left until the deadline
+             */
+            @Nullable
+            Duration clamp(@Nullable Duration timeout) {
+                if (deadlineNanos == Long.MAX_VALUE) {
+                    return timeout;
+                }
+                final Duration left = Duration.ofNanos(Math.max(1, deadlineNanos - System.nanoTime()));
+                return timeout == null || left.compareTo(timeout) < 0 ? left : timeout;
+            }
+
+            /**
+             * Cancel the attempt and interrupt its thread, which ends waits JGit does not poll for, such as the
+             * in-process transport and pooled HTTP responses.  Does nothing once the attempt has finished.
+             */
+            synchronized void abort() {
+                wasCancelled = true;
+                if (!finished && !interrupted) {
+                    interrupted = true;
+                    thread.interrupt();
+                }
+            }
+
+            @Override
+            public void close() {
+                finish();
+            }
+
+            /**
+             * End the attempt: no later {@link #abort()} reaches its thread, and an interrupt from an earlier one
+             * is cleared.  Must be called on the attempt's thread.
+             */
+            void finish() {
+                final Future<?> pending = watchdog;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                synchronized (this) {
+                    if (finished) {
+                        return;
+                    }
+                    finished = true;
+                    if (interrupted) {
+                        Thread.interrupted();
+                    }
+                }
             }
 
             @Override
@@ -15,14 +15,18 @@ package com.opentable.versionedconfig;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import org.apache.commons.lang3.StringUtils;
+
 /**
  * Git metadata properties.
  */
@@ -30,6 +34,16 @@ public class GitProperties {
     private final List<URI> remoteRepositories;
     private final Path localRepository;
     private final String branch;
+    private List<String> fetchRefs = Collections.emptyList();
+    private Path seedBundle;
+    private Path seedObjectDirectory;
+    private Duration connectTimeout;
+    private Duration readTimeout;
+    private Duration operationTimeout;
+    private int httpMaxConnectionsPerRemote;
+    private Duration httpIdleTimeout = HttpConnectionPool.jdkKeepAlive();
+    private int checkoutThreads = Runtime.getRuntime().availableProcessors();
+    private Path sharedRepository;
 
     public GitProperties(URI remoteRepository,
                          @Nullable Path localRepository,
@@ -57,6 +71,172 @@ public class GitProperties {
         return branch;
     }
 
+    /**
+     * Refs fetched in addition to {@link #getBranch()}.  By default only the configured branch is
+     * fetched, and tags are never followed.
+     */
+    public List<String> getFetchRefs() {
+        return fetchRefs;
+    }
+
+    /**
+     * @param fetchRefs extra refs to fetch on every poll; either branch names ({@code release}),
+     *                  full ref names ({@code refs/tags/v1}), or complete refspecs ({@code +refs/a:refs/b})
+     * @return this
+     */
+    public GitProperties setFetchRefs(List<String> fetchRefs) {
+        this.fetchRefs = fetchRefs.stream()
+                .filter(StringUtils::isNotBlank)
+                .map(String::trim)
+                .collect(ImmutableList.toImmutableList());
+        return this;
+    }
+
+    @Nullable
+    public Path getSeedBundle() {
+        return seedBundle;
+    }
+
+    /**
+     * Seed a fresh checkout from a local git bundle (e.g. baked into the image) instead of cloning from
+     * scratch; only the commits newer than the bundle are then fetched from the remote.
+     * @param seedBundle the bundle file, or null to disable
+     * @return this
+     */
+    public GitProperties setSeedBundle(@Nullable Path seedBundle) {
+        this.seedBundle = seedBundle;
+        return this;
+    }
+
+    @Nullable
+    public Path getSeedObjectDirectory() {
+        return seedObjectDirectory;
+    }
+
+    /**
+     * Seed a fresh checkout by borrowing objects from a read-only, shared repository via git alternates.
+     * The directory must stay available for the lifetime of the checkout.
+     * @param seedObjectDirectory the {@code objects} directory of a (typically bare) repository, or null to disable
+     * @return this
+     */
+    public GitProperties setSeedObjectDirectory(@Nullable Path seedObjectDirectory) {
+        this.seedObjectDirectory = seedObjectDirectory;
+        return this;
+    }
+
+    @Nullable
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout how long to wait for a connection to a remote; null for the transport default.
+     *                       Only HTTP(S) remotes distinguish this from the read timeout.
+     * @return this
+     */
+    public GitProperties setConnectTimeout(@Nullable Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    @Nullable
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout how long a remote may go without sending data before the operation fails; null for
+     *                    the transport default (wait forever)
+     * @return this
+     */
+    public GitProperties setReadTimeout(@Nullable Duration readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    @Nullable
+    public Duration getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    /**
+     * @param operationTimeout overall deadline for a single clone or fetch against one remote; once exceeded
+     *                         the operation is cancelled and the next remote is tried.  Null for no deadline.
+     * @return this
+     */
+    public GitProperties setOperationTimeout(@Nullable Duration operationTimeout) {
+        this.operationTimeout = operationTimeout;
+        return this;
+    }
+
+    public int getHttpMaxConnectionsPerRemote() {
+        return httpMaxConnectionsPerRemote;
+    }
+
+    /**
+     * @param httpMaxConnectionsPerRemote keep up to this many HTTP(S) connections to each remote alive between polls,
+     *                                    in a pool private to the service; 0 (the default) opens a fresh connection
+     *                                    through JGit's JVM-wide connection factory instead
+     * @return this
+     */
+    public GitProperties setHttpMaxConnectionsPerRemote(int httpMaxConnectionsPerRemote) {
+        Preconditions.checkArgument(httpMaxConnectionsPerRemote >= 0, "httpMaxConnectionsPerRemote must not be negative");
+        this.httpMaxConnectionsPerRemote = httpMaxConnectionsPerRemote;
+        return this;
+    }
+
+    public Duration getHttpIdleTimeout() {
+        return httpIdleTimeout;
+    }
+
+    /**
+     * @param httpIdleTimeout pooled connections unused for this long are closed rather than reused; set it below the
+     *                        remote's own keep-alive timeout.  Defaults to the JDK's own,
+     *                        {@code jdk.httpclient.keepalive.timeout}, which also caps it
+     * @return this
+     */
+    public GitProperties setHttpIdleTimeout(Duration httpIdleTimeout) {
+        this.httpIdleTimeout = Preconditions.checkNotNull(httpIdleTimeout, "httpIdleTimeout");
+        return this;
+    }
+
+    public int getCheckoutThreads() {
+        return checkoutThreads;
+    }
+
+    /**
+     * @param checkoutThreads how many threads write the files of a large update into the checkout; defaults to
+     *                        the number of processors
+     * @return this
+     */
+    public GitProperties setCheckoutThreads(int checkoutThreads) {
+        Preconditions.checkArgument(checkoutThreads > 0, "checkoutThreads must be positive");
+        this.checkoutThreads = checkoutThreads;
+        return this;
+    }
+
+    @Nullable
+    public Path getSharedRepository() {
+        return sharedRepository;
+    }
+
+    /**
+     * Share one upstream fetch between every process on the host that names the same directory.  One of them at a
+     * time fetches from the remotes into a bare mirror kept there; the others, and the fetcher's own checkout, pull
+     * from the mirror and borrow its objects.  If the fetcher goes away another process takes over at its next poll.
+     * Each process still needs its own {@link #getLocalRepository() local repository} (or none, for a temporary one).
+     * @param sharedRepository a directory on a local filesystem with working file locks, or null to fetch directly
+     * @return this
+     */
+    public GitProperties setSharedRepository(@Nullable Path sharedRepository) {
+        this.sharedRepository = sharedRepository;
+        return this;
+    }
+
+    boolean isSeeded() {
+        return seedBundle != null || seedObjectDirectory != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -69,12 +249,24 @@ public class GitProperties {
         GitProperties that = (GitProperties) o;
         return Objects.equal(remoteRepositories, that.remoteRepositories) &&
                 Objects.equal(localRepository, that.localRepository) &&
-                Objects.equal(branch, that.branch);
+                Objects.equal(branch, that.branch) &&
+                Objects.equal(fetchRefs, that.fetchRefs) &&
+                Objects.equal(seedBundle, that.seedBundle) &&
+                Objects.equal(seedObjectDirectory, that.seedObjectDirectory) &&
+                Objects.equal(connectTimeout, that.connectTimeout) &&
+                Objects.equal(readTimeout, that.readTimeout) &&
+                Objects.equal(operationTimeout, that.operationTimeout) &&
+                httpMaxConnectionsPerRemote == that.httpMaxConnectionsPerRemote &&
+                Objects.equal(httpIdleTimeout, that.httpIdleTimeout) &&
+                checkoutThreads == that.checkoutThreads &&
+                Objects.equal(sharedRepository, that.sharedRepository);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(remoteRepositories, localRepository, branch);
+        return Objects.hashCode(remoteRepositories, localRepository, branch, fetchRefs, seedBundle, seedObjectDirectory,
+                connectTimeout, readTimeout, operationTimeout, httpMaxConnectionsPerRemote, httpIdleTimeout, checkoutThreads,
+                sharedRepository);
     }
 
     @Override
@@ -83,6 +275,16 @@ public class GitProperties {
                 "remoteRepositories=" + remoteRepositories +
                 ", localRepository=" + localRepository +
                 ", branch='" + branch + '\'' +
+                ", fetchRefs=" + fetchRefs +
+                ", seedBundle=" + seedBundle +
+                ", seedObjectDirectory=" + seedObjectDirectory +
+                ", connectTimeout=" + connectTimeout +
+                ", readTimeout=" + readTimeout +
+                ", operationTimeout=" + operationTimeout +
+                ", httpMaxConnectionsPerRemote=" + httpMaxConnectionsPerRemote +
+                ", httpIdleTimeout=" + httpIdleTimeout +
+                ", checkoutThreads=" + checkoutThreads +
+                ", sharedRepository=" + sharedRepository +
                 '}';
     }
 }
@@ -19,19 +19,24 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
 
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,27 +50,62 @@ class GitService implements VersioningService {
 
     private static final Logger LOG = LoggerFactory.getLogger(GitService.class);
 
+    /**
+     * Bounds the commit walk behind propagation metrics when a fetch brings in a lot of history.
+     */
+    private static final int MAX_TIMED_COMMITS = 1000;
+
     private final Path checkoutDirectory;
     private final GitProperties config;
 
     private final GitOperations gitOperations;
+    @Nullable
+    private final SharedRepository sharedRepository;
 
     private final AtomicReference<ObjectId> latestKnownObjectId;
 
+    private final PropagationMetrics propagationMetrics = new PropagationMetrics();
+    private final FileRevisionIndex fileRevisions = new FileRevisionIndex();
+    private final UpdatePublisher<VersionedConfigUpdate> updates =
+            new UpdatePublisher<>(ForkJoinPool.commonPool(), UpdatePublisher::coalesce,
+                    propagationMetrics::recordListenerCompleted);
+
     @Inject
     GitService(GitProperties config) throws VersioningServiceException {
         this.config = config;
         this.checkoutDirectory = getCheckoutPath();
+        final Path shared = config.getSharedRepository();
         try {
-            this.gitOperations = new GitOperations(config, checkoutDirectory);
-
-            gitOperations.checkoutBranch(config.getBranch());
-            this.latestKnownObjectId = new AtomicReference<>(ObjectId.zeroId());
-            LOG.info("Initializing {}, next update = {}", checkoutDirectory, latestKnownObjectId.get());
-
+            this.sharedRepository = shared == null ? null : new SharedRepository(config, shared);
         } catch (IOException exception) {
+            deleteTemporaryCheckout();
+            throw new VersioningServiceException("Could not open the shared repository " + shared, exception);
+        } catch (RuntimeException exception) {
+            deleteTemporaryCheckout();
+            throw exception;
+        }
+        GitOperations operations = null;
+        try {
+            operations = new GitOperations(
+                    shared == null ? config : SharedRepository.localProperties(config, shared), checkoutDirectory);
+            operations.checkoutBranch(config.getBranch());
+        } catch (IOException | RuntimeException exception) {
+            // nothing else will ever close what was opened so far
+            if (operations != null) {
+                operations.close();
+            }
+            if (sharedRepository != null) {
+                sharedRepository.close();
+            }
+            deleteTemporaryCheckout();
+            if (exception instanceof RuntimeException) {
+                throw (RuntimeException) exception;
+            }
             throw new VersioningServiceException("Configuration initialization failed, application can't start", exception);
         }
+        this.gitOperations = operations;
+        this.latestKnownObjectId = new AtomicReference<>(ObjectId.zeroId());
+        LOG.info("Initializing {}, next update = {}", checkoutDirectory, latestKnownObjectId.get());
     }
 
     private Path getCheckoutPath() {
@@ -101,10 +141,16 @@ class GitService implements VersioningService {
     @Override
     public Optional<VersionedConfigUpdate> checkForUpdate() throws VersioningServiceException {
         LOG.trace("checkForUpdate");
+        if (sharedRepository != null && !sharedRepository.fetchIfLeader()) {
+            LOG.trace("another process fetches into the shared repository");
+        }
         if (!gitOperations.pull()) {
             LOG.trace("pull did nothing");
             return empty();
         }
+        // the pull includes the checkout, which belongs to delivery rather than to the fetch
+        final Instant fetchedAt = gitOperations.getFetchedAt();
+        final long fetchedNanos = gitOperations.getFetchedNanos();
 
         final ObjectId pulled = gitOperations.getCurrentHead();
         LOG.trace("Get currenthead {}", pulled);
@@ -118,31 +164,60 @@ class GitService implements VersioningService {
         final Set<Path> affectedPaths = getAffectedPaths(current, pulled);
         LOG.trace("AffectedPaths {}", affectedPaths);
         latestKnownObjectId.set(pulled);
-        return Optional.of(new VersionedConfigUpdate(
-                checkoutDirectory, affectedPaths, current, pulled));
+        updateFileRevisions(pulled);
+        final PropagationTimes propagation = timePropagation(current, pulled, fetchedAt, fetchedNanos);
+        final VersionedConfigUpdate update = new VersionedConfigUpdate(
+                checkoutDirectory, affectedPaths, current, pulled, propagation);
+        updates.publish(update);
+        return Optional.of(update);
+    }
+
+    private void updateFileRevisions(ObjectId pulled) {
+        try {
+            fileRevisions.update(gitOperations.getRepository(), pulled);
+        } catch (IOException e) {
+            LOG.warn("Could not index file revisions at {}, still at {}", pulled, fileRevisions.getRevision(), e);
+        }
+    }
+
+    /**
+     * @return null if the new head has no commits the old one lacks, e.g. after a rollback
+     */
+    private PropagationTimes timePropagation(ObjectId current, ObjectId pulled, Instant fetchedAt, long fetchedNanos) {
+        final List<Instant> commitTimes = gitOperations.commitTimesBetween(current, pulled, MAX_TIMED_COMMITS);
+        if (commitTimes.isEmpty()) {
+            return null;
+        }
+        final PropagationTimes result = new PropagationTimes(
+                commitTimes.get(commitTimes.size() - 1), commitTimes.get(0), commitTimes.size(),
+                fetchedAt, fetchedNanos, System.nanoTime());
+        if (!current.equals(ObjectId.zeroId())) {
+            propagationMetrics.recordFetch(commitTimes, fetchedAt);
+            propagationMetrics.recordDelivery(result);
+        }
+        return result;
     }
 
     @Override
     public Set<Path> getAffectedPaths(ObjectId currentHash, ObjectId newHash ) {
-        final Set<Path> affectedPaths;
+        final PathSet affectedPaths;
         if (currentHash.equals(ObjectId.zeroId()) || newHash.equals(ObjectId.zeroId())) {
-            try {
-                LOG.trace("Start from scratch");
-                affectedPaths = Files.walk(checkoutDirectory)
-                        .map(checkoutDirectory::relativize)
+            LOG.trace("Start from scratch");
+            final PathSet.Builder builder = PathSet.builder();
+            try (Stream<Path> walk = Files.walk(checkoutDirectory)) {
+                walk.map(checkoutDirectory::relativize)
                         .filter(p -> !p.toString().startsWith(".git"))
-                        .collect(Collectors.toSet());
+                        .forEach(builder::add);
             } catch (IOException e) {
                 throw new VersioningServiceException(e);
             }
+            affectedPaths = builder.build();
             LOG.trace("Use innerAffectedFile");
         } else {
-            affectedPaths = gitOperations.affectedFiles(currentHash, newHash)
-                    .stream()
-                    .map(Paths::get)
-                    .collect(Collectors.toSet());
+            affectedPaths = gitOperations.affectedFiles(currentHash, newHash);
         }
-        LOG.info("Update from {} to {} affected paths = {}", currentHash, newHash, affectedPaths);
+        LOG.info("Update from {} to {} affected {} paths", currentHash, newHash, affectedPaths.size());
+        LOG.debug("Affected paths = {}", affectedPaths);
         return affectedPaths;
     }
 
@@ -171,13 +246,75 @@ class GitService implements VersioningService {
         return config.getBranch();
     }
 
+    @Override
+    public void cancelUpdate() {
+        if (sharedRepository != null) {
+            sharedRepository.cancel();
+        }
+        gitOperations.cancel();
+    }
+
+    @Override
+    public Optional<FileRevision> getFileRevision(Path path) {
+        return fileRevisions.get(path);
+    }
+
+    @Override
+    public Optional<ObjectId> getBlobId(ObjectId revision, Path path) {
+        return Optional.ofNullable(gitOperations.blobAt(revision, PathSet.gitPath(path)));
+    }
+
+    @Override
+    public Optional<ObjectLoader> openBlob(ObjectId blobId) {
+        return gitOperations.openBlob(blobId);
+    }
+
+    @Override
+    public Stream<ConfigCommit> getChangeLog(@Nullable ObjectId from, ObjectId to) {
+        return gitOperations.changeLog(from, to);
+    }
+
+    @Override
+    public Optional<PropagationMetrics> getPropagationMetrics() {
+        return Optional.of(propagationMetrics);
+    }
+
+    Repository getRepository() {
+        return gitOperations.getRepository();
+    }
+
+    @Override
+    public Flow.Publisher<VersionedConfigUpdate> updates() {
+        return updates;
+    }
+
     @Override
     @PreDestroy
     public void close() throws IOException {
+        updates.close();
+        gitOperations.close();
+        if (sharedRepository != null) {
+            sharedRepository.close();
+        }
         if (config.getLocalRepository() != null) {
             return;
         }
 
         Files.walkFileTree(checkoutDirectory, DeleteRecursively.INSTANCE);
     }
+
+    /**
+     * A failed constructor must not leave its temporary directory behind: {@link AsyncGitService} retries the
+     * clone on every poll while the remote is down.
+     */
+    private void deleteTemporaryCheckout() {
+        if (config.getLocalRepository() != null || !Files.exists(checkoutDirectory)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(checkoutDirectory, DeleteRecursively.INSTANCE);
+        } catch (IOException e) {
+            LOG.warn("Could not delete temporary checkout {}", checkoutDirectory, e);
+        }
+    }
 }
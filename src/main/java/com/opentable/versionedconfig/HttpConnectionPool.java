@@ -0,0 +1,809 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URISyntaxException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs JGit's HTTP transport over a {@link HttpClient} owned by a single {@link GitService}, so that polls reuse
+ * kept-alive connections (and their TLS sessions) instead of paying for a handshake on every fetch.
+ * <p>
+ * Each git operation gets its own {@link Session}.  A connection only goes back to the pool once its response has
+ * been read to the end, which JGit does not always do (e.g. the protocol v2 advertisement), so a session finishes
+ * off its earlier responses before each new request and when it is closed.
+ * <p>
+ * No more than {@code maxConnectionsPerRemote} requests to one remote are in flight at a time, which also bounds
+ * the connections opened to it.  The JDK itself closes any connection left idle for as many seconds as
+ * {@value #KEEP_ALIVE_PROPERTY} says (1200 on JDK 17), so that is the default idle timeout.
+ * A shorter {@code idleTimeout} is enforced on a timer: once no request has been made for that long, the client
+ * is retired along with every connection it pooled.  Only JDK 21 can close a client; on older JDKs a retired
+ * client's connections stay open until it is garbage collected or they reach the JDK's own timeout, whichever
+ * comes first.  Request bodies are buffered, which suits fetches (a list of wants and haves)
+ * but not pushes.  Connections through a proxy, or with TLS settings of their own, go to the fallback factory
+ * unpooled.
+ */
+@ThreadSafe
+class HttpConnectionPool implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpConnectionPool.class);
+
+    /**
+     * How much of an unread response we read through to save its connection, rather than closing it.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * Set by {@link HttpClient} itself; it refuses to take them from us.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = ImmutableSet.of("connection", "content-length", "expect", "host", "upgrade");
+
+    /**
+     * Seconds after which the JDK closes an idle connection of any {@link HttpClient}.
+     */
+    static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    private static final long DEFAULT_KEEP_ALIVE_SECONDS = 1200;
+
+    private final HttpConnectionFactory fallback;
+    private final int maxConnectionsPerRemote;
+    private final Duration idleTimeout;
+    @Nullable
+    private final Duration connectTimeout;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentMap<String, Semaphore> remotes = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // guarded by this
+    private HttpClient client;
+    private long lastUsedNanos;
+    private int clientsCreated;
+    private boolean closed;
+    private ScheduledFuture<?> eviction;
+
+    /**
+     * @param timer runs the idle eviction
+     */
+    HttpConnectionPool(HttpConnectionFactory fallback, int maxConnectionsPerRemote, Duration idleTimeout,
+                       @Nullable Duration connectTimeout, ScheduledExecutorService timer) {
+        this.fallback = fallback;
+        this.maxConnectionsPerRemote = maxConnectionsPerRemote;
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.timer = timer;
+    }
+
+    /**
+     * @return how long the JDK keeps an idle HTTP client connection open, from {@value #KEEP_ALIVE_PROPERTY}
+     */
+    static Duration jdkKeepAlive() {
+        final long seconds = Long.getLong(KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_SECONDS);
+        return Duration.ofSeconds(seconds > 0 ? seconds : DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * @return a connection factory for one git operation, to be closed when the operation is over
+     */
+    Session openSession() {
+        return new Session();
+    }
+
+    /**
+     * @return how many clients, each with its own pool, have been created; more than one means idle eviction kicked in
+     */
+    @VisibleForTesting
+    synchronized int getClientsCreated() {
+        return clientsCreated;
+    }
+
+    /**
+     * @return whether a client, and so possibly its connections, is currently kept
+     */
+    @VisibleForTesting
+    synchronized boolean hasClient() {
+        return client != null;
+    }
+
+    @VisibleForTesting
+    int getAvailablePermits(URL url) {
+        final Semaphore permits = remotes.get(remoteOf(url));
+        return permits == null ? maxConnectionsPerRemote : permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        final HttpClient retired;
+        synchronized (this) {
+            closed = true;
+            retired = client;
+            client = null;
+            if (eviction != null) {
+                eviction.cancel(false);
+            }
+        }
+        retire(retired);
+    }
+
+    private synchronized HttpClient checkOut() throws IOException {
+        if (closed) {
+            throw new IOException("HTTP connection pool is closed");
+        }
+        final long now = System.nanoTime();
+        if (client == null) {
+            final HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .followRedirects(HttpClient.Redirect.NEVER);
+            if (connectTimeout != null) {
+                builder.connectTimeout(connectTimeout);
+            }
+            client = builder.build();
+            clientsCreated++;
+        }
+        inFlight.incrementAndGet();
+        lastUsedNanos = now;
+        return client;
+    }
+
+    private synchronized void checkIn() {
+        lastUsedNanos = System.nanoTime();
+        if (inFlight.decrementAndGet() == 0 && client != null && !closed) {
+            scheduleEviction(idleTimeout.toNanos());
+        }
+    }
+
+    // guarded by this
+    private void scheduleEviction(long delayNanos) {
+        if (eviction != null) {
+            eviction.cancel(false);
+        }
+        try {
+            eviction = timer.schedule(this::evictIfIdle, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("not evicting idle HTTP connections, the timer is shut down", e);
+        }
+    }
+
+    private void evictIfIdle() {
+        final HttpClient retired;
+        synchronized (this) {
+            if (client == null || inFlight.get() > 0) {
+                return;
+            }
+            final long idleNanos = System.nanoTime() - lastUsedNanos;
+            if (idleNanos < idleTimeout.toNanos()) {
+                scheduleEviction(idleTimeout.toNanos() - idleNanos);
+                return;
+            }
+            retired = client;
+            client = null;
+        }
+        LOG.debug("Retiring HTTP connections idle for more than {}", idleTimeout);
+        retire(retired);
+    }
+
+    /**
+     * {@link HttpClient} only became closeable in JDK 21; before that its connections go once it is collected.
+     */
+    private static void retire(@Nullable HttpClient retired) {
+        if (retired instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) retired).close();
+            } catch (Exception e) {
+                LOG.debug("while closing HTTP client", e);
+            }
+        }
+    }
+
+    private static String remoteOf(URL url) {
+        return url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+    }
+
+    @NotThreadSafe
+    final class Session implements HttpConnectionFactory, Closeable {
+        private final List<ReleasingInputStream> unfinished = new ArrayList<>();
+
+        private Session() {
+        }
+
+        @Override
+        public HttpConnection create(URL url) throws IOException {
+            return create(url, null);
+        }
+
+        @Override
+        public HttpConnection create(URL url, @Nullable Proxy proxy) throws IOException {
+            if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+                return fallback.create(url, proxy);
+            }
+            return new PooledHttpConnection(url, this);
+        }
+
+        private void finishResponses() {
+            unfinished.forEach(ReleasingInputStream::close);
+            unfinished.clear();
+        }
+
+        @Override
+        public void close() {
+            finishResponses();
+        }
+    }
+
+    /**
+     * Records the request until JGit asks for the response, then sends it on the shared client.
+     */
+    private final class PooledHttpConnection implements HttpConnection {
+        private final URL url;
+        private final Session session;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private String method = "GET";
+        private Duration readTimeout;
+        private ByteArrayOutputStream body;
+        private HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+        private InputStream responseBody;
+        // set once JGit asks for TLS settings that a shared client cannot have
+        private HttpConnection direct;
+
+        PooledHttpConnection(URL url, Session session) {
+            this.url = url;
+            this.session = session;
+        }
+
+        private HttpResponse<?> send() throws IOException {
+            if (response != null) {
+                return response;
+            }
+            final HttpRequest.Builder request;
+            try {
+                request = HttpRequest.newBuilder(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("invalid URL " + url, e);
+            }
+            headers.forEach((name, value) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                    request.header(name, value);
+                }
+            });
+            if (readTimeout != null) {
+                // only bounds the wait for the headers; reads of the body are bounded by TimeoutInputStream
+                request.timeout(readTimeout);
+            }
+            request.method(method, body == null
+                    ? HttpRequest.BodyPublishers.noBody()
+                    : HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+
+            session.finishResponses();
+            final Semaphore permits = remotes.computeIfAbsent(remoteOf(url), remote -> new Semaphore(maxConnectionsPerRemote, true));
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a connection to " + remoteOf(url));
+            }
+            final Release release = new Release(permits);
+            try {
+                final HttpClient http = checkOut();
+                release.checkedOut = true;
+                response = http.send(request.build(), HttpResponse.BodyHandlers.ofPublisher());
+            } catch (InterruptedException e) {
+                release.run();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted talking to " + url);
+            } catch (IOException | RuntimeException e) {
+                release.run();
+                throw e;
+            }
+            final TimeoutInputStream body = new TimeoutInputStream(readTimeout);
+            response.body().subscribe(body);
+            if (response.statusCode() / 100 == 2) {
+                final ReleasingInputStream stream = new ReleasingInputStream(body, release);
+                session.unfinished.add(stream);
+                responseBody = stream;
+            } else {
+                // JGit often ignores error bodies; read them now rather than hold on to the connection
+                try (InputStream in = body) {
+                    responseBody = new ByteArrayInputStream(in.readAllBytes());
+                } finally {
+                    release.run();
+                }
+            }
+            return response;
+        }
+
+        private HttpConnection direct() throws IOException {
+            if (direct == null) {
+                if (response != null) {
+                    throw new IllegalStateException("request already sent");
+                }
+                direct = fallback.create(url);
+                direct.setRequestMethod(method);
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    direct.setRequestProperty(header.getKey(), header.getValue());
+                }
+                if (readTimeout != null) {
+                    direct.setReadTimeout(Math.toIntExact(readTimeout.toMillis()));
+                }
+            }
+            return direct;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return direct != null ? direct.getResponseCode() : send().statusCode();
+        }
+
+        @Override
+        public URL getURL() {
+            return url;
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            if (direct != null) {
+                return direct.getResponseMessage();
+            }
+            send();
+            // HTTP/1.1 reason phrases are not exposed by HttpClient
+            return "";
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            if (direct != null) {
+                return direct.getHeaderFields();
+            }
+            return response == null ? Collections.emptyMap() : response.headers().map();
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            if (direct != null) {
+                direct.setRequestProperty(key, value);
+            } else {
+                headers.put(key, value);
+            }
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            if (direct != null) {
+                direct.setRequestMethod(method);
+            } else {
+                this.method = method;
+            }
+        }
+
+        @Override
+        public void setUseCaches(boolean usecaches) {
+            if (direct != null) {
+                direct.setUseCaches(usecaches);
+            }
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout) {
+            // the shared client has a single connect timeout, taken from GitProperties
+            if (direct != null) {
+                direct.setConnectTimeout(timeout);
+            }
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+            if (direct != null) {
+                direct.setReadTimeout(timeout);
+            } else {
+                readTimeout = timeout > 0 ? Duration.ofMillis(timeout) : null;
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            return getHeaderField("Content-Type");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (direct != null) {
+                return direct.getInputStream();
+            }
+            send();
+            return responseBody;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if (direct != null) {
+                return direct.getHeaderField(name);
+            }
+            return response == null ? null : response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public List<String> getHeaderFields(String name) {
+            if (direct != null) {
+                return direct.getHeaderFields(name);
+            }
+            return response == null ? Collections.emptyList() : response.headers().allValues(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            if (direct != null) {
+                return direct.getContentLength();
+            }
+            final long length = response == null ? -1 : response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(boolean followRedirects) {
+            // JGit follows redirects itself; the shared client never does
+            if (direct != null) {
+                direct.setInstanceFollowRedirects(followRedirects);
+            }
+        }
+
+        @Override
+        public void setDoOutput(boolean dooutput) {
+            if (direct != null) {
+                direct.setDoOutput(dooutput);
+            }
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(int contentLength) {
+            if (direct != null) {
+                direct.setFixedLengthStreamingMode(contentLength);
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if (direct != null) {
+                return direct.getOutputStream();
+            }
+            if (body == null) {
+                body = new ByteArrayOutputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunklen) {
+            if (direct != null) {
+                direct.setChunkedStreamingMode(chunklen);
+            }
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return direct != null ? direct.getRequestMethod() : method;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return direct != null && direct.usingProxy();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // the request goes out with the first call that needs the response
+            if (direct != null) {
+                direct.connect();
+            }
+        }
+
+        @Override
+        public void configure(KeyManager[] km, TrustManager[] tm, SecureRandom random)
+                throws NoSuchAlgorithmException, KeyManagementException {
+            directForTls().configure(km, tm, random);
+        }
+
+        @Override
+        public void setHostnameVerifier(HostnameVerifier hostnameverifier)
+                throws NoSuchAlgorithmException, KeyManagementException {
+            directForTls().setHostnameVerifier(hostnameverifier);
+        }
+
+        private HttpConnection directForTls() throws KeyManagementException {
+            try {
+                return direct();
+            } catch (IOException e) {
+                throw new KeyManagementException("could not open an unpooled connection to " + url, e);
+            }
+        }
+    }
+
+    /**
+     * Gives back the remote's permit, and the client, exactly once.
+     */
+    private final class Release implements Runnable {
+        private final Semaphore permits;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private boolean checkedOut;
+
+        Release(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void run() {
+            if (done.compareAndSet(false, true)) {
+                if (checkedOut) {
+                    checkIn();
+                }
+                permits.release();
+            }
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+    }
+
+    /**
+     * A response body whose every read gives up after the read timeout, as a socket's would.  {@link HttpClient}
+     * only applies a request's timeout to the wait for its headers, so a server that stalls halfway through a pack
+     * would otherwise hang the fetch.  Buffers are requested one at a time, so no more than one is held unread.
+     */
+    private static final class TimeoutInputStream extends InputStream implements Flow.Subscriber<List<ByteBuffer>> {
+        private static final List<ByteBuffer> END = new ArrayList<>(0);
+
+        @Nullable
+        private final Duration readTimeout;
+        private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+
+        // touched by the reading thread only
+        private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+        private ByteBuffer buffer;
+        private IOException failed;
+        private boolean ended;
+
+        TimeoutInputStream(@Nullable Duration readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription newSubscription) {
+            subscription = newSubscription;
+            if (cancelled) {
+                newSubscription.cancel();
+            } else {
+                newSubscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            received.add(END);
+        }
+
+        @Override
+        public void onComplete() {
+            received.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final ByteBuffer next = nextBuffer();
+            return next == null ? -1 : next.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final ByteBuffer next = nextBuffer();
+            if (next == null) {
+                return -1;
+            }
+            final int count = Math.min(len, next.remaining());
+            next.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (!ended) {
+                ended = true;
+                cancel();
+            }
+        }
+
+        @Nullable
+        private ByteBuffer nextBuffer() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (buffers.hasNext()) {
+                    buffer = buffers.next();
+                    continue;
+                }
+                if (failed != null) {
+                    throw failed;
+                }
+                if (ended) {
+                    return null;
+                }
+                final List<ByteBuffer> next = take();
+                if (next == END) {
+                    ended = true;
+                    if (error != null) {
+                        failed = error instanceof IOException ? (IOException) error : new IOException(error);
+                        throw failed;
+                    }
+                    return null;
+                }
+                buffers = next.iterator();
+                subscription.request(1);
+            }
+            return buffer;
+        }
+
+        private List<ByteBuffer> take() throws IOException {
+            try {
+                if (readTimeout == null) {
+                    return received.take();
+                }
+                final List<ByteBuffer> next = received.poll(readTimeout.toNanos(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    cancel();
+                    failed = new SocketTimeoutException("Read timed out after " + readTimeout.toMillis() + " ms");
+                    throw failed;
+                }
+                return next;
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                failed = new InterruptedIOException("interrupted reading a response");
+                throw failed;
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            final Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    /**
+     * The connection goes back to the pool once the body has been read to the end, so closing it first reads
+     * through whatever is left, within reason.  Either way the permit is freed.
+     */
+    private static final class ReleasingInputStream extends FilterInputStream {
+        private final Release release;
+
+        ReleasingInputStream(InputStream in, Release release) {
+            super(in);
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result < 0) {
+                release.run();
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int result = super.read(b, off, len);
+            if (result < 0) {
+                release.run();
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            if (!release.isDone()) {
+                drain();
+            }
+            try {
+                super.close();
+            } catch (IOException e) {
+                LOG.debug("while closing a response", e);
+            } finally {
+                release.run();
+            }
+        }
+
+        private void drain() {
+            final byte[] buffer = new byte[8192];
+            try {
+                long drained = 0;
+                while (drained <= MAX_DRAIN_BYTES) {
+                    final int read = in.read(buffer, 0, buffer.length);
+                    if (read < 0) {
+                        return;
+                    }
+                    drained += read;
+                }
+                LOG.debug("Giving up a connection with more than {} bytes unread", MAX_DRAIN_BYTES);
+            } catch (IOException e) {
+                LOG.debug("while draining a response", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.Checkout;
+import org.eclipse.jgit.dircache.DirCacheCheckout.CheckoutMetadata;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fast-forwards the checked out branch by writing only the paths that differ between the two commits.
+ * <p>
+ * JGit's merge checks every path in the index and working tree, and writes files one by one.  Since nothing edits
+ * our checkout, this instead diffs the two trees once, deletes what went away, writes what changed on the given
+ * executor (each file to a temporary file that is then renamed over the old one), and edits just those index
+ * entries, so unchanged files are never looked at again.  Local modifications to changed paths are overwritten.
+ */
+@NotThreadSafe
+final class IncrementalCheckout {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalCheckout.class);
+
+    /**
+     * Below this many files, handing out work costs more than it saves.
+     */
+    private static final int MIN_PARALLEL_WRITES = 32;
+
+    private final Repository repository;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    IncrementalCheckout(Repository repository, ExecutorService executor, int parallelism) {
+        this.repository = repository;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return false, having changed nothing, if the current branch cannot be fast-forwarded to {@code target}
+     */
+    boolean fastForward(ObjectId target) throws IOException {
+        final ObjectId head = repository.resolve(Constants.HEAD);
+        if (target.equals(head)) {
+            return true;
+        }
+        try (RevWalk walk = new RevWalk(repository)) {
+            final RevCommit from = walk.parseCommit(head);
+            final RevCommit to = walk.parseCommit(target);
+            if (!walk.isMergedInto(from, to)) {
+                return false;
+            }
+
+            final long start = System.nanoTime();
+            final List<String> deleted = new ArrayList<>();
+            final List<Write> written = new ArrayList<>();
+            diff(from, to, deleted, written);
+
+            final DirCache index = repository.lockDirCache();
+            try {
+                deleted.forEach(this::delete);
+                write(written);
+                final DirCacheEditor editor = index.editor();
+                deleted.forEach(path -> editor.add(new DirCacheEditor.DeletePath(path)));
+                written.forEach(write -> editor.add(new DirCacheEditor.PathEdit(write.entry) {
+                    @Override
+                    public void apply(DirCacheEntry ent) {
+                        ent.copyMetaData(write.entry);
+                    }
+                }));
+                editor.commit();
+            } finally {
+                index.unlock();
+            }
+
+            final RefUpdate update = repository.updateRef(Constants.HEAD);
+            update.setExpectedOldObjectId(from);
+            update.setNewObjectId(to);
+            update.setRefLogMessage("fast-forward", false);
+            final RefUpdate.Result result = update.update(walk);
+            if (result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("Could not move HEAD from " + from.name() + " to " + to.name() + ": " + result);
+            }
+            LOG.debug("Fast-forwarded {} to {}: {} written, {} deleted in {}ms", from.name(), to.name(),
+                    written.size(), deleted.size(), (System.nanoTime() - start) / 1_000_000);
+            return true;
+        }
+    }
+
+    private void diff(RevCommit from, RevCommit to, List<String> deleted, List<Write> written) throws IOException {
+        try (TreeWalk walk = new TreeWalk(repository)) {
+            walk.addTree(from.getTree());
+            walk.addTree(to.getTree());
+            walk.setRecursive(true);
+            walk.setFilter(TreeFilter.ANY_DIFF);
+            while (walk.next()) {
+                final FileMode mode = walk.getFileMode(1);
+                if (mode == FileMode.MISSING) {
+                    deleted.add(walk.getPathString());
+                } else {
+                    final DirCacheEntry entry = new DirCacheEntry(walk.getPathString());
+                    entry.setFileMode(mode);
+                    entry.setObjectId(walk.getObjectId(1));
+                    written.add(new Write(entry, new CheckoutMetadata(
+                            walk.getEolStreamType(TreeWalk.OperationType.CHECKOUT_OP),
+                            walk.getFilterCommand(Constants.ATTR_FILTER_TYPE_SMUDGE))));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the file, and any directories that leaves empty, so that a file may take their place.
+     */
+    private void delete(String path) {
+        final Path root = repository.getWorkTree().toPath();
+        Path file = root.resolve(path);
+        try {
+            Files.deleteIfExists(file);
+            for (Path dir = file.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+                Files.delete(dir);
+            }
+        } catch (DirectoryNotEmptyException expected) {
+            // the remaining directories are still in use
+        } catch (IOException e) {
+            LOG.warn("Could not delete {}", file, e);
+        }
+    }
+
+    private void write(List<Write> writes) throws IOException {
+        final WorkingTreeOptions options = repository.getConfig().get(WorkingTreeOptions.KEY);
+        if (writes.size() < MIN_PARALLEL_WRITES || parallelism < 2) {
+            writeAll(writes, options);
+            return;
+        }
+        final int batches = Math.min(parallelism, writes.size() / (MIN_PARALLEL_WRITES / 2));
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(batches);
+        for (int i = 0; i < batches; i++) {
+            final List<Write> batch = writes.subList(i * writes.size() / batches, (i + 1) * writes.size() / batches);
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    writeAll(batch, options);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(false));
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void writeAll(List<Write> writes, WorkingTreeOptions options) throws IOException {
+        final Checkout checkout = new Checkout(repository, options);
+        try (ObjectReader reader = repository.newObjectReader()) {
+            for (Write write : writes) {
+                if (write.entry.getFileMode() == FileMode.GITLINK) {
+                    checkout.checkoutGitlink(write.entry, null);
+                } else {
+                    checkout.checkout(write.entry, write.metadata, reader, null);
+                }
+            }
+        }
+    }
+
+    private static final class Write {
+        private final DirCacheEntry entry;
+        private final CheckoutMetadata metadata;
+
+        Write(DirCacheEntry entry, CheckoutMetadata metadata) {
+            this.entry = entry;
+            this.metadata = metadata;
+        }
+    }
+}
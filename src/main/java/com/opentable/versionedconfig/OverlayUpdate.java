@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Paths whose effective content changed in an {@link OverlayView}, relative to the overlay root.
+ * <p>
+ * The layers of an overlay live in different checkouts, so unlike a {@link VersionedConfigUpdate} there is no one
+ * base path to read the changed files from; {@link #resolve(Path)} gives the file each path resolved to when the
+ * update was made.
+ */
+@Immutable
+public final class OverlayUpdate {
+    private final PathSet changedFiles;
+
+    /**
+     * The changed paths that still resolve, by the directory of the layer they resolve in.
+     */
+    private final Map<Path, PathSet> resolvedFiles;
+
+    OverlayUpdate(PathSet changedFiles, Map<Path, PathSet> resolvedFiles) {
+        this.changedFiles = changedFiles;
+        this.resolvedFiles = resolvedFiles;
+    }
+
+    /**
+     * @return the paths whose effective content changed, as a {@link PathSet}
+     */
+    public Set<Path> getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * @param path relative to the overlay root
+     * @return the file the path resolved to, or empty if it left the overlay or is not in this update
+     */
+    public Optional<Path> resolve(Path path) {
+        for (Map.Entry<Path, PathSet> layer : resolvedFiles.entrySet()) {
+            if (layer.getValue().contains(path)) {
+                return Optional.of(layer.getKey().resolve(path.normalize()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return one update with the union of the changed paths, each resolved as the newer update has it if it has it
+     */
+    static OverlayUpdate coalesce(OverlayUpdate older, OverlayUpdate newer) {
+        final Map<Path, PathSet.Builder> builders = new LinkedHashMap<>();
+        older.resolvedFiles.forEach((directory, paths) -> {
+            for (Path path : paths) {
+                if (!newer.changedFiles.contains(path)) {
+                    builders.computeIfAbsent(directory, d -> PathSet.builder()).add(path);
+                }
+            }
+        });
+        newer.resolvedFiles.forEach((directory, paths) ->
+                builders.computeIfAbsent(directory, d -> PathSet.builder()).addAll(paths));
+        final Map<Path, PathSet> resolved = new LinkedHashMap<>();
+        builders.forEach((directory, builder) -> resolved.put(directory, builder.build()));
+        final PathSet changed = PathSet.builder()
+                .addAll(older.changedFiles)
+                .addAll(newer.changedFiles)
+                .build();
+        return new OverlayUpdate(changed, resolved);
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Several config trees stacked into one, e.g. a base branch under per-environment and per-region overrides, each
+ * a {@link VersioningService} (a branch, a repository or a plain directory) or a subdirectory of one.  A path
+ * resolves to the file in the highest layer that has it.
+ * <p>
+ * The view keeps every layer's files and content ids, and the winning layer of every path, up to date from each
+ * layer's {@link VersioningService#updates() updates}: only the paths a layer update touched are looked at again.
+ * Lookups are map reads.  Its own {@link #updates()} report only paths whose effective content changed, so an edit
+ * to a base file that an override hides is not reported at all.
+ */
+@ThreadSafe
+public final class OverlayView implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(OverlayView.class);
+
+    private final List<Layer> layers;
+    private final Map<Path, Effective> effective = new ConcurrentHashMap<>();
+    private final UpdatePublisher<OverlayUpdate> updates = new UpdatePublisher<>(OverlayUpdate::coalesce);
+
+    private OverlayView(List<Layer> layers) {
+        this.layers = layers;
+        synchronized (this) {
+            // Subscribe before scanning, so a change in between is applied again rather than lost
+            for (Layer layer : layers) {
+                layer.service.updates().subscribe(new LayerSubscriber(layer));
+            }
+            for (Layer layer : layers) {
+                layer.scan();
+                layer.files.keySet().forEach(this::recompute);
+            }
+        }
+        LOG.debug("overlay of {} layers has {} paths", layers.size(), effective.size());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param path relative to the overlay root
+     * @return the file the path resolves to, in the highest layer that has it
+     */
+    public Optional<Path> resolve(Path path) {
+        final Effective winner = effective.get(path.normalize());
+        return winner == null ? Optional.empty() : Optional.of(winner.layer.directory.resolve(path.normalize()));
+    }
+
+    /**
+     * @return the git blob id of the path's effective content
+     */
+    public Optional<ObjectId> getContentId(Path path) {
+        final Effective winner = effective.get(path.normalize());
+        return winner == null ? Optional.empty() : Optional.of(winner.contentId);
+    }
+
+    /**
+     * @return every path in the overlay, at the time of the call
+     */
+    public PathSet getPaths() {
+        return PathSet.copyOf(effective.keySet());
+    }
+
+    /**
+     * Paths whose effective content changed, relative to the overlay root, each with the layer file it resolves to.
+     */
+    public Flow.Publisher<OverlayUpdate> updates() {
+        return updates;
+    }
+
+    @Override
+    public void close() {
+        layers.forEach(Layer::cancel);
+        updates.close();
+    }
+
+    private synchronized void onLayerUpdate(Layer layer, VersionedConfigUpdate update) {
+        if (layer.stale) {
+            rescan(layer);
+            return;
+        }
+        final List<Path> touched = new ArrayList<>();
+        for (Path file : update.getChangedFiles()) {
+            final Path relative = layer.relativize(file);
+            if (relative != null) {
+                layer.refresh(relative);
+                touched.add(relative);
+            }
+        }
+        LOG.debug("layer {} update {} touched {} paths", layer.directory, update.getNewRevision(), touched.size());
+        publishChanges(touched);
+    }
+
+    /**
+     * After an update could not be applied, the paths it touched may be stale, and only reading the whole layer
+     * again repairs them.  If that fails too, the layer's next update tries again.
+     */
+    private synchronized void rescan(Layer layer) {
+        layer.stale = true;
+        final Set<Path> touched = new HashSet<>(layer.files.keySet());
+        // an earlier rescan may have failed after clearing files, leaving paths only the effective map still knows
+        effective.forEach((path, winner) -> {
+            if (winner.layer == layer) {
+                touched.add(path);
+            }
+        });
+        layer.files.clear();
+        layer.scan();
+        touched.addAll(layer.files.keySet());
+        layer.stale = false;
+        LOG.info("rescanned layer {}", layer.directory);
+        publishChanges(touched);
+    }
+
+    /**
+     * Recompute the given paths, and publish those whose effective content changed.
+     */
+    private void publishChanges(Iterable<Path> touched) {
+        final PathSet.Builder changed = PathSet.builder();
+        final Map<Path, PathSet.Builder> resolved = new LinkedHashMap<>();
+        for (Path relative : touched) {
+            if (recompute(relative)) {
+                changed.add(relative);
+                final Effective winner = effective.get(relative);
+                if (winner != null) {
+                    resolved.computeIfAbsent(winner.layer.directory, directory -> PathSet.builder()).add(relative);
+                }
+            }
+        }
+        final PathSet paths = changed.build();
+        if (!paths.isEmpty()) {
+            LOG.debug("{} effective paths changed", paths.size());
+            final Map<Path, PathSet> byLayer = new LinkedHashMap<>();
+            resolved.forEach((directory, builder) -> byLayer.put(directory, builder.build()));
+            updates.publish(new OverlayUpdate(paths, byLayer));
+        }
+    }
+
+    /**
+     * @return whether the path's effective content changed
+     */
+    private boolean recompute(Path path) {
+        Effective next = null;
+        for (int i = layers.size() - 1; i >= 0 && next == null; i--) {
+            final ObjectId contentId = layers.get(i).files.get(path);
+            if (contentId != null) {
+                next = new Effective(layers.get(i), contentId);
+            }
+        }
+        final Effective previous = next == null ? effective.remove(path) : effective.put(path, next);
+        return !Objects.equals(previous == null ? null : previous.contentId, next == null ? null : next.contentId);
+    }
+
+    public static final class Builder {
+        private final List<Layer> layers = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add a layer above those added so far.
+         */
+        public Builder layer(VersioningService service) {
+            return layer(service, Paths.get(""));
+        }
+
+        /**
+         * Add a subdirectory of a service's tree as a layer above those added so far.
+         */
+        public Builder layer(VersioningService service, Path subdirectory) {
+            Preconditions.checkArgument(!subdirectory.isAbsolute(), "subdirectory must be relative");
+            layers.add(new Layer(service, subdirectory.normalize()));
+            return this;
+        }
+
+        /**
+         * Waits for every service to be {@link VersioningService#ready() ready}, then reads all layers.
+         */
+        public OverlayView build() {
+            Preconditions.checkState(!layers.isEmpty(), "an overlay needs at least one layer");
+            layers.forEach(layer -> layer.service.ready().join());
+            return new OverlayView(ImmutableList.copyOf(layers));
+        }
+    }
+
+    private static final class Effective {
+        private final Layer layer;
+        private final ObjectId contentId;
+
+        Effective(Layer layer, ObjectId contentId) {
+            this.layer = layer;
+            this.contentId = contentId;
+        }
+    }
+
+    /**
+     * One layer's files and their content ids, guarded by the view's lock.
+     */
+    private static final class Layer {
+        private final VersioningService service;
+        private final Path subdirectory;
+        private final Map<Path, ObjectId> files = new HashMap<>();
+        private Path directory;
+        // an update failed part way, so files may be wrong until the layer is read again
+        private boolean stale;
+        private volatile Flow.Subscription subscription;
+
+        Layer(VersioningService service, Path subdirectory) {
+            this.service = service;
+            this.subdirectory = subdirectory;
+        }
+
+        void scan() {
+            directory = service.getCheckoutDirectory().resolve(subdirectory);
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            try (Stream<Path> walk = Files.walk(directory)) {
+                walk.filter(file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS))
+                        .map(directory::relativize)
+                        .filter(path -> !path.startsWith(".git"))
+                        .forEach(this::refresh);
+            } catch (IOException e) {
+                throw new VersioningServiceException("could not read layer " + directory, e);
+            }
+        }
+
+        /**
+         * @param file relative to the service's checkout
+         * @return the file relative to this layer, or null if it is outside it
+         */
+        @Nullable
+        Path relativize(Path file) {
+            final Path normalized = file.normalize();
+            if (subdirectory.toString().isEmpty()) {
+                return normalized.startsWith(".git") ? null : normalized;
+            }
+            return normalized.startsWith(subdirectory) && !normalized.equals(subdirectory)
+                    ? subdirectory.relativize(normalized) : null;
+        }
+
+        void refresh(Path path) {
+            final ObjectId contentId = contentId(path);
+            if (contentId == null) {
+                files.remove(path);
+            } else {
+                files.put(path, contentId);
+            }
+        }
+
+        /**
+         * Git services know the blob id of each file; for others, hash the file as git would.
+         */
+        @Nullable
+        private ObjectId contentId(Path path) {
+            final Path file = directory.resolve(path);
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                return null;
+            }
+            final Optional<FileRevision> revision = service.getFileRevision(subdirectory.resolve(path));
+            if (revision.isPresent()) {
+                return revision.get().getBlobId();
+            }
+            try {
+                return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Files.readAllBytes(file));
+            } catch (IOException e) {
+                throw new VersioningServiceException("could not read " + file, e);
+            }
+        }
+
+        void cancel() {
+            final Flow.Subscription active = subscription;
+            if (active != null) {
+                active.cancel();
+            }
+        }
+    }
+
+    private final class LayerSubscriber implements Flow.Subscriber<VersionedConfigUpdate> {
+        private final Layer layer;
+
+        LayerSubscriber(Layer layer) {
+            this.layer = layer;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            layer.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(VersionedConfigUpdate update) {
+            try {
+                onLayerUpdate(layer, update);
+            } catch (RuntimeException e) {
+                LOG.warn("could not apply update {} of layer {} to the overlay, rescanning it", update.getNewRevision(),
+                        layer.directory, e);
+                try {
+                    rescan(layer);
+                } catch (RuntimeException rescanFailure) {
+                    LOG.warn("could not rescan layer {}, trying again on its next update", layer.directory,
+                            rescanFailure);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOG.warn("layer {} stopped updating", layer.directory, throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            LOG.debug("layer {} will not update any more", layer.directory);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable set of relative paths stored as one sorted array of UTF-8 bytes, for change sets that can run to
+ * every file in the repository.  A hundred thousand paths take a few megabytes, where the same {@code Path}
+ * objects in a hash set take ten times that; {@code Path}s are only created as the set is iterated.
+ * <p>
+ * Paths are kept in git's form, names joined by {@code /}, and sorted bytewise, so membership and
+ * {@link #under(Path)} are binary searches.  Iteration is in that order.
+ */
+@Immutable
+public final class PathSet extends AbstractSet<Path> {
+    private static final PathSet EMPTY = new PathSet(new byte[0], new int[] {0}, 0, 0);
+
+    private final byte[] arena;
+    private final int[] offsets;
+    private final int from;
+    private final int to;
+
+    private PathSet(byte[] arena, int[] offsets, int from, int to) {
+        this.arena = arena;
+        this.offsets = offsets;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static PathSet of() {
+        return EMPTY;
+    }
+
+    public static PathSet copyOf(Iterable<Path> paths) {
+        if (paths instanceof PathSet) {
+            return (PathSet) paths;
+        }
+        final Builder result = builder();
+        paths.forEach(result::add);
+        return result.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the path's names joined by {@code /}, as git writes them
+     * @throws IllegalArgumentException if the path is absolute, since it has no place in a repository
+     */
+    static String gitPath(Path path) {
+        Preconditions.checkArgument(!path.isAbsolute(), "not a relative path: %s", path);
+        final StringBuilder result = new StringBuilder();
+        for (Path name : path.normalize()) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Path) || ((Path) o).isAbsolute()) {
+            return false;
+        }
+        final byte[] key = gitPath((Path) o).getBytes(StandardCharsets.UTF_8);
+        final int index = lowerBound(key, key.length);
+        return index < to && compare(index, key, key.length) == 0;
+    }
+
+    /**
+     * @return the paths strictly inside {@code directory}, sharing this set's storage; the empty path means all
+     * @throws IllegalArgumentException if the directory is absolute
+     */
+    public PathSet under(Path directory) {
+        final String prefix = gitPath(directory);
+        if (prefix.isEmpty()) {
+            return this;
+        }
+        final byte[] start = (prefix + '/').getBytes(StandardCharsets.UTF_8);
+        final int first = lowerBound(start, start.length);
+        // '0' is the byte after '/', so this bounds every path that starts with "prefix/"
+        start[start.length - 1] = '/' + 1;
+        final int last = lowerBound(start, start.length);
+        return first == from && last == to ? this : new PathSet(arena, offsets, first, last);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        return new Iterator<>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Path next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return Paths.get(gitPathAt(next++));
+            }
+        };
+    }
+
+    private String gitPathAt(int index) {
+        return new String(arena, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    private int lowerBound(byte[] key, int length) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, key, length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int index, byte[] key, int length) {
+        return Arrays.compareUnsigned(arena, offsets[index], offsets[index + 1], key, 0, length);
+    }
+
+    /**
+     * Collects paths in any order; {@link #build()} sorts them only if they were not added sorted, as a tree walk
+     * adds them.
+     */
+    public static final class Builder {
+        private byte[] arena = new byte[256];
+        private int[] offsets = new int[17];
+        private int count;
+        private boolean sorted = true;
+
+        private Builder() {
+        }
+
+        /**
+         * @throws IllegalArgumentException if the path is absolute
+         */
+        public Builder add(Path path) {
+            return add(gitPath(path));
+        }
+
+        public Builder add(String gitPath) {
+            final byte[] bytes = gitPath.getBytes(StandardCharsets.UTF_8);
+            return add(bytes, bytes.length);
+        }
+
+        /**
+         * @param utf8 a path in git's form, e.g. from {@code TreeWalk.getRawPath()}
+         */
+        public Builder add(byte[] utf8, int length) {
+            append(utf8, 0, length);
+            return this;
+        }
+
+        public Builder addAll(Iterable<Path> paths) {
+            if (paths instanceof PathSet) {
+                final PathSet set = (PathSet) paths;
+                for (int i = set.from; i < set.to; i++) {
+                    append(set.arena, set.offsets[i], set.offsets[i + 1] - set.offsets[i]);
+                }
+            } else {
+                paths.forEach(this::add);
+            }
+            return this;
+        }
+
+        private void append(byte[] source, int offset, int length) {
+            final int start = offsets[count];
+            if (start + length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, start + length));
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            System.arraycopy(source, offset, arena, start, length);
+            offsets[count + 1] = start + length;
+            if (sorted && count > 0) {
+                final int previous = offsets[count - 1];
+                sorted = Arrays.compareUnsigned(arena, previous, start, arena, start, start + length) < 0;
+            }
+            count++;
+        }
+
+        public PathSet build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            if (sorted) {
+                return new PathSet(Arrays.copyOf(arena, offsets[count]), Arrays.copyOf(offsets, count + 1), 0, count);
+            }
+            return sortAndDeduplicate();
+        }
+
+        private PathSet sortAndDeduplicate() {
+            final int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(order, order.clone(), 0, count);
+            final byte[] newArena = new byte[offsets[count]];
+            final int[] newOffsets = new int[count + 1];
+            int size = 0;
+            int previous = -1;
+            for (int index : order) {
+                if (previous >= 0 && compare(previous, index) == 0) {
+                    continue;
+                }
+                final int length = offsets[index + 1] - offsets[index];
+                System.arraycopy(arena, offsets[index], newArena, newOffsets[size], length);
+                newOffsets[size + 1] = newOffsets[size] + length;
+                size++;
+                previous = index;
+            }
+            return new PathSet(Arrays.copyOf(newArena, newOffsets[size]), Arrays.copyOf(newOffsets, size + 1), 0, size);
+        }
+
+        /**
+         * Merge sorts {@code order[from, to)} by the paths it indexes, using {@code scratch}, which must start out
+         * as a copy of it; the JDK only sorts primitives by their natural order, and boxing every index costs more
+         * than the paths themselves.
+         */
+        private void sort(int[] order, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            sort(scratch, order, from, mid);
+            sort(scratch, order, mid, to);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right >= to || left < mid && compare(scratch[left], scratch[right]) <= 0) {
+                    order[i] = scratch[left++];
+                } else {
+                    order[i] = scratch[right++];
+                }
+            }
+        }
+
+        private int compare(int a, int b) {
+            return Arrays.compareUnsigned(arena, offsets[a], offsets[a + 1], arena, offsets[b], offsets[b + 1]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.time.Duration;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides how long a {@link VersioningServicePoller} waits after each poll of one service.  Implementations may
+ * keep state about that service, so give every registration its own instance.
+ */
+public interface PollInterval {
+    Duration afterUpdate(VersionedConfigUpdate update);
+
+    Duration afterNoChange();
+
+    Duration afterFailure(RuntimeException failure);
+
+    /**
+     * @return the same delay after every poll
+     */
+    static PollInterval fixed(Duration interval) {
+        Preconditions.checkArgument(!interval.isNegative() && !interval.isZero(), "interval must be positive");
+        return new PollInterval() {
+            @Override
+            public Duration afterUpdate(VersionedConfigUpdate update) {
+                return interval;
+            }
+
+            @Override
+            public Duration afterNoChange() {
+                return interval;
+            }
+
+            @Override
+            public Duration afterFailure(RuntimeException failure) {
+                return interval;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed " + interval;
+            }
+        };
+    }
+
+    /**
+     * @return an {@link AdaptivePollInterval} between the given bounds
+     */
+    static AdaptivePollInterval adaptive(Duration min, Duration max) {
+        return new AdaptivePollInterval(min, max, System::nanoTime);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Latency histograms for config changes travelling from a commit to the code that applies them.
+ * <ul>
+ *     <li>commit to fetch, recorded once for every commit an update spans;</li>
+ *     <li>fetch to delivery, the cost of working out what changed;</li>
+ *     <li>delivery to listener completion, recorded by whoever hands the update to a listener.</li>
+ * </ul>
+ * The initial checkout is not recorded, as the age of the commits it finds says nothing about propagation.
+ */
+@ThreadSafe
+public final class PropagationMetrics {
+    private final LatencyHistogram commitToFetch = new LatencyHistogram();
+    private final LatencyHistogram fetchToDelivery = new LatencyHistogram();
+    private final LatencyHistogram deliveryToListener = new LatencyHistogram();
+
+    public LatencyHistogram getCommitToFetch() {
+        return commitToFetch;
+    }
+
+    public LatencyHistogram getFetchToDelivery() {
+        return fetchToDelivery;
+    }
+
+    public LatencyHistogram getDeliveryToListener() {
+        return deliveryToListener;
+    }
+
+    void recordFetch(List<Instant> commitTimes, Instant fetchedAt) {
+        commitTimes.forEach(time -> commitToFetch.record(Duration.between(time, fetchedAt)));
+    }
+
+    void recordDelivery(PropagationTimes times) {
+        fetchToDelivery.record(times.getFetchToDelivery());
+    }
+
+    /**
+     * Call once a listener has finished applying an update.
+     */
+    public void recordListenerCompleted(VersionedConfigUpdate update) {
+        update.getPropagation().ifPresent(times ->
+                deliveryToListener.recordNanos(System.nanoTime() - times.getDeliveredNanos()));
+    }
+
+    @Override
+    public String toString() {
+        return "PropagationMetrics{commitToFetch=[" + commitToFetch
+                + "], fetchToDelivery=[" + fetchToDelivery
+                + "], deliveryToListener=[" + deliveryToListener + "]}";
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * When the commits behind a {@link VersionedConfigUpdate} were made, fetched and handed out.
+ * <p>
+ * Commit times come from the committer timestamps, so they are only as good as the committer's clock, and
+ * have one second resolution.
+ */
+public final class PropagationTimes {
+    private final Instant oldestCommitTime;
+    private final Instant newestCommitTime;
+    private final int commitCount;
+    private final Instant fetchedAt;
+    private final long fetchedNanos;
+    private final long deliveredNanos;
+
+    PropagationTimes(Instant oldestCommitTime, Instant newestCommitTime, int commitCount,
+                     Instant fetchedAt, long fetchedNanos, long deliveredNanos) {
+        this.oldestCommitTime = oldestCommitTime;
+        this.newestCommitTime = newestCommitTime;
+        this.commitCount = commitCount;
+        this.fetchedAt = fetchedAt;
+        this.fetchedNanos = fetchedNanos;
+        this.deliveredNanos = deliveredNanos;
+    }
+
+    /**
+     * Spans both updates: from the older's first commit to the newer's fetch and delivery.
+     */
+    static PropagationTimes coalesce(PropagationTimes older, PropagationTimes newer) {
+        return new PropagationTimes(older.oldestCommitTime, newer.newestCommitTime,
+                older.commitCount + newer.commitCount, newer.fetchedAt, newer.fetchedNanos, newer.deliveredNanos);
+    }
+
+    /**
+     * @return committer time of the oldest commit in this update
+     */
+    public Instant getOldestCommitTime() {
+        return oldestCommitTime;
+    }
+
+    /**
+     * @return committer time of the newest commit in this update
+     */
+    public Instant getNewestCommitTime() {
+        return newestCommitTime;
+    }
+
+    /**
+     * @return how many commits this update spans, possibly capped
+     */
+    public int getCommitCount() {
+        return commitCount;
+    }
+
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return how long the newest commit took to reach us
+     */
+    public Duration getCommitToFetch() {
+        return Duration.between(newestCommitTime, fetchedAt);
+    }
+
+    /**
+     * @return how long the oldest commit waited to reach us
+     */
+    public Duration getOldestCommitToFetch() {
+        return Duration.between(oldestCommitTime, fetchedAt);
+    }
+
+    /**
+     * @return the time between the fetch finishing and the update being handed out
+     */
+    public Duration getFetchToDelivery() {
+        return Duration.ofNanos(deliveredNanos - fetchedNanos);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the update was handed out
+     */
+    long getDeliveredNanos() {
+        return deliveredNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PropagationTimes{commits=" + commitCount
+                + ", commitToFetch=" + getCommitToFetch()
+                + ", oldestCommitToFetch=" + getOldestCommitToFetch()
+                + ", fetchToDelivery=" + getFetchToDelivery() + '}';
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bare mirror of the remotes that the {@link GitService}s of several processes on one host share, with a file
+ * lock deciding which of them fetches into it.
+ * <p>
+ * The directory holds {@code mirror.git}, plus {@code leader.lock} and {@code init.lock}.  Whoever holds the
+ * leader lock fetches from the remotes and then publishes the branches it fetched as {@code refs/heads/*} of the
+ * mirror, which is what everyone else pulls.  The operating system drops the lock when its holder exits, however it
+ * exits, and the next process to poll takes over.  Locks taken by another service in the same JVM count as held.
+ */
+@NotThreadSafe
+final class SharedRepository implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedRepository.class);
+    private static final String MIRROR = "mirror.git";
+
+    private final Path directory;
+    private final GitOperations mirror;
+
+    private FileChannel leaderChannel;
+    private FileLock leaderLock;
+
+    /**
+     * Opens the mirror, creating and filling it first if no process has yet.
+     */
+    SharedRepository(GitProperties config, Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        final GitProperties upstream = new GitProperties(config.getRemoteRepositories(), null, config.getBranch())
+                .setFetchRefs(config.getFetchRefs())
+                .setConnectTimeout(config.getConnectTimeout())
+                .setReadTimeout(config.getReadTimeout())
+                .setOperationTimeout(config.getOperationTimeout())
+                .setHttpMaxConnectionsPerRemote(config.getHttpMaxConnectionsPerRemote())
+                .setHttpIdleTimeout(config.getHttpIdleTimeout());
+        this.mirror = openMirror(upstream, directory);
+    }
+
+    /**
+     * One JVM at a time through the file lock, one thread at a time within the JVM.
+     */
+    private static GitOperations openMirror(GitProperties upstream, Path directory) throws IOException {
+        synchronized (SharedRepository.class) {
+            try (FileChannel channel = FileChannel.open(directory.resolve("init.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                final FileLock lock = channel.lock();
+                try {
+                    final GitOperations result = new GitOperations(upstream, directory.resolve(MIRROR), true);
+                    try {
+                        if (result.getRepository().exactRef(Constants.R_HEADS + upstream.getBranch()) == null) {
+                            publish(result, result.fetch());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        result.close();
+                        throw e;
+                    }
+                    return result;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how the local checkout should be configured: its only remote is the mirror, whose objects it borrows
+     */
+    static GitProperties localProperties(GitProperties config, Path directory) {
+        final Path mirror = directory.resolve(MIRROR).toAbsolutePath();
+        return new GitProperties(Collections.singletonList(mirror.toUri()), config.getLocalRepository(), config.getBranch())
+                .setFetchRefs(config.getFetchRefs().stream().map(SharedRepository::asPublished).collect(Collectors.toList()))
+                .setSeedObjectDirectory(mirror.resolve("objects"))
+                .setCheckoutThreads(config.getCheckoutThreads());
+    }
+
+    /**
+     * Explicit refspecs land under their destination in the mirror, so that is where followers find them.
+     */
+    private static String asPublished(String fetchRef) {
+        if (!fetchRef.contains(":")) {
+            return fetchRef;
+        }
+        final String destination = new RefSpec(fetchRef).getDestination();
+        return "+" + destination + ":" + destination;
+    }
+
+    /**
+     * Fetch from the remotes if no other process is doing so.
+     * @return whether this process is the fetcher
+     */
+    boolean fetchIfLeader() throws VersioningServiceException {
+        if (!isLeader() && !tryLead()) {
+            return false;
+        }
+        try {
+            publish(mirror, mirror.fetch());
+        } catch (IOException e) {
+            throw new VersioningServiceException("Could not publish to the shared mirror " + directory, e);
+        }
+        return true;
+    }
+
+    void cancel() {
+        mirror.cancel();
+    }
+
+    boolean isLeader() {
+        return leaderLock != null && leaderLock.isValid();
+    }
+
+    private boolean tryLead() {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(directory.resolve("leader.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            final FileLock lock = channel.tryLock();
+            if (lock != null) {
+                LOG.info("Now fetching for every process sharing {}", directory);
+                leaderChannel = channel;
+                leaderLock = lock;
+                return true;
+            }
+        } catch (OverlappingFileLockException e) {
+            LOG.trace("Another service in this JVM fetches for {}", directory);
+        } catch (IOException e) {
+            LOG.warn("Could not take the fetch lock in {}", directory, e);
+        }
+        closeQuietly(channel);
+        return false;
+    }
+
+    /**
+     * Point {@code refs/heads/*} of the mirror at what was just fetched from remote {@code remoteIndex}, and delete
+     * the branches it no longer has.  Heads that an explicit {@code config.repo.fetch-refs} refspec writes directly
+     * are the fetch's to maintain, not ours, so they are never deleted here.
+     */
+    private static void publish(GitOperations mirror, int remoteIndex) throws IOException {
+        final Repository repository = mirror.getRepository();
+        final String remoteName = "remote" + remoteIndex;
+        final String fetched = Constants.R_REMOTES + remoteName + "/";
+        final List<RefSpec> fetchedIntoHeads = mirror.fetchRefSpecs(remoteName).stream()
+                .filter(spec -> spec.getDestination() != null && spec.getDestination().startsWith(Constants.R_HEADS))
+                .collect(Collectors.toList());
+        final List<Ref> refs = repository.getRefDatabase().getRefsByPrefix(fetched);
+        final Set<String> published = new HashSet<>();
+        for (Ref ref : refs) {
+            final RefUpdate update = repository.updateRef(Constants.R_HEADS + ref.getName().substring(fetched.length()));
+            update.setNewObjectId(ref.getObjectId());
+            update.setForceUpdate(true);
+            update.setRefLogMessage("published from remote" + remoteIndex, false);
+            final RefUpdate.Result result = update.update();
+            switch (result) {
+                case NEW:
+                case FORCED:
+                case FAST_FORWARD:
+                case NO_CHANGE:
+                    break;
+                default:
+                    throw new IOException("Could not publish " + update.getName() + ": " + result);
+            }
+            published.add(update.getName());
+        }
+        for (Ref stale : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+            if (!published.contains(stale.getName())
+                    && fetchedIntoHeads.stream().noneMatch(spec -> spec.matchDestination(stale.getName()))) {
+                final RefUpdate delete = repository.updateRef(stale.getName());
+                delete.setForceUpdate(true);
+                final RefUpdate.Result result = delete.delete();
+                if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+                    throw new IOException("Could not delete " + stale.getName() + ": " + result);
+                }
+                LOG.info("Deleted {} from the shared mirror, remote{} no longer has it", stale.getName(), remoteIndex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (leaderLock != null) {
+            try {
+                leaderLock.release();
+            } catch (IOException e) {
+                LOG.debug("while releasing the fetch lock", e);
+            }
+            leaderLock = null;
+        }
+        closeQuietly(leaderChannel);
+        leaderChannel = null;
+        mirror.close();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("while closing a lock file", e);
+            }
+        }
+    }
+}
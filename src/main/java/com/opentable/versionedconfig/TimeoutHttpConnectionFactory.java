@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+
+/**
+ * JGit applies its single transport timeout to both connecting and reading over HTTP.  This wraps the
+ * configured connection factory so that the two can be set independently.
+ */
+class TimeoutHttpConnectionFactory implements HttpConnectionFactory {
+    private final HttpConnectionFactory delegate;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    TimeoutHttpConnectionFactory(HttpConnectionFactory delegate, Duration connectTimeout, @Nullable Duration readTimeout) {
+        this.delegate = delegate;
+        this.connectTimeoutMillis = Math.toIntExact(connectTimeout.toMillis());
+        this.readTimeoutMillis = readTimeout == null ? -1 : Math.toIntExact(readTimeout.toMillis());
+    }
+
+    @Override
+    public HttpConnection create(URL url) throws IOException {
+        return new TimeoutHttpConnection(delegate.create(url));
+    }
+
+    @Override
+    public HttpConnection create(URL url, Proxy proxy) throws IOException {
+        return new TimeoutHttpConnection(delegate.create(url, proxy));
+    }
+
+    private class TimeoutHttpConnection implements HttpConnection {
+        private final HttpConnection conn;
+
+        TimeoutHttpConnection(HttpConnection conn) {
+            this.conn = conn;
+            conn.setConnectTimeout(connectTimeoutMillis);
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout) {
+            conn.setConnectTimeout(connectTimeoutMillis);
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+            conn.setReadTimeout(readTimeoutMillis < 0 ? timeout : readTimeoutMillis);
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return conn.getResponseCode();
+        }
+
+        @Override
+        public URL getURL() {
+            return conn.getURL();
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            return conn.getResponseMessage();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return conn.getHeaderFields();
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            conn.setRequestProperty(key, value);
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            conn.setRequestMethod(method);
+        }
+
+        @Override
+        public void setUseCaches(boolean usecaches) {
+            conn.setUseCaches(usecaches);
+        }
+
+        @Override
+        public String getContentType() {
+            return conn.getContentType();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return conn.getInputStream();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public List<String> getHeaderFields(String name) {
+            return conn.getHeaderFields(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return conn.getContentLength();
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(boolean followRedirects) {
+            conn.setInstanceFollowRedirects(followRedirects);
+        }
+
+        @Override
+        public void setDoOutput(boolean dooutput) {
+            conn.setDoOutput(dooutput);
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(int contentLength) {
+            conn.setFixedLengthStreamingMode(contentLength);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return conn.getOutputStream();
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunklen) {
+            conn.setChunkedStreamingMode(chunklen);
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return conn.getRequestMethod();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return conn.usingProxy();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            conn.connect();
+        }
+
+        @Override
+        public void configure(KeyManager[] km, TrustManager[] tm, SecureRandom random)
+                throws NoSuchAlgorithmException, KeyManagementException {
+            conn.configure(km, tm, random);
+        }
+
+        @Override
+        public void setHostnameVerifier(HostnameVerifier hostnameverifier)
+                throws NoSuchAlgorithmException, KeyManagementException {
+            conn.setHostnameVerifier(hostnameverifier);
+        }
+    }
+}
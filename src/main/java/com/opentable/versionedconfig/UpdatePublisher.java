@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the updates a {@link VersioningService} (or an {@link OverlayView}) finds to any number of
+ * {@link Flow.Subscriber}s.
+ * <p>
+ * Each subscriber is signalled on the executor, one signal at a time, and only as far as it has requested.
+ * Instead of queueing, updates published while a subscriber has no outstanding demand are folded into a single
+ * pending update, e.g. by {@link #coalesce(VersionedConfigUpdate, VersionedConfigUpdate)}.  A slow subscriber
+ * therefore holds at most one update, and never delays the publisher or the other subscribers.
+ *
+ * @param <U> the type of update
+ */
+final class UpdatePublisher<U> implements Flow.Publisher<U> {
+    private static final Logger LOG = LoggerFactory.getLogger(UpdatePublisher.class);
+
+    private final Executor executor;
+    private final BinaryOperator<U> coalesce;
+    private final Consumer<U> delivered;
+    private final Set<UpdateSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param coalesce folds an older pending update and a newer one into one
+     */
+    UpdatePublisher(BinaryOperator<U> coalesce) {
+        this(ForkJoinPool.commonPool(), coalesce);
+    }
+
+    UpdatePublisher(Executor executor, BinaryOperator<U> coalesce) {
+        this(executor, coalesce, update -> { });
+    }
+
+    /**
+     * @param delivered called after each subscriber's {@code onNext} returns normally
+     */
+    UpdatePublisher(Executor executor, BinaryOperator<U> coalesce, Consumer<U> delivered) {
+        this.executor = executor;
+        this.coalesce = coalesce;
+        this.delivered = delivered;
+    }
+
+    /**
+     * @return a publisher that completes every subscriber straight away, for services without updates
+     */
+    static <U> UpdatePublisher<U> completed() {
+        final UpdatePublisher<U> result = new UpdatePublisher<>((older, newer) -> newer);
+        result.close();
+        return result;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super U> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        final UpdateSubscription subscription = new UpdateSubscription(subscriber);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+        subscription.signal();
+    }
+
+    void publish(U update) {
+        subscriptions.forEach(subscription -> subscription.offer(update));
+    }
+
+    /**
+     * Completes all current and future subscribers once they have received what is pending.
+     */
+    void close() {
+        closed = true;
+        subscriptions.forEach(UpdateSubscription::complete);
+    }
+
+    /**
+     * @return one update spanning the older one's old revision to the newer one's new revision, with the union of
+     * their changed paths
+     */
+    static VersionedConfigUpdate coalesce(VersionedConfigUpdate older, VersionedConfigUpdate newer) {
+        final PathSet changed = PathSet.builder()
+                .addAll(older.getChangedFiles())
+                .addAll(newer.getChangedFiles())
+                .build();
+        final PropagationTimes olderTimes = older.getPropagation().orElse(null);
+        final PropagationTimes newerTimes = newer.getPropagation().orElse(null);
+        final PropagationTimes propagation = olderTimes == null || newerTimes == null
+                ? newerTimes == null ? olderTimes : newerTimes
+                : PropagationTimes.coalesce(olderTimes, newerTimes);
+        return new VersionedConfigUpdate(newer.getBasePath(), changed,
+                older.getOldRevisionMetadata(), newer.getNewRevisionMetadata(), propagation);
+    }
+
+    private final class UpdateSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super U> subscriber;
+        private final AtomicInteger work = new AtomicInteger();
+
+        // guarded by this
+        private long demand;
+        private U pending;
+        private boolean completing;
+        private Throwable error;
+
+        // only touched by the signalling loop
+        private boolean started;
+        private volatile boolean cancelled;
+
+        UpdateSubscription(Flow.Subscriber<? super U> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive subscription request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                pending = null;
+            }
+        }
+
+        void offer(U update) {
+            synchronized (this) {
+                pending = pending == null ? update : coalesce.apply(pending, update);
+            }
+            signal();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            signal();
+        }
+
+        void signal() {
+            if (work.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("could not signal subscriber {}", subscriber, e);
+                    cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (!started) {
+                started = true;
+                if (!deliver(() -> subscriber.onSubscribe(this))) {
+                    return;
+                }
+            }
+            while (!cancelled) {
+                final U next;
+                final Throwable failure;
+                final boolean done;
+                synchronized (this) {
+                    failure = error;
+                    next = failure == null && demand > 0 ? pending : null;
+                    if (next != null) {
+                        pending = null;
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    }
+                    done = completing && pending == null;
+                }
+                if (failure != null) {
+                    cancel();
+                    deliver(() -> subscriber.onError(failure));
+                } else if (next != null) {
+                    if (deliver(() -> subscriber.onNext(next))) {
+                        delivered.accept(next);
+                    }
+                } else if (done) {
+                    cancel();
+                    deliver(subscriber::onComplete);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * A subscriber that throws is considered to have cancelled.
+         */
+        private boolean deliver(Runnable signal) {
+            try {
+                signal.run();
+                return true;
+            } catch (RuntimeException e) {
+                LOG.warn("subscriber {} failed, cancelling its subscription", subscriber, e);
+                cancel();
+                return false;
+            }
+        }
+    }
+}
@@ -15,13 +15,22 @@ package com.opentable.versionedconfig;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
+import javax.annotation.Nullable;
 import javax.inject.Named;
 
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.CommandLinePropertySource;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
 
 @Configuration
 public class VersionedConfig {
@@ -29,12 +38,86 @@ public class VersionedConfig {
     @Bean
     public GitProperties defaultVersioningServiceProperties(@Value("${config.repo.remote}") List<URI> remoteRepo,
                                                             @Value("${config.repo.local:#{null}}") Path localPath,
-                                                            @Value("${config.repo.branch:master}") String branch) {
-        return new GitProperties(remoteRepo, localPath, branch);
+                                                            @Value("${config.repo.branch:master}") String branch,
+                                                            @Value("${config.repo.fetch-refs:}") List<String> fetchRefs,
+                                                            @Value("${config.repo.seed-bundle:#{null}}") Path seedBundle,
+                                                            @Value("${config.repo.seed-objects:#{null}}") Path seedObjects,
+                                                            @Value("${config.repo.connect-timeout:}") String connectTimeout,
+                                                            @Value("${config.repo.read-timeout:}") String readTimeout,
+                                                            @Value("${config.repo.operation-timeout:}") String operationTimeout,
+                                                            @Value("${config.repo.http-pool-size:0}") int httpPoolSize,
+                                                            @Value("${config.repo.http-idle-timeout:}") String httpIdleTimeout,
+                                                            @Value("${config.repo.checkout-threads:0}") int checkoutThreads,
+                                                            @Value("${config.repo.shared:#{null}}") Path shared) {
+        final GitProperties result = new GitProperties(remoteRepo, localPath, branch)
+                .setFetchRefs(fetchRefs)
+                .setSeedBundle(seedBundle)
+                .setSeedObjectDirectory(seedObjects)
+                .setConnectTimeout(parseDuration(connectTimeout))
+                .setReadTimeout(parseDuration(readTimeout))
+                .setOperationTimeout(parseDuration(operationTimeout))
+                .setHttpMaxConnectionsPerRemote(httpPoolSize)
+                .setSharedRepository(shared);
+        final Duration idleTimeout = parseDuration(httpIdleTimeout);
+        if (idleTimeout != null) {
+            result.setHttpIdleTimeout(idleTimeout);
+        }
+        return checkoutThreads > 0 ? result.setCheckoutThreads(checkoutThreads) : result;
+    }
+
+    /**
+     * Accepts either a plain number of milliseconds or an ISO-8601 duration such as {@code PT10S}.
+     */
+    @Nullable
+    static Duration parseDuration(@Nullable String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        final String trimmed = value.trim();
+        if (StringUtils.isNumeric(trimmed)) {
+            return Duration.ofMillis(Long.parseLong(trimmed));
+        }
+        return Duration.parse(trimmed);
     }
 
     @Bean
-    public VersioningService defaultVersioningService(@Named("defaultVersioningServiceProperties") GitProperties config) {
-        return VersioningService.forGitRepository(config);
+    public VersioningService defaultVersioningService(@Named("defaultVersioningServiceProperties") GitProperties config,
+                                                      @Value("${config.repo.async-init:false}") boolean asyncInit) {
+        return asyncInit ? VersioningService.forGitRepositoryAsync(config) : VersioningService.forGitRepository(config);
+    }
+
+    /**
+     * Serves the keys of the files listed in {@code config.repo.property-files} and keeps them current as the
+     * repository updates.  They override the application's own property files, but not command line arguments,
+     * system properties or environment variables, so an operator can still override a bad value.  Empty unless
+     * files are listed.
+     */
+    @Bean
+    public VersionedPropertySource versionedPropertySource(@Named("defaultVersioningService") VersioningService service,
+                                                           @Value("${config.repo.property-files:}") List<Path> files,
+                                                           ConfigurableEnvironment environment,
+                                                           ApplicationEventPublisher publisher) {
+        final VersionedPropertySource result =
+                new VersionedPropertySource("versionedConfig", service, files, publisher);
+        if (!files.isEmpty()) {
+            addBehindOverrides(environment.getPropertySources(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the source right after the last of the environment, system property and command line sources present.
+     */
+    static void addBehindOverrides(MutablePropertySources sources, PropertySource<?> source) {
+        for (String name : new String[] {
+                StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME,
+                StandardEnvironment.SYSTEM_PROPERTIES_PROPERTY_SOURCE_NAME,
+                CommandLinePropertySource.COMMAND_LINE_PROPERTY_SOURCE_NAME}) {
+            if (sources.contains(name)) {
+                sources.addAfter(name, source);
+                return;
+            }
+        }
+        sources.addFirst(source);
     }
 }
@@ -14,13 +14,12 @@
 package com.opentable.versionedconfig;
 
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableSet;
-
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
@@ -35,7 +34,7 @@ public final class VersionedConfigUpdate {
     /**
      * Subset of allKnownFiles affected by this update.
      */
-    private final Set<Path> changedFiles;
+    private final PathSet changedFiles;
 
     /**
      * Description of the VCS revisions that this change describes (e.g. SHA for git).
@@ -43,15 +42,24 @@ public final class VersionedConfigUpdate {
     private final ObjectId oldRevision;
     private final ObjectId newRevision;
 
+    @Nullable
+    private final PropagationTimes propagation;
+
     public VersionedConfigUpdate(Path basePath, Iterable<Path> changedFiles) {
         this(basePath, changedFiles, ObjectId.zeroId(), ObjectId.zeroId());
     }
 
     public VersionedConfigUpdate(Path basePath, Iterable<Path> changedFiles, ObjectId oldRevision, ObjectId newRevision) {
+        this(basePath, changedFiles, oldRevision, newRevision, null);
+    }
+
+    VersionedConfigUpdate(Path basePath, Iterable<Path> changedFiles, ObjectId oldRevision, ObjectId newRevision,
+                          @Nullable PropagationTimes propagation) {
         this.basePath = basePath;
-        this.changedFiles = ImmutableSet.copyOf(changedFiles);
+        this.changedFiles = PathSet.copyOf(changedFiles);
         this.oldRevision = oldRevision;
         this.newRevision = newRevision;
+        this.propagation = propagation;
     }
 
     /**
@@ -62,7 +70,7 @@ public final class VersionedConfigUpdate {
     }
 
     /**
-     * @return a set of the files changed in this diff
+     * @return a set of the files changed in this diff, as a {@link PathSet}
      */
     public Set<Path> getChangedFiles() {
         return changedFiles;
@@ -97,4 +105,11 @@ public final class VersionedConfigUpdate {
     public String getNewRevision() {
         return newRevision == null ? "<unknown>" : newRevision.getName();
     }
+
+    /**
+     * @return when the commits in this update were made, fetched and delivered, if the service tracks it
+     */
+    public Optional<PropagationTimes> getPropagation() {
+        return Optional.ofNullable(propagation);
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by a {@link VersionedPropertySource} after an update changed some of its properties.
+ */
+public class VersionedPropertiesChangedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> keys;
+
+    public VersionedPropertiesChangedEvent(VersionedPropertySource source, Set<String> keys) {
+        super(source);
+        this.keys = ImmutableSet.copyOf(keys);
+    }
+
+    @Override
+    public VersionedPropertySource getSource() {
+        return (VersionedPropertySource) super.getSource();
+    }
+
+    /**
+     * @return the property names that were added, removed or given a new value
+     */
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return whether any changed key starts with {@code prefix}, e.g. the prefix a bean binds from
+     */
+    public boolean affects(String prefix) {
+        return keys.stream().anyMatch(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.EnumerablePropertySource;
+
+/**
+ * A Spring {@code PropertySource} over selected {@code .properties}, {@code .json} or {@code .yaml} files in a
+ * {@link VersioningService}'s checkout, flattened as by {@link ConfigKeyIndex}.  Files later in the list override
+ * earlier ones.
+ * <p>
+ * Every update that touches one of the files re-reads them all into a new immutable map, which replaces the old one
+ * with a single volatile write; lookups never read files or take locks.  If anything changed, a
+ * {@link VersionedPropertiesChangedEvent} naming the changed keys is published, so that listeners can rebind only
+ * what depends on them.  If a file cannot be read or parsed the refresh fails and the previous values stay.
+ */
+@ThreadSafe
+public final class VersionedPropertySource extends EnumerablePropertySource<VersioningService> implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(VersionedPropertySource.class);
+
+    private final List<Path> files;
+    @Nullable
+    private final ApplicationEventPublisher publisher;
+    private volatile Properties current;
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * Load the files from the checkout now if there is one, even a last known one that is still being fetched
+     * into; again once the service is {@link VersioningService#ready() ready}, whether or not that succeeds; and
+     * again on every update from {@link VersioningService#updates()}.  Without files the source stays empty and
+     * does not listen for updates at all.
+     *
+     * @param files relative to the checkout directory
+     * @param publisher where to announce changes, if anywhere
+     * @throws VersioningServiceException if there is a checkout and a file in it cannot be read or parsed
+     */
+    public VersionedPropertySource(String name, VersioningService service, List<Path> files,
+                                   @Nullable ApplicationEventPublisher publisher) {
+        super(name, service);
+        files.forEach(file -> Preconditions.checkArgument(ConfigFormats.isSupported(file),
+                "%s is not a properties, JSON or YAML file", file));
+        this.files = ImmutableList.copyOf(files);
+        this.publisher = publisher;
+        if (files.isEmpty()) {
+            this.current = new Properties(ImmutableMap.of());
+            return;
+        }
+        final CompletableFuture<VersioningService> ready = service.ready();
+        this.current = hasCheckout(service) ? load() : new Properties(ImmutableMap.of());
+        if (!ready.isDone()) {
+            ready.whenComplete((ignored, failure) -> refreshQuietly());
+        }
+        service.updates().subscribe(new RefreshingSubscriber());
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return current.values.get(name);
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        return current.values.containsKey(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return current.names.clone();
+    }
+
+    /**
+     * Re-read the files now.
+     *
+     * @return the keys that were added, removed or changed
+     * @throws VersioningServiceException if a file cannot be read or parsed, leaving the previous values in place
+     */
+    public synchronized Set<String> refresh() {
+        final Properties previous = current;
+        final Properties next = load();
+        final MapDifference<String, String> difference = Maps.difference(previous.values, next.values);
+        if (difference.areEqual()) {
+            return ImmutableSet.of();
+        }
+        current = next;
+        final Set<String> changed = ImmutableSet.<String>builder()
+                .addAll(difference.entriesOnlyOnLeft().keySet())
+                .addAll(difference.entriesOnlyOnRight().keySet())
+                .addAll(difference.entriesDiffering().keySet())
+                .build();
+        LOG.info("property source {} changed {} keys", getName(), changed.size());
+        if (publisher != null) {
+            publisher.publishEvent(new VersionedPropertiesChangedEvent(this, changed));
+        }
+        return changed;
+    }
+
+    @Override
+    public void close() {
+        final Flow.Subscription active = subscription;
+        if (active != null) {
+            active.cancel();
+        }
+    }
+
+    private void refreshQuietly() {
+        if (!hasCheckout(getSource())) {
+            LOG.warn("property source {} has no checkout to read yet", getName());
+            return;
+        }
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            LOG.warn("could not refresh property source {}, keeping the previous values", getName(), e);
+        }
+    }
+
+    /**
+     * A service that is still cloning, or failed to, has no checkout to read yet.
+     */
+    private static boolean hasCheckout(VersioningService service) {
+        try {
+            return Files.isDirectory(service.getCheckoutDirectory());
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private Properties load() {
+        final Path root = getSource().getCheckoutDirectory();
+        final Map<String, String> values = new HashMap<>();
+        for (Path file : files) {
+            try {
+                values.putAll(ConfigFormats.parse(file, Files.readAllBytes(root.resolve(file))));
+            } catch (NoSuchFileException e) {
+                LOG.debug("property file {} does not exist", file);
+            } catch (IOException e) {
+                throw new VersioningServiceException("could not load property file " + file, e);
+            }
+        }
+        return new Properties(ImmutableMap.copyOf(values));
+    }
+
+    private boolean touchesFiles(VersionedConfigUpdate update) {
+        return files.stream().anyMatch(update.getChangedFiles()::contains);
+    }
+
+    /**
+     * The map and its key names, swapped together.
+     */
+    private static final class Properties {
+        private final ImmutableMap<String, String> values;
+        private final String[] names;
+
+        Properties(ImmutableMap<String, String> values) {
+            this.values = values;
+            this.names = values.keySet().toArray(new String[0]);
+        }
+    }
+
+    private final class RefreshingSubscriber implements Flow.Subscriber<VersionedConfigUpdate> {
+        @Override
+        public void onSubscribe(Flow.Subscription newSubscription) {
+            subscription = newSubscription;
+            newSubscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(VersionedConfigUpdate update) {
+            if (touchesFiles(update)) {
+                refreshQuietly();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOG.warn("property source {} stopped receiving updates", getName(), throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            LOG.debug("property source {} will not refresh any more", getName());
+        }
+    }
+}
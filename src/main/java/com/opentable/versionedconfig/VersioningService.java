@@ -15,10 +15,17 @@ package com.opentable.versionedconfig;
 
 import java.io.Closeable;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 
 public interface VersioningService extends Closeable {
     VersionedConfigUpdate getCurrentState();
@@ -35,7 +42,113 @@ public interface VersioningService extends Closeable {
 
     String getBranch();
 
+    /**
+     * Abort a {@link #checkForUpdate()} that is currently running on another thread.  The aborted call
+     * fails with a {@link VersioningServiceException}; later calls are unaffected.
+     */
+    default void cancelUpdate() {
+    }
+
+    /**
+     * Updates found by {@link #checkForUpdate()}, whoever calls it (e.g. a {@link VersioningServicePoller}), as a
+     * reactive stream.  Subscribers are signalled asynchronously and only as far as they have requested; a
+     * subscriber without demand gets the updates it missed folded into one.  Closing the service completes the
+     * stream.  Services that do not publish updates complete it right away.
+     */
+    default Flow.Publisher<VersionedConfigUpdate> updates() {
+        return UpdatePublisher.completed();
+    }
+
+    /**
+     * Completes with this service once it reflects the remote, or exceptionally if it could not get there.
+     * Services that set themselves up in their constructor are ready right away.
+     */
+    default CompletableFuture<VersioningService> ready() {
+        return CompletableFuture.completedFuture(this);
+    }
+
+    /**
+     * Propagation latency histograms, for services that can tell when their changes were committed.  Updates from
+     * such services carry their own timings in {@link VersionedConfigUpdate#getPropagation()}.
+     */
+    default Optional<PropagationMetrics> getPropagationMetrics() {
+        return Optional.empty();
+    }
+
+    /**
+     * The commits after {@code from} up to and including {@code to}, oldest first, each with the paths it changed
+     * relative to its first parent.  A {@code null} or zero {@code from} walks the whole history of {@code to}.
+     * Commits are read as the stream is consumed, so a caller catching up over a long range can stop early; close
+     * the stream to release the walk.  Services that keep no history return an empty stream.
+     */
+    default Stream<ConfigCommit> getChangeLog(@Nullable ObjectId from, ObjectId to) {
+        return Stream.empty();
+    }
+
+    /**
+     * The commits an update brought in; see {@link #getChangeLog(ObjectId, ObjectId)}.
+     */
+    default Stream<ConfigCommit> getChangeLog(VersionedConfigUpdate update) {
+        return getChangeLog(update.getOldRevisionMetadata(), update.getNewRevisionMetadata());
+    }
+
+    /**
+     * The version of one file at the current revision, for per-file caching (e.g. as an HTTP {@code ETag}) that
+     * is not invalidated by commits touching other files.  Lookups are constant time; the index behind them is
+     * updated from each update's diff before the update is published.
+     *
+     * @param path relative to the checkout directory
+     * @return empty if there is no such file at the current revision, or the service does not index revisions
+     */
+    default Optional<FileRevision> getFileRevision(Path path) {
+        return Optional.empty();
+    }
+
+    /**
+     * The contents of one file at any revision the service still has, not only the checked out one.
+     *
+     * @param path relative to the checkout directory
+     * @return empty if the revision is unknown or has no such file, or the service keeps no revisions
+     */
+    default Optional<ObjectId> getBlobId(ObjectId revision, Path path) {
+        return Optional.empty();
+    }
+
+    /**
+     * @param blobId from {@link #getBlobId(ObjectId, Path)} or {@link FileRevision#getBlobId()}
+     * @return empty if the service does not have the blob
+     */
+    default Optional<ObjectLoader> openBlob(ObjectId blobId) {
+        return Optional.empty();
+    }
+
+    /**
+     * Which keys the update added, removed or changed in each {@code .properties}, {@code .json} or {@code .yaml}
+     * file it touched, by parsing the file at both revisions.  Files whose keys are all unchanged are left out.
+     * Opt-in: nothing is parsed unless this is called.  Needs {@link #getBlobId(ObjectId, Path)}.
+     */
+    default Map<Path, ConfigKeyChanges> getKeyChanges(VersionedConfigUpdate update) {
+        return ConfigKeyChanges.between(this, update);
+    }
+
     static VersioningService forGitRepository(GitProperties config) {
         return new GitService(config);
     }
+
+    /**
+     * Like {@link #forGitRepository(GitProperties)}, but returns immediately and clones in the background; see
+     * {@link #ready()}.  A checkout left at the configured local path by a previous run is served until the
+     * first fetch completes.
+     */
+    static VersioningService forGitRepositoryAsync(GitProperties config) {
+        return new AsyncGitService(config);
+    }
+
+    /**
+     * Watch a plain directory instead of a git repository, e.g. for local development or configuration
+     * delivered to disk by a sidecar.  Revisions are content hashes rather than commits.
+     */
+    static VersioningService forDirectory(Path directory) {
+        return new FileSystemService(directory);
+    }
 }
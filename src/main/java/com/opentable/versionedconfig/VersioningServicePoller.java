@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls many {@link VersioningService}s from one shared set of threads.
+ * <p>
+ * Each registered service is polled with a delay between the end of one {@link VersioningService#checkForUpdate()}
+ * and the start of the next, fixed or chosen by a {@link PollInterval}, so a single service is never polled
+ * concurrently with itself.  Polls run on virtual
+ * threads when the JDK supports them, otherwise on a pool sized to the fetch limit; either way no more than
+ * {@code maxConcurrentFetches} fetches are in flight at once.
+ */
+public class VersioningServicePoller implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(VersioningServicePoller.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final Semaphore fetchPermits;
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+
+    public VersioningServicePoller(int maxConcurrentFetches) {
+        this(maxConcurrentFetches, true);
+    }
+
+    public VersioningServicePoller(int maxConcurrentFetches, boolean preferVirtualThreads) {
+        Preconditions.checkArgument(maxConcurrentFetches > 0, "maxConcurrentFetches must be positive");
+        this.fetchPermits = new Semaphore(maxConcurrentFetches, true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("versioned-config-scheduler-%d").setDaemon(true).build());
+        final ExecutorService virtual = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.workers = virtual != null ? virtual : Executors.newFixedThreadPool(maxConcurrentFetches,
+                new ThreadFactoryBuilder().setNameFormat("versioned-config-poll-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Looked up reflectively so that the library still runs on JDKs without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            final ExecutorService result = (ExecutorService) factory.invoke(null);
+            LOG.debug("polling on virtual threads");
+            return result;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            LOG.debug("virtual threads unavailable, polling on a bounded pool", e);
+            return null;
+        }
+    }
+
+    /**
+     * Start polling a service.  The first poll happens immediately.
+     * @param service the service to poll
+     * @param interval the delay between the end of one poll and the start of the next
+     * @param listener called on the polling thread with every update found
+     * @return a handle that stops polling when closed
+     */
+    public Registration register(VersioningService service, Duration interval, Consumer<VersionedConfigUpdate> listener) {
+        return register(service, PollInterval.fixed(interval), listener);
+    }
+
+    /**
+     * Start polling a service, waiting after each poll as long as {@code interval} says, e.g. an
+     * {@link PollInterval#adaptive(Duration, Duration) adaptive} interval.  The first poll happens immediately.
+     * @param interval decides the delay between the end of one poll and the start of the next; not to be shared
+     * with other registrations
+     * @param listener called on the polling thread with every update found
+     * @return a handle that stops polling when closed
+     */
+    public Registration register(VersioningService service, PollInterval interval, Consumer<VersionedConfigUpdate> listener) {
+        final Registration registration = new Registration(service, interval, listener);
+        registrations.add(registration);
+        registration.schedule(Duration.ZERO);
+        return registration;
+    }
+
+    /**
+     * Run one fetch through the shared limit, outside of any schedule.
+     */
+    public CompletableFuture<Optional<VersionedConfigUpdate>> pollNow(VersioningService service) {
+        return CompletableFuture.supplyAsync(() -> fetch(service), workers);
+    }
+
+    private Optional<VersionedConfigUpdate> fetch(VersioningService service) {
+        fetchPermits.acquireUninterruptibly();
+        try {
+            return service.checkForUpdate();
+        } finally {
+            fetchPermits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        registrations.forEach(Registration::cancel);
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("pollers did not terminate within 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public final class Registration implements Closeable {
+        private final VersioningService service;
+        private final PollInterval interval;
+        private final Consumer<VersionedConfigUpdate> listener;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile ScheduledFuture<?> next;
+
+        private Registration(VersioningService service, PollInterval interval, Consumer<VersionedConfigUpdate> listener) {
+            this.service = service;
+            this.interval = interval;
+            this.listener = listener;
+        }
+
+        public VersioningService getService() {
+            return service;
+        }
+
+        private void schedule(Duration delay) {
+            if (cancelled.get()) {
+                return;
+            }
+            try {
+                next = scheduler.schedule(() -> workers.execute(this::poll), delay.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("poller closed, not rescheduling {}", service.getCheckoutDirectory(), e);
+            }
+        }
+
+        /**
+         * Polls of one registration never overlap, so the interval is only ever used from one thread at a time.
+         */
+        private void poll() {
+            Duration delay = null;
+            try {
+                final Optional<VersionedConfigUpdate> found = fetch(service);
+                delay = found.map(interval::afterUpdate).orElseGet(interval::afterNoChange);
+                found.ifPresent(update -> {
+                    listener.accept(update);
+                    service.getPropagationMetrics().ifPresent(metrics -> metrics.recordListenerCompleted(update));
+                });
+            } catch (RuntimeException e) {
+                LOG.warn("while polling {} for updates", service.getCheckoutDirectory(), e);
+                if (delay == null) {
+                    delay = interval.afterFailure(e);
+                }
+            } finally {
+                schedule(delay != null ? delay : interval.afterNoChange());
+            }
+        }
+
+        private void cancel() {
+            cancelled.set(true);
+            final ScheduledFuture<?> scheduled = next;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        @Override
+        public void close() {
+            cancel();
+            registrations.remove(this);
+        }
+    }
+}
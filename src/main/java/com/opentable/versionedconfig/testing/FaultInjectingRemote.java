@@ -0,0 +1,307 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Serves a test repository over an in-process transport that misbehaves on request: added round-trip latency,
+ * a bandwidth cap, stalls, dropped connections and refused connections.  Faults can be changed at any time and
+ * apply to connections opened afterwards.  Point {@code GitProperties} at {@link #getUri()}, possibly next to
+ * a healthy remote, to exercise failover and timeouts without a real network.
+ *
+ * <p>Random failures are drawn from a seeded generator, so a given sequence of connections fails the same way
+ * on every run.
+ */
+public final class FaultInjectingRemote implements Closeable {
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final URI uri;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    private volatile Duration latency = Duration.ZERO;
+    private volatile long bytesPerSecond;
+    private volatile long stallAfterBytes = -1;
+    private volatile Duration stallDuration = Duration.ZERO;
+    private volatile long dropAfterBytes = -1;
+    private volatile double failureRate;
+    private Random random = new Random(1);
+
+    private FaultInjectingRemote(Repository repository) {
+        this.uri = InProcessGitProtocol.register("faulty", repository, new Hook());
+    }
+
+    public static FaultInjectingRemote serve(Repository repository) {
+        return new FaultInjectingRemote(repository);
+    }
+
+    public static FaultInjectingRemote serve(GitRule rule) {
+        return serve(rule.getGitRepo().getRepository());
+    }
+
+    public static FaultInjectingRemote serve(InMemoryGitRule rule) {
+        return serve(rule.getRepository());
+    }
+
+    /**
+     * Round-trip delay, added when a connection opens and before each answer the server gives to a client
+     * request.  Pack data and progress messages within one answer are not delayed further.
+     */
+    public FaultInjectingRemote setLatency(Duration latency) {
+        Preconditions.checkArgument(!latency.isNegative(), "negative latency");
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Caps how fast the server sends to each connection; zero means unlimited.
+     */
+    public FaultInjectingRemote setBandwidth(long bytesPerSecond) {
+        Preconditions.checkArgument(bytesPerSecond >= 0, "negative bandwidth");
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Makes the server go quiet for {@code duration} once it has sent {@code afterBytes} on a connection.
+     * A stall longer than the test is as good as a hung server; closing the connection ends it.
+     */
+    public FaultInjectingRemote setStall(long afterBytes, Duration duration) {
+        Preconditions.checkArgument(afterBytes >= 0, "negative byte count");
+        this.stallAfterBytes = afterBytes;
+        this.stallDuration = duration;
+        return this;
+    }
+
+    /**
+     * Cuts each connection after the server has sent {@code afterBytes}.
+     */
+    public FaultInjectingRemote setDropAfterBytes(long afterBytes) {
+        Preconditions.checkArgument(afterBytes >= 0, "negative byte count");
+        this.dropAfterBytes = afterBytes;
+        return this;
+    }
+
+    /**
+     * Refuses this fraction of connections at random.
+     */
+    public FaultInjectingRemote setFailureRate(double failureRate) {
+        Preconditions.checkArgument(failureRate >= 0 && failureRate <= 1, "failure rate must be within [0, 1]");
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    public synchronized FaultInjectingRemote setSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Refuses the next {@code count} connections, regardless of the failure rate.
+     */
+    public FaultInjectingRemote failNextConnections(int count) {
+        Preconditions.checkArgument(count >= 0, "negative count");
+        failNext.set(count);
+        return this;
+    }
+
+    /**
+     * Back to a well-behaved remote; counters are kept.
+     */
+    public FaultInjectingRemote clearFaults() {
+        latency = Duration.ZERO;
+        bytesPerSecond = 0;
+        stallAfterBytes = -1;
+        dropAfterBytes = -1;
+        failureRate = 0;
+        failNext.set(0);
+        return this;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * @return connection attempts, including refused ones
+     */
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    public long getRefusedConnectionCount() {
+        return refused.get();
+    }
+
+    public long getDroppedConnectionCount() {
+        return dropped.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        InProcessGitProtocol.unregister(uri);
+    }
+
+    private synchronized boolean shouldRefuse() {
+        if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return true;
+        }
+        return failureRate > 0 && random.nextDouble() < failureRate;
+    }
+
+    private static void pause(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while injecting delay");
+        }
+    }
+
+    private final class Hook implements InProcessGitProtocol.ConnectionHook {
+        @Override
+        public InProcessGitProtocol.ConnectionHook onConnect(URIish remote) throws TransportException {
+            connections.incrementAndGet();
+            if (shouldRefuse()) {
+                refused.incrementAndGet();
+                throw new TransportException(remote, "connection refused (injected)");
+            }
+            try {
+                pause(latency.toNanos());
+            } catch (InterruptedIOException e) {
+                throw new TransportException(remote, "interrupted while connecting", e);
+            }
+            return new FaultyConnection();
+        }
+    }
+
+    /**
+     * Both streams are used by the single server thread, so the connection state needs no synchronization.
+     */
+    private final class FaultyConnection implements InProcessGitProtocol.ConnectionHook {
+        private final long started = System.nanoTime();
+        private long sent;
+        private boolean stalled;
+        private boolean cut;
+        private boolean answering = true;
+
+        @Override
+        public InputStream wrapRequest(InputStream request) {
+            return new FilterInputStream(request) {
+                @Override
+                public int read() throws IOException {
+                    final int b = in.read();
+                    answering = false;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    final int n = in.read(b, off, len);
+                    answering = false;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream wrapResponse(OutputStream response) {
+            return new FilterOutputStream(response) {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    send(out, b, off, len);
+                }
+            };
+        }
+
+        private void send(OutputStream out, byte[] b, int off, int len) throws IOException {
+            if (!answering) {
+                answering = true;
+                pause(latency.toNanos());
+            }
+            while (len > 0) {
+                final long drop = dropAfterBytes;
+                if (cut || drop >= 0 && sent >= drop) {
+                    if (!cut) {
+                        cut = true;
+                        dropped.incrementAndGet();
+                    }
+                    out.close();
+                    throw new IOException("connection dropped after " + sent + " bytes (injected)");
+                }
+                final long stallAt = stallAfterBytes;
+                if (!stalled && stallAt >= 0 && sent >= stallAt) {
+                    stalled = true;
+                    out.flush();
+                    pause(stallDuration.toNanos());
+                }
+
+                long n = Math.min(len, CHUNK_SIZE);
+                if (drop >= 0) {
+                    n = Math.min(n, drop - sent);
+                }
+                if (!stalled && stallAt >= 0) {
+                    n = Math.min(n, stallAt - sent);
+                }
+                out.write(b, off, (int) n);
+                off += n;
+                len -= n;
+                sent += n;
+                bytesSent.addAndGet(n);
+                throttle();
+            }
+        }
+
+        private void throttle() throws InterruptedIOException {
+            final long rate = bytesPerSecond;
+            if (rate > 0) {
+                pause(started + TimeUnit.SECONDS.toNanos(sent) / rate - System.nanoTime());
+            }
+        }
+    }
+}
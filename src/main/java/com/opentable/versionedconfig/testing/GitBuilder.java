@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 public class GitBuilder {
@@ -73,4 +74,18 @@ public class GitBuilder {
             throw new UncheckedIOException(e);
         }
     }
+
+    /**
+     * Like {@link #rule()}, but the repository lives only in memory; see {@link InMemoryGitRule}.  Every action
+     * must be an {@link InMemoryGitAction}.
+     */
+    public InMemoryGitRule inMemoryRule() {
+        final ImmutableList.Builder<InMemoryGitAction> inMemory = ImmutableList.builder();
+        for (GitAction action : actions) {
+            Preconditions.checkState(action instanceof InMemoryGitAction,
+                    "%s cannot build an in-memory repository", action.getClass().getSimpleName());
+            inMemory.add((InMemoryGitAction) action);
+        }
+        return new InMemoryGitRule(inMemory.build());
+    }
 }
@@ -18,7 +18,7 @@ import java.nio.file.Path;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
-public class GitCommit implements GitAction {
+public class GitCommit implements InMemoryGitAction {
     private final String message;
 
     public GitCommit(String message) {
@@ -33,4 +33,9 @@ public class GitCommit implements GitAction {
             throw new RuntimeException("failed to git-commit", e);
         }
     }
+
+    @Override
+    public void apply(InMemoryGitRule repo) {
+        repo.commit(message);
+    }
 }
@@ -27,7 +27,7 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.util.FileUtils;
 
-public class GitEditFile implements GitAction {
+public class GitEditFile implements InMemoryGitAction {
     private final Path path;
     private final String contents;
     private final boolean append;
@@ -64,4 +64,13 @@ public class GitEditFile implements GitAction {
             throw new RuntimeException("failed to edit file " + target, e);
         }
     }
+
+    @Override
+    public void apply(InMemoryGitRule repo) {
+        if (append) {
+            repo.appendFile(path, contents);
+        } else {
+            repo.editFile(path, contents);
+        }
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.RefAdvertiser;
+import org.eclipse.jgit.transport.UploadPack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only git smart-HTTP server on the loopback interface, built on the JDK's HTTP server.  Good enough
+ * for {@code GitService} and any other JGit or command line client to clone and fetch from, and it counts what
+ * it serves so load tests can report server-side cost.
+ */
+public final class GitHttpServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(GitHttpServer.class);
+    private static final String SERVICE = "git-upload-pack";
+    private static final String PATH = "/repo.git/";
+
+    private final Repository repository;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+    private GitHttpServer(Repository repository, int maxThreads, @Nullable SSLContext tls) throws IOException {
+        this.repository = repository;
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (tls == null) {
+            this.server = HttpServer.create(address, 0);
+        } else {
+            final HttpsServer https = HttpsServer.create(address, 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(tls));
+            this.server = https;
+        }
+        this.executor = Executors.newFixedThreadPool(maxThreads,
+                new ThreadFactoryBuilder().setNameFormat("git-http-server-%d").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public static GitHttpServer serve(Repository repository) {
+        return serve(repository, 8);
+    }
+
+    /**
+     * @param maxThreads requests are handled by at most this many threads, more wait in line
+     */
+    public static GitHttpServer serve(Repository repository, int maxThreads) {
+        return serve(repository, maxThreads, null);
+    }
+
+    /**
+     * @param tls serve HTTPS with this context's key material, or plain HTTP if null
+     */
+    public static GitHttpServer serve(Repository repository, int maxThreads, @Nullable SSLContext tls) {
+        try {
+            return new GitHttpServer(repository, maxThreads, tls);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not start git http server", e);
+        }
+    }
+
+    public URI getUri() {
+        final InetSocketAddress address = server.getAddress();
+        final String scheme = server instanceof HttpsServer ? "https" : "http";
+        return URI.create(scheme + "://" + address.getHostString() + ":" + address.getPort() + PATH);
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return how many distinct TCP connections requests arrived on; lower than the request count when clients
+     * keep connections alive
+     */
+    public long getConnectionCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return CPU time spent by handler threads, as far as the JVM can measure it
+     */
+    public Duration getCpuTime() {
+        return Duration.ofNanos(cpuNanos.get());
+    }
+
+    public void resetStatistics() {
+        requests.set(0);
+        bytesReceived.set(0);
+        bytesSent.set(0);
+        cpuNanos.set(0);
+        clients.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clients.add(exchange.getRemoteAddress());
+        final long cpuStart = threads.getCurrentThreadCpuTime();
+        try {
+            final String path = exchange.getRequestURI().getPath().substring(PATH.length());
+            final String query = exchange.getRequestURI().getQuery();
+            if ("GET".equals(exchange.getRequestMethod()) && "info/refs".equals(path)
+                    && ("service=" + SERVICE).equals(query)) {
+                advertise(exchange);
+            } else if ("POST".equals(exchange.getRequestMethod()) && SERVICE.equals(path)) {
+                upload(exchange);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("while serving {}", exchange.getRequestURI(), e);
+            throw e;
+        } finally {
+            exchange.close();
+            if (cpuStart >= 0) {
+                cpuNanos.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+            }
+        }
+    }
+
+    private void advertise(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-" + SERVICE + "-advertisement");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody())) {
+            final PacketLineOut pckOut = new PacketLineOut(out);
+            newUploadPack(exchange).sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(pckOut), SERVICE);
+            out.flush();
+            bytesSent.addAndGet(out.getCount());
+        }
+    }
+
+    private void upload(HttpExchange exchange) throws IOException {
+        InputStream body = skipByReading(exchange.getRequestBody());
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-" + SERVICE + "-result");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (CountingInputStream in = new CountingInputStream(body);
+                CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody())) {
+            try {
+                newUploadPack(exchange).upload(in, out, null);
+            } finally {
+                bytesReceived.addAndGet(in.getCount());
+                bytesSent.addAndGet(out.getCount());
+            }
+        }
+    }
+
+    /**
+     * The JDK server's request body passes {@code skip} through to the connection, past the end of the body.
+     */
+    private static InputStream skipByReading(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public long skip(long n) throws IOException {
+                final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+                long skipped = 0;
+                while (skipped < n) {
+                    final int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                    if (read < 0) {
+                        break;
+                    }
+                    skipped += read;
+                }
+                return skipped;
+            }
+        };
+    }
+
+    private UploadPack newUploadPack(HttpExchange exchange) {
+        final UploadPack uploadPack = new UploadPack(repository);
+        uploadPack.setBiDirectionalPipe(false);
+        final String protocol = exchange.getRequestHeaders().getFirst("Git-Protocol");
+        if (protocol != null) {
+            uploadPack.setExtraParameters(Arrays.asList(protocol.split(":")));
+        }
+        return uploadPack;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.junit.rules.ExternalResource;
+
+/**
+ * A {@link GitRule} equivalent that keeps the repository entirely in memory and builds commits directly
+ * from trees, without a working copy.  Clients such as {@code GitService} reach it through {@link #getUri()}.
+ */
+public class InMemoryGitRule extends ExternalResource {
+    private static final String BRANCH = Constants.R_HEADS + Constants.MASTER;
+
+    private final Collection<InMemoryGitAction> actions;
+    private final InMemoryRepository repository;
+    private final DirCache index = DirCache.newInCore();
+    private final URI uri;
+    /**
+     * Blobs staged since the last commit; flushed together with the commit as a single pack.
+     */
+    private ObjectInserter pending;
+
+    InMemoryGitRule(Collection<InMemoryGitAction> actions) {
+        this.actions = actions;
+        this.repository = new InMemoryRepository(new DfsRepositoryDescription("git-rule"));
+        try {
+            repository.updateRef(Constants.HEAD).link(BRANCH);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to initialize in-memory repo", e);
+        }
+        this.uri = InProcessGitProtocol.register("git-rule", repository);
+    }
+
+    public InMemoryGitRule editFile(Path path, String contents) {
+        return stage(path, contents, false);
+    }
+
+    public InMemoryGitRule editFile(String path, String contents) {
+        return editFile(Paths.get(path), contents);
+    }
+
+    public InMemoryGitRule appendFile(Path path, String contents) {
+        return stage(path, contents, true);
+    }
+
+    public InMemoryGitRule appendFile(String path, String contents) {
+        return appendFile(Paths.get(path), contents);
+    }
+
+    public InMemoryGitRule commit(String message) {
+        try (ObjectInserter inserter = pendingInserter()) {
+            pending = null;
+            final ObjectId tree = index.writeTree(inserter);
+            final ObjectId parent = repository.resolve(BRANCH);
+            final PersonIdent ident = new PersonIdent("GitRule", "git-rule@localhost");
+
+            final CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(tree);
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage(message);
+            final ObjectId id = inserter.insert(commit);
+            inserter.flush();
+
+            final RefUpdate update = repository.updateRef(BRANCH);
+            update.setNewObjectId(id);
+            update.setExpectedOldObjectId(parent == null ? ObjectId.zeroId() : parent);
+            final RefUpdate.Result result = update.update();
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IllegalStateException("failed to git-commit: " + result);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to git-commit", e);
+        }
+        return this;
+    }
+
+    private InMemoryGitRule stage(Path path, String contents, boolean append) {
+        if (path.isAbsolute()) {
+            throw new IllegalArgumentException("path must not be absolute: " + path);
+        }
+        final String name = path.toString().replace(path.getFileSystem().getSeparator(), "/");
+        final ObjectInserter inserter = pendingInserter();
+        try (ObjectReader reader = inserter.newReader()) {
+            byte[] data = contents.getBytes(Charset.defaultCharset());
+            final DirCacheEntry existing = index.getEntry(name);
+            if (append && existing != null) {
+                final byte[] old = reader.open(existing.getObjectId(), Constants.OBJ_BLOB).getBytes();
+                final byte[] joined = new byte[old.length + data.length];
+                System.arraycopy(old, 0, joined, 0, old.length);
+                System.arraycopy(data, 0, joined, old.length, data.length);
+                data = joined;
+            }
+            final ObjectId blob = inserter.insert(Constants.OBJ_BLOB, data);
+
+            final DirCacheEditor editor = index.editor();
+            editor.add(new DirCacheEditor.PathEdit(name) {
+                @Override
+                public void apply(DirCacheEntry ent) {
+                    ent.setFileMode(FileMode.REGULAR_FILE);
+                    ent.setObjectId(blob);
+                }
+            });
+            editor.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to edit file " + path, e);
+        }
+        return this;
+    }
+
+    private ObjectInserter pendingInserter() {
+        if (pending == null) {
+            pending = repository.newObjectInserter();
+        }
+        return pending;
+    }
+
+    /**
+     * @return a URI that JGit (and so {@code GitProperties}) can clone and fetch from
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    public InMemoryRepository getRepository() {
+        return repository;
+    }
+
+    public Git getGitRepo() {
+        return Git.wrap(repository);
+    }
+
+    @Override
+    protected void before() {
+        actions.forEach(action -> action.apply(this));
+    }
+
+    @Override
+    protected void after() {
+        if (pending != null) {
+            pending.close();
+        }
+        InProcessGitProtocol.unregister(uri);
+        repository.close();
+    }
+}
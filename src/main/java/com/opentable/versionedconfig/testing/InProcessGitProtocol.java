@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.BasePackFetchConnection;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.PackTransport;
+import org.eclipse.jgit.transport.PushConnection;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportProtocol;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.transport.UploadPack;
+
+/**
+ * Serves repositories to JGit clients in the same JVM over {@code inproc://name/} URIs, speaking the regular
+ * pack protocol over pipes, so nothing touches the disk or the network.
+ */
+final class InProcessGitProtocol extends TransportProtocol {
+    static final String SCHEME = "inproc";
+    private static final int PIPE_SIZE = 64 * 1024;
+    private static final InProcessGitProtocol INSTANCE = new InProcessGitProtocol();
+    private static final AtomicLong IDS = new AtomicLong();
+
+    static {
+        // Transport only keeps a weak reference, INSTANCE keeps it alive
+        Transport.register(INSTANCE);
+    }
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private InProcessGitProtocol() {
+    }
+
+    static URI register(String prefix, Repository repository) {
+        return register(prefix, repository, ConnectionHook.NONE);
+    }
+
+    static URI register(String prefix, Repository repository, ConnectionHook hook) {
+        final String name = prefix + "-" + IDS.incrementAndGet();
+        INSTANCE.endpoints.put(name, new Endpoint(repository, hook));
+        return URI.create(SCHEME + "://" + name + "/");
+    }
+
+    static void unregister(URI uri) {
+        INSTANCE.endpoints.remove(uri.getHost());
+    }
+
+    /**
+     * Lets a registration interfere with its connections, e.g. to simulate a slow or unreliable server.
+     */
+    interface ConnectionHook {
+        ConnectionHook NONE = new ConnectionHook() { };
+
+        /**
+         * Called on the client thread before a connection is established; throw to refuse it.
+         *
+         * @return the hook that wraps this connection's streams
+         */
+        default ConnectionHook onConnect(URIish uri) throws TransportException {
+            return this;
+        }
+
+        /**
+         * Wraps everything the client sends to the server.  Runs on the server thread.
+         */
+        default InputStream wrapRequest(InputStream request) {
+            return request;
+        }
+
+        /**
+         * Wraps everything the server sends to the client.  Runs on the server thread, which gets interrupted
+         * when the client closes the connection.
+         */
+        default OutputStream wrapResponse(OutputStream response) {
+            return response;
+        }
+    }
+
+    private static final class Endpoint {
+        private final Repository repository;
+        private final ConnectionHook hook;
+
+        Endpoint(Repository repository, ConnectionHook hook) {
+            this.repository = repository;
+            this.hook = hook;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "in-process";
+    }
+
+    @Override
+    public Set<String> getSchemes() {
+        return Collections.singleton(SCHEME);
+    }
+
+    @Override
+    public Set<URIishField> getRequiredFields() {
+        return Collections.unmodifiableSet(EnumSet.of(URIishField.HOST));
+    }
+
+    @Override
+    public Set<URIishField> getOptionalFields() {
+        return Collections.unmodifiableSet(EnumSet.of(URIishField.PATH));
+    }
+
+    @Override
+    public boolean canHandle(URIish uri, Repository local, String remoteName) {
+        return SCHEME.equals(uri.getScheme()) && endpoints.containsKey(uri.getHost());
+    }
+
+    @Override
+    public Transport open(URIish uri, Repository local, String remoteName) throws NotSupportedException {
+        final Endpoint remote = endpoints.get(uri.getHost());
+        if (remote == null) {
+            throw new NotSupportedException("no in-process repository registered for " + uri);
+        }
+        return new InProcessTransport(local, uri, remote);
+    }
+
+    private static final class InProcessTransport extends Transport implements PackTransport {
+        private final Endpoint remote;
+
+        InProcessTransport(Repository local, URIish uri, Endpoint remote) {
+            super(local, uri);
+            this.remote = remote;
+        }
+
+        @Override
+        public FetchConnection openFetch() throws TransportException {
+            return new InProcessFetchConnection(this, remote.repository, remote.hook.onConnect(getURI()));
+        }
+
+        @Override
+        public PushConnection openPush() throws NotSupportedException {
+            throw new NotSupportedException("in-process remotes are read-only");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class InProcessFetchConnection extends BasePackFetchConnection {
+        private final Thread worker;
+
+        InProcessFetchConnection(InProcessTransport transport, Repository remote, ConnectionHook hook)
+                throws TransportException {
+            super(transport);
+            final PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+            final PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+            final PipedOutputStream clientOut;
+            final PipedOutputStream serverOut;
+            try {
+                clientOut = new PipedOutputStream(serverIn);
+                serverOut = new PipedOutputStream(clientIn);
+            } catch (IOException e) {
+                throw new TransportException(transport.getURI(), "could not connect", e);
+            }
+
+            final InputStream request = hook.wrapRequest(serverIn);
+            final OutputStream response = hook.wrapResponse(serverOut);
+            worker = new Thread(() -> {
+                try {
+                    new UploadPack(remote).upload(request, response, null);
+                } catch (IOException e) {
+                    // the client notices the closed stream and reports the failure
+                } finally {
+                    closeQuietly(serverIn);
+                    closeQuietly(serverOut);
+                }
+            }, "in-process-upload-pack");
+            worker.setDaemon(true);
+            worker.start();
+
+            init(clientIn, clientOut);
+            readAdvertisedRefs();
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            // a hook may be holding the server back; don't wait it out
+            worker.interrupt();
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
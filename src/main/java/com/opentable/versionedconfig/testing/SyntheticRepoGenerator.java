@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+/**
+ * Builds large, realistic repositories for benchmarks and regression fixtures.
+ * <p>
+ * Objects are written straight through an {@link ObjectInserter} into packs, never through a working tree, and
+ * only the directories touched by a commit have their trees rewritten, so even tens of thousands of files and
+ * commits are cheap.  The branch named by the spec is pointed at the last commit; nothing else in the repository
+ * (including any working tree) is touched.  Output is deterministic for a given spec.
+ */
+public class SyntheticRepoGenerator {
+    private static final byte[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789".getBytes();
+    private static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+    private static final int COMMITS_PER_PACK = 100;
+
+    private final SyntheticRepoSpec spec;
+    private final Random random;
+    private final Dir root = new Dir(null);
+    private final List<LiveFile> files = new ArrayList<>();
+    private final int depth;
+    private int nextFile;
+
+    public SyntheticRepoGenerator(SyntheticRepoSpec spec) {
+        this.spec = spec;
+        this.random = new Random(spec.getSeed());
+        final int directories = (spec.getFileCount() + spec.getFanOut() - 1) / spec.getFanOut();
+        int levels = 1;
+        for (long capacity = spec.getFanOut(); capacity < directories; capacity *= spec.getFanOut()) {
+            levels++;
+        }
+        this.depth = levels;
+    }
+
+    /**
+     * Write the whole history into {@code repository}.
+     * @return the id of the last commit
+     */
+    public ObjectId generate(Repository repository) throws IOException {
+        ObjectId head = null;
+        ObjectInserter inserter = newInserter(repository);
+        try {
+            for (int i = 0; i < spec.getFileCount(); i++) {
+                addFile(inserter);
+            }
+            head = commit(inserter, null, 0, "Initial synthetic commit");
+
+            final int changesPerCommit = Math.max(1, (int) Math.round(spec.getFileCount() * spec.getChangeFraction()));
+            for (int n = 1; n < spec.getHistoryLength(); n++) {
+                for (int c = 0; c < changesPerCommit; c++) {
+                    final LiveFile file = files.get(random.nextInt(files.size()));
+                    if (random.nextDouble() < spec.getRenameFraction()) {
+                        rename(file);
+                    } else {
+                        file.dir.put(file.name, inserter.insert(Constants.OBJ_BLOB, randomContent()));
+                    }
+                }
+                head = commit(inserter, head, n, "Synthetic commit " + n);
+                if (n % COMMITS_PER_PACK == 0) {
+                    inserter.flush();
+                    inserter.close();
+                    inserter = newInserter(repository);
+                }
+            }
+            inserter.flush();
+        } finally {
+            inserter.close();
+        }
+
+        final String branch = Constants.R_HEADS + spec.getBranch();
+        final RefUpdate update = repository.updateRef(branch);
+        update.setNewObjectId(head);
+        final RefUpdate.Result result = update.forceUpdate();
+        if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+            throw new IOException("failed to update " + branch + ": " + result);
+        }
+        if (repository.exactRef(Constants.HEAD) == null || repository.exactRef(Constants.HEAD).getObjectId() == null) {
+            repository.updateRef(Constants.HEAD).link(branch);
+        }
+        return head;
+    }
+
+    private static ObjectInserter newInserter(Repository repository) {
+        if (repository instanceof FileRepository) {
+            // the default file inserter writes one loose object per call
+            return ((FileRepository) repository).getObjectDatabase().newPackInserter();
+        }
+        return repository.newObjectInserter();
+    }
+
+    private void addFile(ObjectInserter inserter) throws IOException {
+        final int index = nextFile++;
+        final LiveFile file = new LiveFile(directoryFor(index), fileName(index));
+        file.dir.put(file.name, inserter.insert(Constants.OBJ_BLOB, randomContent()));
+        files.add(file);
+    }
+
+    private void rename(LiveFile file) {
+        final ObjectId blob = file.dir.remove(file.name);
+        final int index = nextFile++;
+        file.dir = directoryFor(index);
+        file.name = fileName(index);
+        file.dir.put(file.name, blob);
+    }
+
+    private ObjectId commit(ObjectInserter inserter, ObjectId parent, int n, String message) throws IOException {
+        final PersonIdent ident = new PersonIdent("Synthetic", "synthetic@localhost",
+                START.plus(Duration.ofMinutes(n)), ZoneOffset.UTC);
+        final CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(root.write(inserter));
+        if (parent != null) {
+            commit.setParentId(parent);
+        }
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(message);
+        return inserter.insert(commit);
+    }
+
+    private Dir directoryFor(int fileIndex) {
+        int remaining = fileIndex / spec.getFanOut();
+        final int[] components = new int[depth];
+        for (int level = depth - 1; level > 0; level--) {
+            components[level] = remaining % spec.getFanOut();
+            remaining /= spec.getFanOut();
+        }
+        components[0] = remaining;
+        Dir dir = root;
+        for (int component : components) {
+            dir = dir.subdirectory("d" + component);
+        }
+        return dir;
+    }
+
+    private static String fileName(int index) {
+        return "file-" + index + ".conf";
+    }
+
+    /**
+     * Printable, line-oriented content with a log-uniform size, so most files are small and a few are large.
+     */
+    private byte[] randomContent() {
+        final double min = Math.log(spec.getMinFileSize());
+        final double max = Math.log(spec.getMaxFileSize());
+        final int size = (int) Math.round(Math.exp(min + random.nextDouble() * (max - min)));
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (i % 64 == 63) ? (byte) '\n' : ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return content;
+    }
+
+    private static final class LiveFile {
+        private Dir dir;
+        private String name;
+
+        LiveFile(Dir dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Mutable directory tree that remembers the id of its last written tree until something below it changes.
+     */
+    private static final class Dir {
+        private final Dir parent;
+        // keyed in git tree order: directories sort as if their name ended in '/'
+        private final Map<String, Object> entries = new TreeMap<>();
+        private ObjectId treeId;
+
+        Dir(Dir parent) {
+            this.parent = parent;
+        }
+
+        Dir subdirectory(String name) {
+            return (Dir) entries.computeIfAbsent(name + "/", k -> {
+                markDirty();
+                return new Dir(this);
+            });
+        }
+
+        void put(String name, ObjectId blob) {
+            entries.put(name, blob);
+            markDirty();
+        }
+
+        ObjectId remove(String name) {
+            markDirty();
+            return (ObjectId) entries.remove(name);
+        }
+
+        private void markDirty() {
+            for (Dir dir = this; dir != null; dir = dir.parent) {
+                dir.treeId = null;
+            }
+        }
+
+        /**
+         * @return the tree id, or null if nothing is left below this directory
+         */
+        ObjectId write(ObjectInserter inserter) throws IOException {
+            if (treeId != null) {
+                return treeId;
+            }
+            final TreeFormatter tree = new TreeFormatter();
+            boolean empty = true;
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                final String key = entry.getKey();
+                if (entry.getValue() instanceof Dir) {
+                    final ObjectId child = ((Dir) entry.getValue()).write(inserter);
+                    if (child != null) {
+                        tree.append(key.substring(0, key.length() - 1), FileMode.TREE, child);
+                        empty = false;
+                    }
+                } else {
+                    tree.append(key, FileMode.REGULAR_FILE, (ObjectId) entry.getValue());
+                    empty = false;
+                }
+            }
+            treeId = empty ? null : inserter.insert(tree);
+            return treeId;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Shape of a repository built by {@link SyntheticRepoGenerator}.  Every setting has a small default, so
+ * only the dimensions under test need to be set.
+ */
+public class SyntheticRepoSpec {
+    private int fileCount = 1000;
+    private int fanOut = 32;
+    private int minFileSize = 64;
+    private int maxFileSize = 4096;
+    private int historyLength = 100;
+    private double changeFraction = 0.01;
+    private double renameFraction = 0;
+    private String branch = "master";
+    private long seed = 1;
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @param fileCount number of files in every revision
+     */
+    public SyntheticRepoSpec setFileCount(int fileCount) {
+        Preconditions.checkArgument(fileCount > 0, "fileCount must be positive");
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @param fanOut maximum number of files per directory, and of subdirectories per directory
+     */
+    public SyntheticRepoSpec setFanOut(int fanOut) {
+        Preconditions.checkArgument(fanOut > 1, "fanOut must be at least 2");
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    public int getMinFileSize() {
+        return minFileSize;
+    }
+
+    public int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * File sizes are drawn log-uniformly from this range, so most files are small and a few are large,
+     * as in typical config repositories.
+     */
+    public SyntheticRepoSpec setFileSizes(int minFileSize, int maxFileSize) {
+        Preconditions.checkArgument(minFileSize > 0 && minFileSize <= maxFileSize, "need 0 < minFileSize <= maxFileSize");
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    /**
+     * @param historyLength total number of commits, including the initial one
+     */
+    public SyntheticRepoSpec setHistoryLength(int historyLength) {
+        Preconditions.checkArgument(historyLength > 0, "historyLength must be positive");
+        this.historyLength = historyLength;
+        return this;
+    }
+
+    public double getChangeFraction() {
+        return changeFraction;
+    }
+
+    /**
+     * @param changeFraction fraction of files touched by each commit after the first; at least one file always changes
+     */
+    public SyntheticRepoSpec setChangeFraction(double changeFraction) {
+        Preconditions.checkArgument(changeFraction >= 0 && changeFraction <= 1, "changeFraction must be in [0, 1]");
+        this.changeFraction = changeFraction;
+        return this;
+    }
+
+    public double getRenameFraction() {
+        return renameFraction;
+    }
+
+    /**
+     * @param renameFraction fraction of touched files that are moved to a new path (with unchanged content)
+     *                       rather than edited in place
+     */
+    public SyntheticRepoSpec setRenameFraction(double renameFraction) {
+        Preconditions.checkArgument(renameFraction >= 0 && renameFraction <= 1, "renameFraction must be in [0, 1]");
+        this.renameFraction = renameFraction;
+        return this;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public SyntheticRepoSpec setBranch(String branch) {
+        this.branch = branch;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed the same spec and seed always produce the same commit ids
+     */
+    public SyntheticRepoSpec setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticRepoSpec{" +
+                "fileCount=" + fileCount +
+                ", fanOut=" + fanOut +
+                ", minFileSize=" + minFileSize +
+                ", maxFileSize=" + maxFileSize +
+                ", historyLength=" + historyLength +
+                ", changeFraction=" + changeFraction +
+                ", renameFraction=" + renameFraction +
+                ", branch='" + branch + '\'' +
+                ", seed=" + seed +
+                '}';
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class AdaptivePollIntervalTest {
+    private static final Duration MIN = Duration.ofSeconds(1);
+    private static final Duration MAX = Duration.ofMinutes(1);
+    private static final VersionedConfigUpdate UPDATE = new VersionedConfigUpdate(Paths.get("."), Collections.emptySet());
+
+    private final AtomicLong now = new AtomicLong();
+    private final AdaptivePollInterval interval = new AdaptivePollInterval(MIN, MAX, now::get)
+            .setFastWindow(Duration.ofMinutes(5));
+
+    @Test
+    public void testBacksOffWhenQuiet() {
+        assertThat(interval.afterNoChange()).isEqualTo(MIN);
+        assertThat(interval.afterNoChange()).isEqualTo(Duration.ofSeconds(2));
+        assertThat(interval.afterNoChange()).isEqualTo(Duration.ofSeconds(4));
+        for (int i = 0; i < 100; i++) {
+            interval.afterNoChange();
+        }
+        assertThat(interval.afterNoChange()).isEqualTo(MAX);
+    }
+
+    @Test
+    public void testPollsFastAfterUpdates() {
+        for (int i = 0; i < 10; i++) {
+            interval.afterNoChange();
+        }
+        assertThat(interval.afterUpdate(UPDATE)).isEqualTo(MIN);
+        advance(Duration.ofMinutes(4));
+        assertThat(interval.afterNoChange()).isEqualTo(MIN);
+        advance(Duration.ofMinutes(2));
+        assertThat(interval.afterNoChange()).isEqualTo(MIN);
+        assertThat(interval.afterNoChange()).isEqualTo(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void testKeepsUpWithFrequentChanges() {
+        interval.setFastWindow(Duration.ZERO);
+        for (int i = 0; i < 5; i++) {
+            interval.afterUpdate(UPDATE);
+            advance(Duration.ofSeconds(10));
+        }
+        for (int i = 0; i < 20; i++) {
+            interval.afterNoChange();
+        }
+        assertThat(interval.afterNoChange()).isEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void testCountsEveryCommitOfAnUpdate() {
+        interval.setFastWindow(Duration.ZERO);
+        final VersionedConfigUpdate fourCommits = new VersionedConfigUpdate(Paths.get("."), Collections.emptySet(),
+                ObjectId.zeroId(), ObjectId.zeroId(),
+                new PropagationTimes(Instant.EPOCH, Instant.EPOCH, 4, Instant.EPOCH, 0, 0));
+        for (int i = 0; i < 5; i++) {
+            interval.afterUpdate(fourCommits);
+            advance(Duration.ofSeconds(20));
+        }
+        for (int i = 0; i < 20; i++) {
+            interval.afterNoChange();
+        }
+        assertThat(interval.afterNoChange()).isEqualTo(Duration.ofMillis(2500));
+    }
+
+    @Test
+    public void testBacksOffOnFailures() {
+        interval.afterUpdate(UPDATE);
+        assertThat(interval.afterFailure(new VersioningServiceException("down"))).isEqualTo(MIN);
+        assertThat(interval.afterFailure(new VersioningServiceException("down"))).isEqualTo(Duration.ofSeconds(2));
+        for (int i = 0; i < 10; i++) {
+            interval.afterFailure(new VersioningServiceException("down"));
+        }
+        assertThat(interval.afterFailure(new VersioningServiceException("down"))).isEqualTo(MAX);
+        assertThat(interval.afterNoChange()).isEqualTo(MIN);
+    }
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.FaultInjectingRemote;
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class AsyncGitServiceTest {
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    @Rule
+    public GitRule remote = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .rule();
+
+    @Test(timeout = 30_000)
+    public void testClonesInBackground() throws Exception {
+        try (FaultInjectingRemote slow = FaultInjectingRemote.serve(remote).setLatency(Duration.ofSeconds(1))) {
+            final long start = System.nanoTime();
+            try (VersioningService service = VersioningService.forGitRepositoryAsync(
+                    new GitProperties(slow.getUri(), null, "master"))) {
+                assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+                assertThat(service.ready()).isNotDone();
+                assertThat(service.checkForUpdate()).isEmpty();
+                assertThatExceptionOfType(IllegalStateException.class).isThrownBy(service::getCurrentState);
+
+                assertThat(service.ready().get(20, TimeUnit.SECONDS)).isSameAs(service);
+                final Path base = service.getCurrentState().getBasePath();
+                assertThat(base.resolve("foo.txt")).hasContent("Hello, world");
+                assertThat(service.checkForUpdate()).isPresent();
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testServesLastKnownCheckout() throws Exception {
+        final Path local = workFolder.newFolder("checkout").toPath();
+        final GitProperties properties = new GitProperties(remote.getLocalPath().toUri(), local, "master");
+        VersioningService.forGitRepository(properties).close();
+        remote.editFile("bar.txt", "New").commit("Add bar");
+
+        try (VersioningService service = VersioningService.forGitRepositoryAsync(properties)) {
+            assertThat(service.getCheckoutDirectory()).isEqualTo(local);
+            assertThat(local.resolve("foo.txt")).hasContent("Hello, world");
+
+            service.ready().get(20, TimeUnit.SECONDS);
+            assertThat(local.resolve("bar.txt")).hasContent("New");
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(update.get().getChangedFiles()).contains(Paths.get("bar.txt"));
+            assertThat(service.checkForUpdate()).isEmpty();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testFailedFetchStillServesLastKnownCheckout() throws Exception {
+        final Path local = workFolder.newFolder("checkout").toPath();
+        try (FaultInjectingRemote flaky = FaultInjectingRemote.serve(remote)) {
+            final GitProperties properties = new GitProperties(flaky.getUri(), local, "master");
+            VersioningService.forGitRepository(properties).close();
+            remote.editFile("bar.txt", "New").commit("Add bar");
+            flaky.failNextConnections(100);
+
+            try (VersioningService service = VersioningService.forGitRepositoryAsync(properties)) {
+                assertThat(service.ready().get(20, TimeUnit.SECONDS)).isSameAs(service);
+                assertThat(service.getCheckoutDirectory().resolve("foo.txt")).hasContent("Hello, world");
+
+                flaky.clearFaults();
+                final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+                assertThat(update).isPresent();
+                assertThat(update.get().getChangedFiles()).contains(Paths.get("bar.txt"));
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testCloneFailure() throws Exception {
+        final URI missing = workFolder.getRoot().toPath().resolve("missing").toUri();
+        try (VersioningService service = VersioningService.forGitRepositoryAsync(
+                new GitProperties(missing, null, "master"))) {
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> service.ready().get(20, TimeUnit.SECONDS));
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(service::getCurrentState)
+                    .withMessageContaining("could not be cloned");
+            assertThatExceptionOfType(VersioningServiceException.class).isThrownBy(service::checkForUpdate);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testFailedClonesLeaveNoTemporaryCheckouts() throws Exception {
+        final URI missing = workFolder.getRoot().toPath().resolve("missing").toUri();
+        final long before = temporaryCheckouts();
+        try (VersioningService service = VersioningService.forGitRepositoryAsync(
+                new GitProperties(missing, null, "master"))) {
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> service.ready().get(20, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                assertThatExceptionOfType(VersioningServiceException.class).isThrownBy(service::checkForUpdate);
+            }
+            assertThat(temporaryCheckouts()).isEqualTo(before);
+        }
+    }
+
+    private static long temporaryCheckouts() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("config")).count();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testRetriesFailedClone() throws Exception {
+        try (FaultInjectingRemote flaky = FaultInjectingRemote.serve(remote).failNextConnections(1);
+             VersioningService service = VersioningService.forGitRepositoryAsync(
+                     new GitProperties(flaky.getUri(), null, "master"))) {
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> service.ready().get(20, TimeUnit.SECONDS));
+
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(update.get().getChangedFiles()).contains(Paths.get("foo.txt"));
+            assertThat(service.ready()).isDone();
+            assertThat(service.ready().get()).isSameAs(service);
+        }
+    }
+}
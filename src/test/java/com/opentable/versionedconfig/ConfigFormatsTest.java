@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+public class ConfigFormatsTest {
+    @Test
+    public void testFlattensYaml() throws IOException {
+        assertThat(ConfigFormats.isSupported(Paths.get("app.yaml"))).isTrue();
+        assertThat(ConfigFormats.isSupported(Paths.get("app.yml"))).isTrue();
+
+        final SortedMap<String, String> entries = parse("app.yaml",
+                "db:\n  url: jdbc:x\n  hosts:\n    - a\n    - b\n  pool: ~\nserver.port: 9090\n");
+        assertThat(entries).hasSize(5);
+        assertThat(entries.get("db.url")).isEqualTo("jdbc:x");
+        assertThat(entries.get("db.hosts[1]")).isEqualTo("b");
+        assertThat(entries.get("db.pool")).isEmpty();
+        assertThat(entries.get("server.port")).isEqualTo("9090");
+        assertThat(parse("empty.yml", "")).isEmpty();
+        assertThat(parse("marker.yml", "---\nkey: value\n")).hasSize(1);
+    }
+
+    @Test
+    public void testRejectsMultiDocumentYaml() {
+        assertThatThrownBy(() -> parse("app.yaml", "key: base\n---\nspring.profiles: prod\nkey: prod\n"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("app.yaml");
+    }
+
+    @Test
+    public void testRejectsMalformedYaml() {
+        assertThatThrownBy(() -> parse("app.yml", "key: [unclosed\n")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testRejectsConcatenatedJson() throws IOException {
+        assertThatThrownBy(() -> parse("app.json", "{\"key\": 1} {\"key\": 2}")).isInstanceOf(IOException.class);
+        assertThat(parse("app.json", "{\"key\": 1}")).hasSize(1);
+    }
+
+    private static SortedMap<String, String> parse(String name, String contents) throws IOException {
+        final Path path = Paths.get(name);
+        return ConfigFormats.parse(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
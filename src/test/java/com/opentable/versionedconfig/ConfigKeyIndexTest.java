@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class ConfigKeyIndexTest {
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    @Rule
+    public GitRule remote = GitRule.builder()
+            .editFile("app.properties", "server.port=8080\nserver.host=localhost\n")
+            .editFile("readme.txt", "not=indexed")
+            .commit("Initial commit")
+            .rule();
+
+    @Test
+    public void testIndexesGitRevisions() throws IOException {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            final ConfigKeyIndex index = ConfigKeyIndex.forService(service);
+            service.checkForUpdate();
+            final ConfigKeys first = index.current();
+            assertThat(first.getRevision()).isEqualTo(service.getHead().get());
+            assertThat(first.size()).isEqualTo(2);
+            assertThat(first.get("server.port")).hasValue("8080");
+            assertThat(first.get("not")).isNotPresent();
+            assertThat(index.current()).isSameAs(first);
+
+            remote.editFile("db.json", "{\"db\": {\"url\": \"jdbc:x\", \"hosts\": [\"a\", \"b\"], \"pool\": null},"
+                    + " \"server\": {\"port\": 9090}}").commit("Add db");
+            service.checkForUpdate();
+            final ConfigKeys second = index.current();
+            assertThat(second.get("db.url")).hasValue("jdbc:x");
+            assertThat(second.get("db.hosts[1]")).hasValue("b");
+            assertThat(second.get("db.pool")).hasValue("");
+            // db.json sorts after app.properties, so its value wins
+            assertThat(second.get("server.port")).hasValue("9090");
+            assertThat(second.getSource("server.port")).hasValue(Paths.get("db.json"));
+            assertThat(second.getSource("server.host")).hasValue(Paths.get("app.properties"));
+            assertThat(second.get("server.host").get()).isSameAs(first.get("server.host").get());
+            assertThat(second.withPrefix("db.").keySet()).containsExactly("db.hosts[0]", "db.hosts[1]", "db.pool", "db.url");
+
+            remote.editFile("db.json", "{broken").commit("Break db");
+            service.checkForUpdate();
+            final ConfigKeys third = index.current();
+            assertThat(third.get("db.url")).isNotPresent();
+            assertThat(third.get("server.port")).hasValue("8080");
+        }
+    }
+
+    @Test
+    public void testReportsKeyChanges() throws IOException {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            final Map<Path, ConfigKeyChanges> initial = service.getKeyChanges(service.checkForUpdate().get());
+            assertThat(initial.keySet()).containsExactly(Paths.get("app.properties"));
+            assertThat(initial.get(Paths.get("app.properties")).getAdded()).containsEntry("server.port", "8080");
+
+            remote.editFile("app.properties", "server.port=9090\nserver.debug=true\n")
+                    .editFile("readme.txt", "still=ignored")
+                    .commit("Change app");
+            final Map<Path, ConfigKeyChanges> changes = service.getKeyChanges(service.checkForUpdate().get());
+            assertThat(changes.keySet()).containsExactly(Paths.get("app.properties"));
+            final ConfigKeyChanges app = changes.get(Paths.get("app.properties"));
+            assertThat(app.getAdded()).containsEntry("server.debug", "true");
+            assertThat(app.getRemoved()).containsEntry("server.host", "localhost");
+            assertThat(app.getChanged()).containsEntry("server.port", "9090");
+            assertThat(app.getAffectedKeys()).containsExactly("server.debug", "server.host", "server.port");
+
+            remote.editFile("app.properties", "server.debug = true\nserver.port=9090\n").commit("Reformat");
+            assertThat(service.getKeyChanges(service.checkForUpdate().get())).isEmpty();
+        }
+    }
+
+    @Test
+    public void testFlagsUnparseableFiles() throws IOException {
+        remote.editFile("db.json", "{\"db\": {\"url\": \"jdbc:x\"}}").commit("Add db");
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            service.checkForUpdate();
+
+            remote.editFile("db.json", "{broken").commit("Break db");
+            final ConfigKeyChanges broken = service.getKeyChanges(service.checkForUpdate().get()).get(Paths.get("db.json"));
+            assertThat(broken.getParseFailure()).isPresent();
+            assertThat(broken.getRemoved()).isEmpty();
+            assertThat(broken.isEmpty()).isFalse();
+
+            remote.editFile("db.json", "{\"db\": {\"url\": \"jdbc:y\"}}").commit("Fix db");
+            final ConfigKeyChanges fixed = service.getKeyChanges(service.checkForUpdate().get()).get(Paths.get("db.json"));
+            assertThat(fixed.getParseFailure()).isPresent();
+            assertThat(fixed.getAdded()).isEmpty();
+        }
+    }
+
+    @Test
+    public void testForgetsDeletedFiles() throws Exception {
+        remote.editFile("db.properties", "db.url=jdbc:x\n").commit("Add db");
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            final ConfigKeyIndex index = ConfigKeyIndex.forService(service);
+            service.checkForUpdate();
+            assertThat(index.current().get("db.url")).hasValue("jdbc:x");
+
+            remote.getGitRepo().rm().addFilepattern("db.properties").call();
+            remote.commit("Remove db");
+            service.checkForUpdate();
+            assertThat(index.current().get("db.url")).isNotPresent();
+            assertThat(index.current().get("server.port")).hasValue("8080");
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testIndexesDirectories() throws Exception {
+        final Path root = workFolder.newFolder("config").toPath();
+        Files.write(root.resolve("app.properties"), "greeting=hello\n".getBytes(StandardCharsets.UTF_8));
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            service.checkForUpdate();
+            final ConfigKeyIndex index = ConfigKeyIndex.forService(service);
+            assertThat(index.current().get("greeting")).hasValue("hello");
+
+            Files.write(root.resolve("more.properties"), "farewell=bye\n".getBytes(StandardCharsets.UTF_8));
+            while (!service.checkForUpdate().isPresent()) {
+                Thread.sleep(50);
+            }
+            assertThat(index.current().withPrefix("").keySet()).containsExactly("farewell", "greeting");
+
+            // two updates before the index looks again, the first of them deleting a file
+            Files.delete(root.resolve("app.properties"));
+            awaitUpdate(service);
+            Files.write(root.resolve("last.properties"), "last=1\n".getBytes(StandardCharsets.UTF_8));
+            awaitUpdate(service);
+            assertThat(index.current().withPrefix("").keySet()).containsExactly("farewell", "last");
+        }
+    }
+
+    private static void awaitUpdate(VersioningService service) throws InterruptedException {
+        while (!service.checkForUpdate().isPresent()) {
+            Thread.sleep(50);
+        }
+    }
+}
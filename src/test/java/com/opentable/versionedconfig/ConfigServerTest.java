@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class ConfigServerTest {
+    @Rule
+    public final GitRule remote = GitRule.builder()
+            .editFile("foo.txt", "Hello, world!")
+            .commit("Initial commit")
+            .rule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private VersioningService service;
+    private ConfigServer server;
+    private ObjectId initial;
+
+    @Before
+    public void start() {
+        service = VersioningService.forGitRepository(new GitProperties(remote.getLocalPath().toUri(), null, "master"));
+        initial = service.checkForUpdate().get().getNewRevisionMetadata();
+        server = ConfigServer.serve(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.close();
+        service.close();
+    }
+
+    @Test
+    public void testServesCurrentFilesConditionally() throws Exception {
+        final HttpResponse<String> response = get("files/foo.txt", null);
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo("Hello, world!");
+        assertThat(response.headers().firstValue(ConfigServer.REVISION_HEADER)).hasValue(initial.name());
+        final String eTag = response.headers().firstValue("ETag").get();
+        assertThat(eTag).isEqualTo(service.getFileRevision(Paths.get("foo.txt")).get().getETag());
+
+        assertThat(get("files/foo.txt", eTag).statusCode()).isEqualTo(304);
+        remote.editFile("bar.txt", "unrelated").commit("Add bar");
+        service.checkForUpdate();
+        assertThat(get("files/foo.txt", eTag).statusCode()).isEqualTo(304);
+        remote.editFile("foo.txt", "Goodbye").commit("Change foo");
+        service.checkForUpdate();
+        final HttpResponse<String> changed = get("files/foo.txt", eTag);
+        assertThat(changed.statusCode()).isEqualTo(200);
+        assertThat(changed.body()).isEqualTo("Goodbye");
+
+        assertThat(get("files/missing.txt", null).statusCode()).isEqualTo(404);
+        assertThat(get("files/../foo.txt", null).statusCode()).isEqualTo(404);
+        assertThat(get("files/.git/config", null).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    public void testServesPinnedRevisions() throws Exception {
+        remote.editFile("foo.txt", "Goodbye").commit("Change foo");
+        service.checkForUpdate();
+        final HttpResponse<String> response = get("files/foo.txt?revision=" + initial.name(), null);
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo("Hello, world!");
+        assertThat(response.headers().firstValue("Cache-Control").get()).contains("immutable");
+        assertThat(get("files/foo.txt?revision=" + initial.name(), response.headers().firstValue("ETag").get())
+                .statusCode()).isEqualTo(304);
+        assertThat(get("files/bar.txt?revision=" + initial.name(), null).statusCode()).isEqualTo(404);
+        assertThat(get("files/foo.txt?revision=" + ObjectId.zeroId().name(), null).statusCode()).isEqualTo(404);
+        assertThat(get("files/foo.txt?revision=nonsense", null).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    public void testLongPollsForNewRevisions() throws Exception {
+        final HttpResponse<String> immediate = get("revision?after=" + ObjectId.zeroId().name(), null);
+        assertThat(immediate.statusCode()).isEqualTo(200);
+        assertThat(immediate.body().trim()).isEqualTo(initial.name());
+
+        assertThat(get("revision?after=" + initial.name() + "&timeout=50", null).statusCode()).isEqualTo(304);
+
+        final CompletableFuture<HttpResponse<String>> waiting = client.sendAsync(
+                request("revision?after=" + initial.name() + "&timeout=PT30S", null), HttpResponse.BodyHandlers.ofString());
+        // More waiters than server threads, none of them may starve the file handler
+        final CompletableFuture<HttpResponse<String>> other = client.sendAsync(
+                request("revision?after=" + initial.name() + "&timeout=PT30S", null), HttpResponse.BodyHandlers.ofString());
+        final CompletableFuture<HttpResponse<String>> third = client.sendAsync(
+                request("revision?after=" + initial.name() + "&timeout=PT30S", null), HttpResponse.BodyHandlers.ofString());
+        Thread.sleep(100);
+        assertThat(get("files/foo.txt", null).statusCode()).isEqualTo(200);
+        assertThat(waiting.isDone()).isFalse();
+
+        remote.editFile("foo.txt", "Goodbye").commit("Change foo");
+        final ObjectId next = service.checkForUpdate().get().getNewRevisionMetadata();
+        assertThat(waiting.get(10, TimeUnit.SECONDS).body().trim()).isEqualTo(next.name());
+        assertThat(other.get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+        assertThat(third.get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void testFollowsSymlinksOnlyInsideTheCheckout() throws Exception {
+        // Laid out like a mounted ConfigMap, next to a directory that must not be served
+        final Path mount = folder.newFolder("mount").toPath();
+        final Path outside = folder.newFolder("outside").toPath();
+        Files.write(outside.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectory(mount.resolve("..2024_01_01"));
+        Files.write(mount.resolve("..2024_01_01/app.properties"), "a=1".getBytes(StandardCharsets.UTF_8));
+        Files.createSymbolicLink(mount.resolve("..data"), Paths.get("..2024_01_01"));
+        Files.createSymbolicLink(mount.resolve("app.properties"), Paths.get("..data/app.properties"));
+        Files.createSymbolicLink(mount.resolve("escape"), outside);
+        Files.createSymbolicLink(mount.resolve("escape.txt"), outside.resolve("secret.txt"));
+
+        try (VersioningService directory = VersioningService.forDirectory(mount);
+             ConfigServer mounted = ConfigServer.serve(directory,
+                     new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2)) {
+            final ObjectId revision = directory.checkForUpdate().get().getNewRevisionMetadata();
+            assertThat(directory.getBlobId(revision, Paths.get("app.properties"))).isPresent();
+            assertThat(directory.getBlobId(revision, Paths.get("escape.txt"))).isEmpty();
+            final HttpResponse<String> config = client.send(
+                    HttpRequest.newBuilder(URI.create(mounted.getUri() + "files/app.properties")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(config.statusCode()).isEqualTo(200);
+            assertThat(config.body()).isEqualTo("a=1");
+            for (String escaping : new String[] {"files/escape/secret.txt", "files/escape.txt"}) {
+                assertThat(client.send(HttpRequest.newBuilder(URI.create(mounted.getUri() + escaping)).build(),
+                        HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+            }
+        }
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws Exception {
+        return client.send(request(path, ifNoneMatch), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(String path, String ifNoneMatch) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(server.getUri() + path));
+        if (ifNoneMatch != null) {
+            builder.header("If-None-Match", ifNoneMatch);
+        }
+        return builder.build();
+    }
+}
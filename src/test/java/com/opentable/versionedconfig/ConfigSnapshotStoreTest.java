@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class ConfigSnapshotStoreTest {
+    private static final Path FOO = Paths.get("foo.txt");
+    private static final Path BAR = Paths.get("nested/bar.txt");
+
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    @Rule
+    public GitRule remote = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .rule();
+
+    @Test
+    public void testGitSnapshotsShareUnchangedFiles() throws IOException {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"));
+                ConfigSnapshotStore store = ConfigSnapshotStore.forService(service)) {
+            final ConfigSnapshot first = store.acquire();
+            assertThat(first.getRevision()).isEqualTo(service.getHead().get());
+            assertThat(first.getPaths()).containsExactly(FOO);
+            assertThat(string(first.get(FOO).get())).isEqualTo("Hello, world");
+            assertThat(store.getAllocatedBytes()).isEqualTo(12);
+
+            try (ConfigSnapshot again = store.acquire()) {
+                assertThat(again).isSameAs(first);
+            }
+
+            remote.editFile("nested/bar.txt", "Nested").commit("Add bar");
+            service.checkForUpdate();
+            final ConfigSnapshot second = store.acquire();
+            assertThat(second.getRevision()).isNotEqualTo(first.getRevision());
+            assertThat(string(second.get(BAR).get())).isEqualTo("Nested");
+            assertThat(store.getAllocatedBytes()).isEqualTo(12 + 6);
+
+            remote.editFile("foo.txt", "Goodbye").commit("Change foo");
+            service.checkForUpdate();
+            try (ConfigSnapshot third = store.acquire()) {
+                assertThat(string(third.get(FOO).get())).isEqualTo("Goodbye");
+                assertThat(store.getAllocatedBytes()).isEqualTo(12 + 6 + 7);
+
+                // still held by us, so still readable
+                assertThat(string(first.get(FOO).get())).isEqualTo("Hello, world");
+                first.close();
+                assertThat(store.getAllocatedBytes()).isEqualTo(12 + 6 + 7);
+                second.close();
+                assertThat(store.getAllocatedBytes()).isEqualTo(6 + 7);
+            }
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> first.get(FOO));
+        }
+    }
+
+    @Test
+    public void testCloseReleasesEverything() throws IOException {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            final ConfigSnapshotStore store = ConfigSnapshotStore.forService(service);
+            final ConfigSnapshot snapshot = store.acquire();
+            store.close();
+            assertThat(store.getAllocatedBytes()).isEqualTo(12);
+            snapshot.close();
+            assertThat(store.getAllocatedBytes()).isZero();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testMappedDirectory() throws Exception {
+        final Path root = workFolder.newFolder("config").toPath();
+        replace(root.resolve("foo.txt"), "Hello, world");
+        try (VersioningService service = VersioningService.forDirectory(root);
+                ConfigSnapshotStore store = ConfigSnapshotStore.forService(service, ConfigSnapshotStore.Storage.MAPPED)) {
+            service.checkForUpdate();
+            try (ConfigSnapshot snapshot = store.acquire()) {
+                assertThat(string(snapshot.get(FOO).get())).isEqualTo("Hello, world");
+            }
+
+            replace(root.resolve("foo.txt"), "Replaced");
+            while (!service.checkForUpdate().isPresent()) {
+                Thread.sleep(50);
+            }
+            try (ConfigSnapshot snapshot = store.acquire()) {
+                assertThat(string(snapshot.get(FOO).get())).isEqualTo("Replaced");
+                assertThat(snapshot.getSize()).isEqualTo(8);
+            }
+            assertThat(store.getAllocatedBytes()).isEqualTo(8);
+        }
+    }
+
+    /**
+     * Write next to the target and move into place, the way a checkout does.
+     */
+    private static void replace(Path file, String contents) throws IOException {
+        final Path temp = file.resolveSibling(".." + file.getFileName() + ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
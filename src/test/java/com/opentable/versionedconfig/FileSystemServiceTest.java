@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemServiceTest {
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = workFolder.newFolder("config").toPath();
+        write("foo.txt", "Hello, world");
+        write("nested/bar.txt", "Nested");
+    }
+
+    @Test
+    public void testFirstUpdateHasAllFiles() throws IOException {
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(update.get().getOldRevisionMetadata()).isEqualTo(ObjectId.zeroId());
+            assertThat(update.get().getChangedFiles()).containsExactlyInAnyOrder(Paths.get("foo.txt"), Paths.get("nested/bar.txt"));
+            assertThat(service.checkForUpdate()).isEmpty();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testUpdates() throws Exception {
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final VersionedConfigUpdate first = service.checkForUpdate().get();
+
+            write("nested/bar.txt", "Changed");
+            write("nested/deeper/baz.txt", "New");
+            final VersionedConfigUpdate second = awaitUpdate(service);
+            assertThat(second.getOldRevisionMetadata()).isEqualTo(first.getNewRevisionMetadata());
+            assertThat(second.getChangedFiles()).contains(Paths.get("nested/bar.txt"));
+            assertThat(service.getLatestRevision()).isEqualTo(second.getNewRevision());
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testContentHashRevision() throws Exception {
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final VersionedConfigUpdate first = service.checkForUpdate().get();
+            write("foo.txt", "Something else");
+            awaitUpdate(service);
+            write("foo.txt", "Hello, world");
+            assertThat(awaitUpdate(service).getNewRevisionMetadata()).isEqualTo(first.getNewRevisionMetadata());
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testFileRevisions() throws Exception {
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final ObjectId first = service.checkForUpdate().get().getNewRevisionMetadata();
+            final FileRevision foo = service.getFileRevision(Paths.get("foo.txt")).get();
+            assertThat(foo.getCommitId()).isEqualTo(first);
+            assertThat(foo.getBlobId()).isEqualTo(ObjectId.fromString("dbe9dba55ea8fd4d5be3868b015e044be0848ec5"));
+            assertThat(service.getFileRevision(Paths.get("missing.txt"))).isNotPresent();
+
+            write("nested/bar.txt", "Changed");
+            final ObjectId second = awaitUpdate(service).getNewRevisionMetadata();
+            assertThat(service.getFileRevision(Paths.get("foo.txt")).get()).isEqualTo(foo);
+            final FileRevision bar = service.getFileRevision(Paths.get("nested/bar.txt")).get();
+            assertThat(bar.getCommitId()).isEqualTo(second);
+            assertThat(bar.getPath()).isEqualTo(Paths.get("nested/bar.txt"));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testReadsCurrentAndPreviousRevisions() throws Exception {
+        write("app.properties", "a=1\nb=2\n");
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final ObjectId first = service.checkForUpdate().get().getNewRevisionMetadata();
+            write("nested/bar.txt", "Changed");
+            write("app.properties", "a=1\nb=3\nc=4\n");
+            final VersionedConfigUpdate second = awaitUpdate(service);
+
+            assertThat(read(service, first, "nested/bar.txt")).isEqualTo("Nested");
+            assertThat(read(service, second.getNewRevisionMetadata(), "nested/bar.txt")).isEqualTo("Changed");
+            assertThat(service.getBlobId(first, Paths.get("missing.txt"))).isNotPresent();
+            assertThat(service.getBlobId(ObjectId.zeroId(), Paths.get("foo.txt"))).isNotPresent();
+
+            final ConfigKeyChanges changes = service.getKeyChanges(second).get(Paths.get("app.properties"));
+            assertThat(changes.getAdded()).hasSize(1).containsEntry("c", "4");
+            assertThat(changes.getChanged()).containsEntry("b", "3");
+            assertThat(changes.getRemoved()).isEmpty();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testBoundsRetainedContent() throws Exception {
+        final byte[] content = new byte[1_000_000];
+        for (int i = 0; i < 20; i++) {
+            content[0] = (byte) i;
+            Files.createDirectories(root.resolve("big"));
+            Files.write(root.resolve("big/" + i + ".bin"), content);
+        }
+        try (VersioningService service = VersioningService.forDirectory(root)) {
+            final ObjectId first = service.checkForUpdate().get().getNewRevisionMetadata();
+            // Gone from the directory in one step, so only what was kept in memory can be read back
+            Files.move(root.resolve("big"), workFolder.getRoot().toPath().resolve("big"));
+            awaitUpdate(service);
+
+            int readable = 0;
+            for (int i = 0; i < 20; i++) {
+                final ObjectId blob = service.getBlobId(first, Paths.get("big/" + i + ".bin")).get();
+                if (service.openBlob(blob).isPresent()) {
+                    readable++;
+                }
+            }
+            assertThat(readable).isEqualTo(16);
+            assertThat(read(service, first, "foo.txt")).isEqualTo("Hello, world");
+        }
+    }
+
+    private static String read(VersioningService service, ObjectId revision, String path) {
+        final ObjectId blob = service.getBlobId(revision, Paths.get(path)).get();
+        return new String(service.openBlob(blob).get().getCachedBytes(), StandardCharsets.UTF_8);
+    }
+
+    private VersionedConfigUpdate awaitUpdate(VersioningService service) throws InterruptedException {
+        while (true) {
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            if (update.isPresent()) {
+                return update.get();
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private void write(String path, String contents) throws IOException {
+        final Path target = root.resolve(path);
+        Files.createDirectories(target.getParent());
+        Files.write(target, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
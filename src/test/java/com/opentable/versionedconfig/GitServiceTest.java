@@ -14,20 +14,30 @@
 package com.opentable.versionedconfig;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
 
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.BundleWriter;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -196,6 +206,139 @@ public class GitServiceTest {
         );
     }
 
+    @Test
+    public void testFetchesOnlyConfiguredBranch() throws Exception {
+        remote.getGitRepo().branchCreate().setName("stale").call();
+        remote.getGitRepo().tag().setName("v1").call();
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath());
+        try (final VersioningService service = new GitService(gitProperties)) {
+            remote.editFile("foo.txt", "Update the contents!").commit("Fix foo");
+            assertThat(service.checkForUpdate()).isPresent();
+            try (Git local = Git.open(checkoutSpot)) {
+                assertThat(local.getRepository().getRefDatabase().getRefs())
+                        .extracting(Ref::getName)
+                        .contains("refs/remotes/remote0/master")
+                        .doesNotContain("refs/remotes/remote0/stale", "refs/tags/v1");
+            }
+        }
+    }
+
+    @Test
+    public void testFetchesAdditionalRefs() throws Exception {
+        remote.getGitRepo().branchCreate().setName("extra").call();
+        remote.getGitRepo().tag().setName("v1").call();
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath())
+                .setFetchRefs(ImmutableList.of("extra", "refs/tags/v1"));
+        try (final VersioningService service = new GitService(gitProperties)) {
+            remote.editFile("foo.txt", "Update the contents!").commit("Fix foo");
+            assertThat(service.checkForUpdate()).isPresent();
+            try (Git local = Git.open(checkoutSpot)) {
+                assertThat(local.getRepository().getRefDatabase().getRefs())
+                        .extracting(Ref::getName)
+                        .contains("refs/remotes/remote0/master", "refs/remotes/remote0/extra", "refs/tags/v1");
+            }
+        }
+    }
+
+    @Test
+    public void testSeedFromBundle() throws Exception {
+        workFolder.create();
+        final Path bundle = workFolder.newFile("seed.bundle").toPath();
+        final Repository remoteRepo = remote.getGitRepo().getRepository();
+        final BundleWriter writer = new BundleWriter(remoteRepo);
+        writer.include(remoteRepo.exactRef("refs/heads/master"));
+        try (OutputStream out = Files.newOutputStream(bundle)) {
+            writer.writeBundle(NullProgressMonitor.INSTANCE, out);
+        }
+        remote.editFile("bar.txt", "Newer than the seed").commit("After seed");
+
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath()).setSeedBundle(bundle);
+        try (final VersioningService service = new GitService(gitProperties)) {
+            assertThat(checkoutSpot.toPath().resolve("foo.txt")).hasContent("Hello, world");
+            assertThat(checkoutSpot.toPath().resolve("bar.txt")).hasContent("Newer than the seed");
+            assertThat(service.getHead()).contains(remoteRepo.resolve(Constants.HEAD));
+
+            remote.editFile("foo.txt", "Update the contents!").commit("Fix foo");
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(checkoutSpot.toPath().resolve("foo.txt")).hasContent("Update the contents!");
+        }
+    }
+
+    @Test
+    public void testSeedFromObjectDirectory() throws Exception {
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath())
+                .setSeedObjectDirectory(remote.getLocalPath().resolve(".git").resolve("objects"));
+        try (final VersioningService service = new GitService(gitProperties)) {
+            assertThat(checkoutSpot.toPath().resolve("foo.txt")).hasContent("Hello, world");
+            assertThat(checkoutSpot.toPath().resolve(".git/objects/info/alternates")).exists();
+        }
+    }
+
+    @Test
+    public void testRefusesToCloneIntoUnrelatedDirectory() throws Exception {
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final Path precious = checkoutSpot.toPath().resolve("precious.txt");
+        Files.write(precious, "Not config".getBytes(StandardCharsets.UTF_8));
+        assertThatExceptionOfType(VersioningServiceException.class)
+                .isThrownBy(() -> new GitService(getGitProperties(checkoutSpot.toPath())));
+        assertThat(precious).hasContent("Not config");
+    }
+
+    @Test
+    public void testFailedSeedIsRemoved() throws Exception {
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties unreachable = new GitProperties(workFolder.getRoot().toPath().resolve("missing").toUri(), checkoutSpot.toPath(), "master")
+                .setSeedObjectDirectory(remote.getLocalPath().resolve(".git").resolve("objects"));
+        assertThatExceptionOfType(VersioningServiceException.class)
+                .isThrownBy(() -> new GitService(unreachable));
+        assertThat(checkoutSpot.toPath().resolve(".git")).doesNotExist();
+
+        final GitProperties badBundle = getGitProperties(checkoutSpot.toPath())
+                .setSeedBundle(workFolder.getRoot().toPath().resolve("missing.bundle"));
+        assertThatExceptionOfType(VersioningServiceException.class)
+                .isThrownBy(() -> new GitService(badBundle));
+        assertThat(checkoutSpot.toPath().resolve(".git")).doesNotExist();
+
+        try (final VersioningService service = new GitService(getGitProperties(checkoutSpot.toPath()))) {
+            assertThat(checkoutSpot.toPath().resolve("foo.txt")).hasContent("Hello, world");
+        }
+    }
+
+    @Test
+    public void testOperationDeadlineAbortsClone() throws IOException {
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath())
+                .setOperationTimeout(Duration.ofNanos(1));
+        assertThatExceptionOfType(VersioningServiceException.class)
+                .isThrownBy(() -> new GitService(gitProperties));
+        assertThat(checkoutSpot.toPath().resolve(".git")).doesNotExist();
+    }
+
+    @Test
+    public void testTimeoutsAllowNormalOperation() throws IOException {
+        workFolder.create();
+        final File checkoutSpot = workFolder.newFolder("init");
+        final GitProperties gitProperties = getGitProperties(checkoutSpot.toPath())
+                .setConnectTimeout(Duration.ofSeconds(5))
+                .setReadTimeout(Duration.ofSeconds(5))
+                .setOperationTimeout(Duration.ofSeconds(30));
+        try (final VersioningService service = new GitService(gitProperties)) {
+            remote.editFile("foo.txt", "Update the contents!").commit("Fix foo");
+            assertThat(service.checkForUpdate()).isPresent();
+        }
+    }
+
     private GitProperties getGitProperties(Path checkoutSpot) {
         return new GitProperties(remote.getLocalPath().toUri(), checkoutSpot, "master");
     }
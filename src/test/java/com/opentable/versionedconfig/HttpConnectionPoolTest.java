@@ -0,0 +1,255 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.TransportHttp;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.GitHttpServer;
+import com.opentable.versionedconfig.testing.GitRule;
+import com.opentable.versionedconfig.testing.InMemoryGitRule;
+
+public class HttpConnectionPoolTest {
+    @Rule
+    public final InMemoryGitRule git = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .inMemoryRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final GitHttpServer server = GitHttpServer.serve(git.getRepository());
+    private final SSLContext defaultTls = defaultTls();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void stopServer() {
+        timer.shutdownNow();
+        server.close();
+        SSLContext.setDefault(defaultTls);
+    }
+
+    @Test
+    public void testReusesConnections() throws Exception {
+        try (HttpConnectionPool pool = newPool(Duration.ofMinutes(1))) {
+            for (int i = 0; i < 5; i++) {
+                assertThat(lsRemote(pool)).isNotEmpty();
+            }
+            assertThat(server.getRequestCount()).isEqualTo(10);
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+            assertThat(pool.getClientsCreated()).isEqualTo(1);
+            assertThat(pool.getAvailablePermits(server.getUri().toURL())).isEqualTo(2);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testRetiresIdleConnections() throws Exception {
+        try (HttpConnectionPool pool = newPool(Duration.ofMillis(50))) {
+            lsRemote(pool);
+            // evicted by the timer, not by the next request
+            while (pool.hasClient()) {
+                Thread.sleep(10);
+            }
+            lsRemote(pool);
+            assertThat(pool.getClientsCreated()).isEqualTo(2);
+            assertThat(server.getConnectionCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testRefusesWhenClosed() throws Exception {
+        final HttpConnectionPool pool = newPool(Duration.ofMinutes(1));
+        pool.close();
+        final URL url = new URL(server.getUri() + "info/refs?service=git-upload-pack");
+        assertThatThrownBy(() -> pool.openSession().create(url).getResponseCode()).hasMessageContaining("closed");
+        assertThat(pool.getAvailablePermits(url)).isEqualTo(2);
+    }
+
+    @Test
+    public void testServicePollsOverOneConnection() throws Exception {
+        final GitProperties props = new GitProperties(server.getUri(), null, "master")
+                .setHttpMaxConnectionsPerRemote(2);
+        try (VersioningService service = VersioningService.forGitRepository(props)) {
+            assertThat(service.checkForUpdate()).isPresent();
+            for (int i = 0; i < 3; i++) {
+                git.editFile("foo.txt", "Change " + i).commit("Change " + i);
+                final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+                assertThat(update).isPresent();
+                assertThat(update.get().getChangedFiles()).containsExactly(Paths.get("foo.txt"));
+            }
+            assertThat(service.getCheckoutDirectory().resolve("foo.txt")).hasContent("Change 2");
+            assertThat(server.getRequestCount()).isGreaterThan(4);
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testReusesHttpsConnections() throws Exception {
+        final SSLContext tls = selfSignedTls();
+        SSLContext.setDefault(tls);
+        try (GitHttpServer https = GitHttpServer.serve(git.getRepository(), 8, tls);
+                HttpConnectionPool pool = newPool(Duration.ofMinutes(1))) {
+            for (int i = 0; i < 3; i++) {
+                assertThat(lsRemote(pool, https)).isNotEmpty();
+            }
+            assertThat(https.getRequestCount()).isEqualTo(6);
+            assertThat(https.getConnectionCount()).isEqualTo(1);
+            assertThat(pool.getClientsCreated()).isEqualTo(1);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testReadTimeoutBoundsStalledBody() throws Exception {
+        final SSLContext tls = selfSignedTls();
+        SSLContext.setDefault(tls);
+        final CountDownLatch unstall = new CountDownLatch(1);
+        final HttpsServer stalling = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stalling.setHttpsConfigurator(new HttpsConfigurator(tls));
+        stalling.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("0008NAK\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                unstall.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stalling.start();
+        final URL url = new URL("https://localhost:" + stalling.getAddress().getPort() + "/repo.git/info/refs");
+        try (HttpConnectionPool pool = newPool(Duration.ofMinutes(1))) {
+            try (HttpConnectionPool.Session session = pool.openSession()) {
+                final HttpConnection connection = session.create(url);
+                connection.setReadTimeout(200);
+                assertThat(connection.getResponseCode()).isEqualTo(200);
+                final InputStream body = connection.getInputStream();
+                assertThat(body.read(new byte[8])).isEqualTo(8);
+                assertThatThrownBy(() -> body.read(new byte[8])).isInstanceOf(SocketTimeoutException.class);
+            }
+            assertThat(pool.getAvailablePermits(url)).isEqualTo(2);
+        } finally {
+            unstall.countDown();
+            stalling.stop(0);
+        }
+    }
+
+    @Test
+    public void testIdleTimeoutDefaultsToJdkKeepAlive() {
+        final String previous = System.getProperty(HttpConnectionPool.KEEP_ALIVE_PROPERTY);
+        try {
+            System.setProperty(HttpConnectionPool.KEEP_ALIVE_PROPERTY, "45");
+            assertThat(HttpConnectionPool.jdkKeepAlive()).isEqualTo(Duration.ofSeconds(45));
+            assertThat(new GitProperties(server.getUri(), null, "master").getHttpIdleTimeout())
+                    .isEqualTo(Duration.ofSeconds(45));
+        } finally {
+            if (previous == null) {
+                System.clearProperty(HttpConnectionPool.KEEP_ALIVE_PROPERTY);
+            } else {
+                System.setProperty(HttpConnectionPool.KEEP_ALIVE_PROPERTY, previous);
+            }
+        }
+    }
+
+    private HttpConnectionPool newPool(Duration idleTimeout) {
+        return new HttpConnectionPool(HttpTransport.getConnectionFactory(), 2, idleTimeout, Duration.ofSeconds(5),
+                timer);
+    }
+
+    private Collection<Ref> lsRemote(HttpConnectionPool pool) throws Exception {
+        return lsRemote(pool, server);
+    }
+
+    private Collection<Ref> lsRemote(HttpConnectionPool pool, GitHttpServer remote) throws Exception {
+        try (HttpConnectionPool.Session session = pool.openSession()) {
+            return Git.lsRemoteRepository()
+                    .setRemote(remote.getUri().toString())
+                    .setTransportConfigCallback(transport -> ((TransportHttp) transport).setHttpConnectionFactory(session))
+                    .call();
+        }
+    }
+
+    /**
+     * Both sides of the test trust a certificate for localhost made up on the spot.
+     */
+    private SSLContext selfSignedTls() throws Exception {
+        final char[] password = "changeit".toCharArray();
+        final Path keyStore = folder.getRoot().toPath().resolve("localhost.p12");
+        final Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-alias", "localhost", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        assertThat(keytool.waitFor()).isZero();
+
+        final KeyStore keys = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            keys.load(in, password);
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, password);
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keys);
+        final SSLContext tls = SSLContext.getInstance("TLS");
+        tls.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return tls;
+    }
+
+    private static SSLContext defaultTls() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class IncrementalCheckoutTest {
+    private static final int FILES = 200;
+
+    @Rule
+    public final GitRule remote = GitRule.builder()
+            .editFile("README", "generated config")
+            .commit("Initial commit")
+            .rule();
+
+    @Test
+    public void testLargeUpdateMatchesRemote() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            write("gen/" + (i % 10) + "/file" + i + ".properties", "value=" + i);
+        }
+        write("swap", "a file that becomes a directory");
+        write("dir/only.txt", "a directory that becomes a file");
+        commit("Generate");
+
+        final GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master").setCheckoutThreads(4);
+        try (VersioningService service = VersioningService.forGitRepository(props)) {
+            service.checkForUpdate();
+            final Path checkout = service.getCheckoutDirectory();
+            assertThat(checkout.resolve("gen/3/file13.properties")).hasContent("value=13");
+
+            for (int i = 0; i < FILES; i += 2) {
+                write("gen/" + (i % 10) + "/file" + i + ".properties", "value=" + (i * 2));
+            }
+            for (int i = 1; i < FILES; i += 10) {
+                remote.getGitRepo().rm().addFilepattern("gen/" + (i % 10) + "/file" + i + ".properties").call();
+            }
+            remote.getGitRepo().rm().addFilepattern("swap").addFilepattern("dir/only.txt").call();
+            write("swap/inner.txt", "now a directory");
+            write("dir", "now a file");
+            write("gen/new/added.properties", "added=true");
+            commit("Regenerate");
+
+            assertThat(service.checkForUpdate()).isPresent();
+            assertThat(service.getHead()).hasValue(remoteHead());
+            assertThat(checkout.resolve("gen/0/file10.properties")).hasContent("value=20");
+            assertThat(checkout.resolve("gen/3/file13.properties")).hasContent("value=13");
+            assertThat(checkout.resolve("gen/1/file11.properties")).doesNotExist();
+            assertThat(checkout.resolve("gen/new/added.properties")).hasContent("added=true");
+            assertThat(checkout.resolve("swap/inner.txt")).hasContent("now a directory");
+            assertThat(checkout.resolve("dir")).hasContent("now a file");
+            try (Git local = Git.open(checkout.toFile())) {
+                assertThat(local.status().call().isClean()).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testSmallUpdateLeavesOtherFilesAlone() throws Exception {
+        write("a.txt", "a");
+        write("b.txt", "b");
+        commit("Two files");
+
+        final GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        try (VersioningService service = VersioningService.forGitRepository(props)) {
+            service.checkForUpdate();
+            final Path untouched = service.getCheckoutDirectory().resolve("b.txt");
+            final Object fileKey = Files.readAttributes(untouched, BasicFileAttributes.class).fileKey();
+
+            write("a.txt", "changed");
+            commit("Change one");
+            assertThat(service.checkForUpdate().get().getChangedFiles()).containsExactly(Paths.get("a.txt"));
+            assertThat(service.getCheckoutDirectory().resolve("a.txt")).hasContent("changed");
+            assertThat(Files.readAttributes(untouched, BasicFileAttributes.class).fileKey()).isEqualTo(fileKey);
+        }
+    }
+
+    private void write(String path, String contents) throws Exception {
+        final Path file = remote.getLocalPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        remote.getGitRepo().add().addFilepattern(path).call();
+    }
+
+    private void commit(String message) throws Exception {
+        remote.getGitRepo().commit().setMessage(message).call();
+    }
+
+    private ObjectId remoteHead() throws IOException {
+        return remote.getGitRepo().getRepository().resolve(Constants.HEAD);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getPercentile(0.99)).isEqualTo(Duration.ZERO);
+        assertThat(histogram.getMean()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void testPercentilesWithinBucketError() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(Duration.ofMillis(i));
+        }
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getMax()).isEqualTo(Duration.ofMillis(1000));
+        assertWithin(histogram.getPercentile(0.5), Duration.ofMillis(500));
+        assertWithin(histogram.getPercentile(0.99), Duration.ofMillis(990));
+        assertThat(histogram.getPercentile(1.0)).isEqualTo(Duration.ofMillis(1000));
+        assertThat(histogram.getMean()).isEqualTo(Duration.ofNanos(500_500_000));
+    }
+
+    @Test
+    public void testNegativeCountsAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Duration.ofSeconds(-3));
+        assertThat(histogram.getPercentile(0.5)).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        long previous = -1;
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1023, 1 << 20, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.index(value);
+            assertThat(LatencyHistogram.upperBound(index)).isGreaterThanOrEqualTo(value);
+            assertThat((long) index).isGreaterThanOrEqualTo(previous);
+            previous = index;
+        }
+    }
+
+    private static void assertWithin(Duration actual, Duration expected) {
+        final long slack = expected.toNanos() / 16;
+        assertThat(actual.toNanos()).isBetween(expected.toNanos() - slack, expected.toNanos() + slack);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OverlayViewTest {
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    private Path base;
+    private Path overrides;
+    private VersioningService baseService;
+    private VersioningService overrideService;
+
+    @Before
+    public void setUp() throws IOException {
+        base = workFolder.newFolder("base").toPath();
+        overrides = workFolder.newFolder("overrides").toPath();
+        write(base, "app.properties", "base");
+        write(base, "db.properties", "base");
+        write(overrides, "prod/app.properties", "prod");
+        write(overrides, "staging/app.properties", "staging");
+        baseService = VersioningService.forDirectory(base);
+        overrideService = VersioningService.forDirectory(overrides);
+        baseService.checkForUpdate();
+        overrideService.checkForUpdate();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        baseService.close();
+        overrideService.close();
+    }
+
+    @Test
+    public void testHighestLayerWins() throws IOException {
+        try (OverlayView view = prodView()) {
+            assertThat(view.getPaths()).containsExactlyInAnyOrder(Paths.get("app.properties"), Paths.get("db.properties"));
+            assertThat(view.resolve(Paths.get("app.properties"))).contains(overrides.resolve("prod/app.properties"));
+            assertThat(view.resolve(Paths.get("db.properties"))).contains(base.resolve("db.properties"));
+            assertThat(view.resolve(Paths.get("missing.properties"))).isEmpty();
+            assertThat(view.getContentId(Paths.get("app.properties"))).isNotEqualTo(view.getContentId(Paths.get("db.properties")));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testReportsOnlyEffectiveChanges() throws Exception {
+        try (OverlayView view = prodView()) {
+            final BlockingQueue<OverlayUpdate> received = subscribe(view);
+
+            // Hidden by the override, and outside the overlaid subdirectory: neither changes the view
+            write(base, "app.properties", "base, edited");
+            awaitUpdate(baseService);
+            write(overrides, "staging/app.properties", "staging, edited");
+            awaitUpdate(overrideService);
+
+            write(base, "db.properties", "base, edited");
+            awaitUpdate(baseService);
+            final OverlayUpdate update = received.take();
+            assertThat(update.getChangedFiles()).containsExactly(Paths.get("db.properties"));
+            assertThat(update.resolve(Paths.get("db.properties"))).contains(base.resolve("db.properties"));
+
+            // An override layer update whose path now resolves to the base layer
+            Files.delete(overrides.resolve("prod/app.properties"));
+            awaitUpdate(overrideService);
+            final OverlayUpdate uncovered = received.take();
+            assertThat(uncovered.getChangedFiles()).containsExactly(Paths.get("app.properties"));
+            assertThat(uncovered.resolve(Paths.get("app.properties"))).contains(base.resolve("app.properties"));
+            assertThat(view.resolve(Paths.get("app.properties"))).contains(base.resolve("app.properties"));
+
+            Files.delete(base.resolve("db.properties"));
+            awaitUpdate(baseService);
+            final OverlayUpdate removed = received.take();
+            assertThat(removed.getChangedFiles()).containsExactly(Paths.get("db.properties"));
+            assertThat(removed.resolve(Paths.get("db.properties"))).isEmpty();
+            assertThat(received).isEmpty();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testRescansALayerAfterAFailedUpdate() throws Exception {
+        final FlakyService flaky = new FlakyService(baseService);
+        try (OverlayView view = OverlayView.builder().layer(flaky).build()) {
+            final BlockingQueue<OverlayUpdate> received = subscribe(view);
+
+            flaky.failing = true;
+            write(base, "db.properties", "base, edited");
+            awaitUpdate(baseService);
+            flaky.failing = false;
+            write(base, "extra.properties", "extra");
+            awaitUpdate(baseService);
+
+            final OverlayUpdate update = received.take();
+            assertThat(update.getChangedFiles()).containsExactlyInAnyOrder(Paths.get("db.properties"),
+                    Paths.get("extra.properties"));
+            assertThat(view.getPaths()).containsExactlyInAnyOrder(Paths.get("app.properties"),
+                    Paths.get("db.properties"), Paths.get("extra.properties"));
+        }
+    }
+
+    @Test
+    public void testCoalescedUpdatesResolveAsTheNewest() {
+        final Path app = Paths.get("app.properties");
+        final Path db = Paths.get("db.properties");
+        final OverlayUpdate older = new OverlayUpdate(PathSet.copyOf(List.of(app, db)),
+                Map.of(overrides, PathSet.copyOf(List.of(app)), base, PathSet.copyOf(List.of(db))));
+        final OverlayUpdate newer = new OverlayUpdate(PathSet.copyOf(List.of(app)), Map.of());
+
+        final OverlayUpdate coalesced = OverlayUpdate.coalesce(older, newer);
+        assertThat(coalesced.getChangedFiles()).containsExactly(app, db);
+        assertThat(coalesced.resolve(app)).isEmpty();
+        assertThat(coalesced.resolve(db)).contains(base.resolve(db));
+    }
+
+    private OverlayView prodView() {
+        return OverlayView.builder()
+                .layer(baseService)
+                .layer(overrideService, Paths.get("prod"))
+                .build();
+    }
+
+    private static BlockingQueue<OverlayUpdate> subscribe(OverlayView view) {
+        final BlockingQueue<OverlayUpdate> received = new LinkedBlockingQueue<>();
+        view.updates().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(OverlayUpdate item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return received;
+    }
+
+    private static void awaitUpdate(VersioningService service) throws InterruptedException {
+        while (true) {
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            if (update.isPresent()) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static class FlakyService implements VersioningService {
+        private final VersioningService delegate;
+        private volatile boolean failing;
+
+        FlakyService(VersioningService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Optional<FileRevision> getFileRevision(Path path) {
+            if (failing) {
+                throw new VersioningServiceException("injected failure reading " + path);
+            }
+            return delegate.getFileRevision(path);
+        }
+
+        @Override
+        public Flow.Publisher<VersionedConfigUpdate> updates() {
+            return delegate.updates();
+        }
+
+        @Override
+        public VersionedConfigUpdate getCurrentState() {
+            return delegate.getCurrentState();
+        }
+
+        @Override
+        public Optional<VersionedConfigUpdate> checkForUpdate() {
+            return delegate.checkForUpdate();
+        }
+
+        @Override
+        public Set<Path> getAffectedPaths(ObjectId currentHash, ObjectId newHash) {
+            return delegate.getAffectedPaths(currentHash, newHash);
+        }
+
+        @Override
+        public Path getCheckoutDirectory() {
+            return delegate.getCheckoutDirectory();
+        }
+
+        @Override
+        public String getLatestRevision() {
+            return delegate.getLatestRevision();
+        }
+
+        @Override
+        public Optional<ObjectId> getHead() {
+            return delegate.getHead();
+        }
+
+        @Override
+        public String getBranch() {
+            return delegate.getBranch();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void write(Path root, String path, String contents) throws IOException {
+        final Path target = root.resolve(path);
+        Files.createDirectories(target.getParent());
+        Files.write(target, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PathSetTest {
+    @Test
+    public void testMembership() {
+        final PathSet set = PathSet.builder()
+                .add("nested/b.txt")
+                .add(Paths.get("a.txt"))
+                .add("nested/a.txt")
+                .add("a.txt")
+                .build();
+        assertThat(set).hasSize(3);
+        assertThat(set).containsExactly(Paths.get("a.txt"), Paths.get("nested/a.txt"), Paths.get("nested/b.txt"));
+        assertThat(set.contains(Paths.get("nested/./a.txt"))).isTrue();
+        assertThat(set.contains(Paths.get("nested"))).isFalse();
+        assertThat(set.contains(Paths.get("/a.txt"))).isFalse();
+        assertThat(set.contains("a.txt")).isFalse();
+        assertThat(PathSet.of()).isEmpty();
+    }
+
+    @Test
+    public void testUnder() {
+        final PathSet set = PathSet.builder()
+                .add("dir")
+                .add("dir-x/a")
+                .add("dir/a")
+                .add("dir/sub/b")
+                .add("dir0")
+                .add("other/dir/c")
+                .build();
+        assertThat(set.under(Paths.get("dir"))).containsExactly(Paths.get("dir/a"), Paths.get("dir/sub/b"));
+        assertThat(set.under(Paths.get("dir/sub"))).containsExactly(Paths.get("dir/sub/b"));
+        assertThat(set.under(Paths.get("missing"))).isEmpty();
+        assertThat(set.under(Paths.get(""))).isSameAs(set);
+        assertThat(set.under(Paths.get("dir")).contains(Paths.get("dir-x/a"))).isFalse();
+    }
+
+    @Test
+    public void testEqualsOtherSets() {
+        final Set<Path> paths = new HashSet<>();
+        final PathSet.Builder builder = PathSet.builder();
+        for (int i = 999; i >= 0; i--) {
+            paths.add(Paths.get("d" + i % 7, "f" + i));
+            builder.add("d" + i % 7 + "/f" + i);
+        }
+        final PathSet set = builder.build();
+        assertThat(set).isEqualTo(paths);
+        assertThat(set.hashCode()).isEqualTo(paths.hashCode());
+        assertThat(PathSet.copyOf(paths)).isEqualTo(set);
+        assertThat(PathSet.copyOf(set)).isSameAs(set);
+        assertThat(PathSet.builder().addAll(set.under(Paths.get("d3"))).addAll(set.under(Paths.get("d1"))).build())
+                .hasSize(set.under(Paths.get("d1")).size() + set.under(Paths.get("d3")).size());
+    }
+
+    @Test
+    public void testRejectsAbsolutePaths() {
+        final Path absolute = Paths.get("a.txt").toAbsolutePath();
+        assertThatThrownBy(() -> PathSet.builder().add(absolute)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PathSet.copyOf(List.of(absolute))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PathSet.of().under(absolute.getParent()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSortsAndDeduplicatesUnorderedPaths() {
+        final PathSet.Builder builder = PathSet.builder();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            builder.add("f" + (i * 7919) % 500).add("f" + (i * 104729) % 500);
+            expected.add("f" + i);
+        }
+        expected.sort(null);
+        final List<String> actual = new ArrayList<>();
+        builder.build().forEach(path -> actual.add(path.toString()));
+        assertThat(actual).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opentable.versionedconfig.testing.GitHttpServer;
+import com.opentable.versionedconfig.testing.GitRule;
+import com.opentable.versionedconfig.testing.InMemoryGitRule;
+
+public class SharedRepositoryTest {
+    @Rule
+    public final InMemoryGitRule git = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .inMemoryRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final GitHttpServer server = GitHttpServer.serve(git.getRepository());
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testOnlyTheLeaderFetches() throws Exception {
+        final GitProperties props = props();
+        try (VersioningService leader = VersioningService.forGitRepository(props)) {
+            final long afterFirst = server.getRequestCount();
+            try (VersioningService follower = VersioningService.forGitRepository(props)) {
+                assertThat(server.getRequestCount()).isEqualTo(afterFirst);
+                assertThat(leader.checkForUpdate()).isPresent();
+                assertThat(follower.checkForUpdate()).isPresent();
+                assertThat(follower.getCheckoutDirectory().resolve(".git/objects/info/alternates")).exists();
+
+                git.editFile("foo.txt", "Changed").commit("Change");
+                assertThat(leader.checkForUpdate()).isPresent();
+                final long afterLeader = server.getRequestCount();
+                final VersionedConfigUpdate update = follower.checkForUpdate().get();
+                assertThat(server.getRequestCount()).isEqualTo(afterLeader);
+                assertThat(update.getNewRevision()).isEqualTo(leader.getLatestRevision());
+                assertThat(follower.getCheckoutDirectory().resolve("foo.txt")).hasContent("Changed");
+            }
+        }
+    }
+
+    @Test
+    public void testFollowerTakesOver() throws Exception {
+        final GitProperties props = props();
+        try (VersioningService follower = VersioningService.forGitRepository(props)) {
+            try (VersioningService leader = VersioningService.forGitRepository(props)) {
+                leader.checkForUpdate();
+                follower.checkForUpdate();
+                git.editFile("foo.txt", "Before failover").commit("Before failover");
+                assertThat(follower.checkForUpdate()).isNotPresent();
+            }
+            git.editFile("foo.txt", "After failover").commit("After failover");
+            final long before = server.getRequestCount();
+            assertThat(follower.checkForUpdate()).isPresent();
+            assertThat(server.getRequestCount()).isGreaterThan(before);
+            assertThat(follower.getCheckoutDirectory().resolve("foo.txt")).hasContent("After failover");
+        }
+    }
+
+    @Test
+    public void testDeletedBranchesLeaveTheMirror() throws Exception {
+        git.getGitRepo().branchCreate().setName("feature/one").call();
+        git.getGitRepo().branchCreate().setName("feature/two").call();
+        final GitProperties props = props().setFetchRefs(Collections.singletonList("refs/heads/feature/*"));
+        try (VersioningService leader = VersioningService.forGitRepository(props)) {
+            assertThat(leader.checkForUpdate()).isPresent();
+            assertThat(mirrorBranches(props)).containsExactlyInAnyOrder("master", "feature/one", "feature/two");
+
+            git.getGitRepo().branchDelete().setBranchNames("feature/one").setForce(true).call();
+            leader.checkForUpdate();
+            assertThat(mirrorBranches(props)).containsExactlyInAnyOrder("master", "feature/two");
+        }
+    }
+
+    @Test
+    public void testKeepsHeadsFetchedByExplicitRefSpecs() throws Exception {
+        git.getGitRepo().branchCreate().setName("release/one").call();
+        final GitProperties props = props()
+                .setFetchRefs(Collections.singletonList("+refs/heads/release/*:refs/heads/release/*"));
+        try (VersioningService leader = VersioningService.forGitRepository(props)) {
+            leader.checkForUpdate();
+            assertThat(mirrorBranches(props)).containsExactlyInAnyOrder("master", "release/one");
+
+            git.editFile("foo.txt", "Changed").commit("Change");
+            assertThat(leader.checkForUpdate()).isPresent();
+            assertThat(mirrorBranches(props)).containsExactlyInAnyOrder("master", "release/one");
+        }
+    }
+
+    private GitProperties props() throws Exception {
+        final Path shared = folder.newFolder("shared").toPath();
+        return new GitProperties(server.getUri(), null, "master").setSharedRepository(shared);
+    }
+
+    private static List<String> mirrorBranches(GitProperties props) throws Exception {
+        try (Git mirror = Git.open(props.getSharedRepository().resolve("mirror.git").toFile())) {
+            return mirror.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_HEADS).stream()
+                    .map(ref -> ref.getName().substring(Constants.R_HEADS.length()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
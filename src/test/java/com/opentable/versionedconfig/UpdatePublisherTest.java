@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class UpdatePublisherTest {
+    private static final Path BASE = Paths.get("/config");
+
+    private final UpdatePublisher<VersionedConfigUpdate> publisher =
+            new UpdatePublisher<>(Runnable::run, UpdatePublisher::coalesce);
+
+    @Test
+    public void testRespectsDemand() {
+        final Recorder recorder = new Recorder(1);
+        publisher.subscribe(recorder);
+        publisher.publish(update("a", 1, 2));
+        assertThat(recorder.updates).hasSize(1);
+
+        publisher.publish(update("b", 2, 3));
+        assertThat(recorder.updates).hasSize(1);
+        recorder.subscription.request(1);
+        assertThat(recorder.updates).hasSize(2);
+        assertThat(recorder.updates.get(1).getChangedFiles()).containsExactly(Paths.get("b"));
+    }
+
+    @Test
+    public void testCoalescesWithoutDemand() {
+        final Recorder recorder = new Recorder(0);
+        publisher.subscribe(recorder);
+        publisher.publish(update("a", 1, 2));
+        publisher.publish(update("b", 2, 3));
+        publisher.publish(update("a", 3, 4));
+        assertThat(recorder.updates).isEmpty();
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertThat(recorder.updates).hasSize(1);
+        final VersionedConfigUpdate coalesced = recorder.updates.get(0);
+        assertThat(coalesced.getOldRevisionMetadata()).isEqualTo(id(1));
+        assertThat(coalesced.getNewRevisionMetadata()).isEqualTo(id(4));
+        assertThat(coalesced.getChangedFiles()).containsExactlyInAnyOrder(Paths.get("a"), Paths.get("b"));
+    }
+
+    @Test(timeout = 10_000)
+    public void testSlowSubscriberDoesNotBlockOthers() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final UpdatePublisher<VersionedConfigUpdate> async =
+                    new UpdatePublisher<>(executor, UpdatePublisher::coalesce);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Recorder slow = new Recorder(Long.MAX_VALUE) {
+                @Override
+                public void onNext(VersionedConfigUpdate item) {
+                    super.onNext(item);
+                    awaitUninterruptibly(release);
+                }
+            };
+            final Recorder fast = new Recorder(Long.MAX_VALUE);
+            async.subscribe(slow);
+            async.subscribe(fast);
+
+            for (int i = 1; i <= 100; i++) {
+                async.publish(update("f" + i, i, i + 1));
+            }
+            fast.awaitUpdateTo(id(101));
+            assertThat(slow.updates).hasSize(1);
+
+            release.countDown();
+            slow.awaitUpdateTo(id(101));
+            // the first update went out on its own, the other 99 were folded into at most a few more
+            assertThat(slow.updates.size()).isLessThan(100);
+            assertThat(slow.updates.get(slow.updates.size() - 1).getChangedFiles()).contains(Paths.get("f100"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        final Recorder recorder = new Recorder(Long.MAX_VALUE);
+        publisher.subscribe(recorder);
+        recorder.subscription.cancel();
+        publisher.publish(update("a", 1, 2));
+        assertThat(recorder.updates).isEmpty();
+    }
+
+    @Test
+    public void testCloseCompletesAfterPending() {
+        final Recorder recorder = new Recorder(0);
+        publisher.subscribe(recorder);
+        publisher.publish(update("a", 1, 2));
+        publisher.close();
+        assertThat(recorder.completed).isFalse();
+
+        recorder.subscription.request(1);
+        assertThat(recorder.updates).hasSize(1);
+        assertThat(recorder.completed).isTrue();
+
+        final Recorder late = new Recorder(1);
+        publisher.subscribe(late);
+        assertThat(late.completed).isTrue();
+    }
+
+    @Test
+    public void testNonPositiveRequestIsAnError() {
+        final Recorder recorder = new Recorder(0);
+        publisher.subscribe(recorder);
+        recorder.subscription.request(0);
+        assertThat(recorder.error).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static VersionedConfigUpdate update(String path, int from, int to) {
+        return new VersionedConfigUpdate(BASE, Collections.singleton(Paths.get(path)), id(from), id(to));
+    }
+
+    private static ObjectId id(int n) {
+        return ObjectId.fromRaw(new int[] {0, 0, 0, 0, n});
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Recorder implements Flow.Subscriber<VersionedConfigUpdate> {
+        private final long initialDemand;
+        final List<VersionedConfigUpdate> updates = new CopyOnWriteArrayList<>();
+        volatile Flow.Subscription subscription;
+        volatile boolean completed;
+        volatile Throwable error;
+
+        Recorder(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(VersionedConfigUpdate item) {
+            updates.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        void awaitUpdateTo(ObjectId revision) throws InterruptedException {
+            while (updates.isEmpty() || !updates.get(updates.size() - 1).getNewRevisionMetadata().equals(revision)) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import com.opentable.versionedconfig.testing.FaultInjectingRemote;
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class VersionedPropertySourceTest {
+    @Rule
+    public TemporaryFolder workFolder = new TemporaryFolder();
+
+    @Rule
+    public GitRule remote = GitRule.builder()
+            .editFile("base.properties", "greeting=hello\nname=world\n")
+            .editFile("override.properties", "name=override\n")
+            .commit("Initial commit")
+            .rule();
+
+    @Test(timeout = 30_000)
+    public void testRefreshesOnUpdates() throws Exception {
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"));
+                VersionedPropertySource source = new VersionedPropertySource("test", service,
+                        Arrays.asList(Paths.get("base.properties"), Paths.get("override.properties")), events::add)) {
+            assertThat(source.getProperty("greeting")).isEqualTo("hello");
+            assertThat(source.getProperty("name")).isEqualTo("override");
+            assertThat(source.getPropertyNames()).containsExactlyInAnyOrder("greeting", "name");
+            service.checkForUpdate();
+
+            remote.editFile("unrelated.txt", "ignored").commit("Unrelated");
+            service.checkForUpdate();
+            remote.editFile("base.properties", "greeting=goodbye\nname=world\nextra=1\n").commit("Change base");
+            service.checkForUpdate();
+
+            final VersionedPropertiesChangedEvent event =
+                    (VersionedPropertiesChangedEvent) events.poll(10, TimeUnit.SECONDS);
+            assertThat(event.getKeys()).containsExactlyInAnyOrder("greeting", "extra");
+            assertThat(event.affects("gree")).isTrue();
+            assertThat(event.getSource()).isSameAs(source);
+            assertThat(source.getProperty("greeting")).isEqualTo("goodbye");
+            assertThat(source.getProperty("name")).isEqualTo("override");
+            assertThat(events).isEmpty();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testKeepsValuesWhenAFileDoesNotParse() throws Exception {
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"));
+                VersionedPropertySource source = new VersionedPropertySource("test", service,
+                        Arrays.asList(Paths.get("base.properties"), Paths.get("override.properties")), events::add)) {
+            remote.editFile("base.properties", "greeting=\\uZZZZ\n").commit("Break base");
+            service.checkForUpdate();
+
+            assertThatThrownBy(source::refresh).isInstanceOf(VersioningServiceException.class)
+                    .hasMessageContaining("base.properties");
+            assertThat(source.getProperty("greeting")).isEqualTo("hello");
+            assertThat(source.getProperty("name")).isEqualTo("override");
+            assertThat(events).isEmpty();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testWithoutFilesStaysEmpty() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(remote.getLocalPath().toUri(), null, "master"));
+                VersionedPropertySource source = new VersionedPropertySource("test", service,
+                        Collections.emptyList(), null)) {
+            assertThat(source.getPropertyNames()).isEmpty();
+            assertThat(source.getProperty("greeting")).isNull();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testLoadsLastKnownCheckoutBeforeReady() throws Exception {
+        final Path local = workFolder.newFolder("checkout").toPath();
+        try (FaultInjectingRemote slow = FaultInjectingRemote.serve(remote)) {
+            final GitProperties properties = new GitProperties(slow.getUri(), local, "master");
+            VersioningService.forGitRepository(properties).close();
+            slow.setLatency(Duration.ofSeconds(2));
+
+            try (VersioningService service = VersioningService.forGitRepositoryAsync(properties);
+                 VersionedPropertySource source = new VersionedPropertySource("test", service,
+                         Arrays.asList(Paths.get("base.properties")), null)) {
+                assertThat(service.ready()).isNotDone();
+                assertThat(source.getProperty("greeting")).isEqualTo("hello");
+            }
+        }
+    }
+
+    @Test
+    public void testRanksBehindOperatorOverrides() {
+        final MutablePropertySources sources = new StandardEnvironment().getPropertySources();
+        final PropertySource<?> source = new PropertySource<Object>("versionedConfig", new Object()) {
+            @Override
+            public Object getProperty(String name) {
+                return null;
+            }
+        };
+        VersionedConfig.addBehindOverrides(sources, source);
+        assertThat(sources.precedenceOf(source)).isGreaterThan(
+                sources.precedenceOf(sources.get(StandardEnvironment.SYSTEM_PROPERTIES_PROPERTY_SOURCE_NAME)));
+        assertThat(sources.precedenceOf(source)).isGreaterThan(
+                sources.precedenceOf(sources.get(StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME)));
+    }
+}
@@ -16,7 +16,18 @@ package com.opentable.versionedconfig;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.nio.file.Path;
-
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -93,4 +104,142 @@ public class VersioningServiceIntegrationTest {
         assertThat(newFile).isRegularFile();
         assertThat(newFile).hasContent("Derp derp derp");
     }
+
+    @Test
+    public void testPublishesUpdates() throws Exception {
+        GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        final BlockingQueue<VersionedConfigUpdate> received = new LinkedBlockingQueue<>();
+        try (VersioningService repo = VersioningService.forGitRepository(props)) {
+            repo.updates().subscribe(new Flow.Subscriber<VersionedConfigUpdate>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(VersionedConfigUpdate item) {
+                    received.add(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            assertThat(repo.checkForUpdate()).isPresent();
+            remote.editFile("bar.txt", "Derp derp derp").commit("Additional commit");
+            assertThat(repo.checkForUpdate()).isPresent();
+
+            assertThat(received.poll(10, TimeUnit.SECONDS)).isNotNull();
+            final VersionedConfigUpdate second = received.poll(10, TimeUnit.SECONDS);
+            assertThat(second.getChangedFiles()).containsExactly(Paths.get("bar.txt"));
+            assertThat(second.getNewRevision()).isEqualTo(repo.getLatestRevision());
+        }
+    }
+
+    @Test
+    public void testTracksPropagation() throws Exception {
+        GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        try (VersioningService repo = VersioningService.forGitRepository(props)) {
+            final PropagationMetrics metrics = repo.getPropagationMetrics().get();
+            assertThat(repo.checkForUpdate()).isPresent();
+            assertThat(metrics.getCommitToFetch().getCount()).isEqualTo(0);
+
+            remote.editFile("bar.txt", "one").commit("First");
+            remote.editFile("bar.txt", "two").commit("Second");
+            final VersionedConfigUpdate update = repo.checkForUpdate().get();
+            final PropagationTimes times = update.getPropagation().get();
+            assertThat(times.getCommitCount()).isEqualTo(2);
+            assertThat(times.getOldestCommitTime()).isBeforeOrEqualTo(times.getNewestCommitTime());
+            assertThat(times.getFetchToDelivery().isNegative()).isFalse();
+
+            metrics.recordListenerCompleted(update);
+            assertThat(metrics.getCommitToFetch().getCount()).isEqualTo(2);
+            assertThat(metrics.getFetchToDelivery().getCount()).isEqualTo(1);
+            assertThat(metrics.getDeliveryToListener().getCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testChangeLog() throws Exception {
+        GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        try (VersioningService repo = VersioningService.forGitRepository(props)) {
+            assertThat(repo.checkForUpdate()).isPresent();
+
+            remote.editFile("bar.txt", "one").commit("First");
+            remote.editFile("baz.txt", "two").editFile("foo.txt", "changed").commit("Second");
+            final VersionedConfigUpdate update = repo.checkForUpdate().get();
+
+            final List<ConfigCommit> log;
+            try (Stream<ConfigCommit> commits = repo.getChangeLog(update)) {
+                log = commits.collect(Collectors.toList());
+            }
+            assertThat(log).hasSize(2);
+            assertThat(log.get(0).getMessage()).isEqualTo("First");
+            assertThat(log.get(0).getChangedFiles()).containsExactly(Paths.get("bar.txt"));
+            assertThat(log.get(1).getMessage()).isEqualTo("Second");
+            assertThat(log.get(1).getChangedFiles()).containsExactly(Paths.get("baz.txt"), Paths.get("foo.txt"));
+            assertThat(log.get(1).getId()).isEqualTo(update.getNewRevisionMetadata());
+
+            try (Stream<ConfigCommit> commits = repo.getChangeLog(null, update.getNewRevisionMetadata())) {
+                assertThat(commits.findFirst().get().getChangedFiles()).containsExactly(Paths.get("foo.txt"));
+            }
+        }
+    }
+
+    @Test
+    public void testWritesCommitGraph() throws Exception {
+        GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        try (VersioningService repo = VersioningService.forGitRepository(props)) {
+            assertThat(repo.checkForUpdate()).isPresent();
+            final Path graph = repo.getCheckoutDirectory().resolve(".git/objects/info/commit-graph");
+            assertThat(graph).doesNotExist();
+
+            for (int i = 0; i < GitOperations.COMMIT_GRAPH_SLACK; i++) {
+                remote.editFile("bar.txt", "Change " + i).commit("Change " + i);
+            }
+            final VersionedConfigUpdate update = repo.checkForUpdate().get();
+            assertThat(graph).isRegularFile();
+            try (Git checkout = Git.open(repo.getCheckoutDirectory().toFile());
+                    ObjectReader reader = checkout.getRepository().newObjectReader()) {
+                assertThat(reader.getCommitGraph().get().findGraphPosition(update.getNewRevisionMetadata()))
+                        .isGreaterThanOrEqualTo(0);
+            }
+            try (Stream<ConfigCommit> commits = repo.getChangeLog(update)) {
+                assertThat(commits.count()).isEqualTo((long) GitOperations.COMMIT_GRAPH_SLACK);
+            }
+        }
+    }
+
+    @Test
+    public void testFileRevisions() throws Exception {
+        GitProperties props = new GitProperties(remote.getLocalPath().toUri(), null, "master");
+        try (VersioningService repo = VersioningService.forGitRepository(props)) {
+            final ObjectId initial = repo.checkForUpdate().get().getNewRevisionMetadata();
+            final FileRevision foo = repo.getFileRevision(Paths.get("foo.txt")).get();
+            assertThat(foo.getCommitId()).isEqualTo(initial);
+
+            remote.editFile("bar.txt", "one").commit("First");
+            remote.editFile("baz.txt", "two").commit("Second");
+            final ObjectId second = repo.checkForUpdate().get().getNewRevisionMetadata();
+            assertThat(repo.getFileRevision(Paths.get("foo.txt")).get()).isEqualTo(foo);
+            final FileRevision bar = repo.getFileRevision(Paths.get("bar.txt")).get();
+            assertThat(bar.getCommitId()).isNotEqualTo(second);
+            assertThat(repo.getFileRevision(Paths.get("baz.txt")).get().getCommitId()).isEqualTo(second);
+
+            remote.editFile("foo.txt", "changed").commit("Third");
+            remote.getGitRepo().rm().addFilepattern("baz.txt").call();
+            remote.commit("Fourth");
+            final ObjectId fourth = repo.checkForUpdate().get().getNewRevisionMetadata();
+            final FileRevision changed = repo.getFileRevision(Paths.get("foo.txt")).get();
+            assertThat(changed.getETag()).isNotEqualTo(foo.getETag());
+            assertThat(changed.getCommitId()).isNotEqualTo(fourth);
+            assertThat(repo.getFileRevision(Paths.get("bar.txt")).get()).isEqualTo(bar);
+            assertThat(repo.getFileRevision(Paths.get("baz.txt"))).isNotPresent();
+        }
+    }
 }
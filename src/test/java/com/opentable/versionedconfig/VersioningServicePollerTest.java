@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.testing.GitRule;
+
+public class VersioningServicePollerTest {
+    @Rule
+    public final GitRule remote = GitRule.builder()
+            .editFile("foo.txt", "Hello, world!")
+            .commit("Initial commit")
+            .rule();
+
+    @Test(timeout = 30_000)
+    public void testDeliversUpdates() throws Exception {
+        final List<VersionedConfigUpdate> updates = new CopyOnWriteArrayList<>();
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(2);
+        try (VersioningServicePoller poller = new VersioningServicePoller(2);
+             VersioningService service = VersioningService.forGitRepository(
+                     new GitProperties(remote.getLocalPath().toUri(), null, "master"))) {
+            poller.register(service, Duration.ofMillis(50), update -> {
+                updates.add(update);
+                first.countDown();
+                second.countDown();
+            });
+            assertThat(first.await(20, TimeUnit.SECONDS)).isTrue();
+            remote.editFile("foo.txt", "Derp derp derp").commit("Additional commit");
+            assertThat(second.await(20, TimeUnit.SECONDS)).isTrue();
+        }
+        assertThat(updates.get(updates.size() - 1).getChangedFiles()).contains(Paths.get("foo.txt"));
+    }
+
+    @Test(timeout = 30_000)
+    public void testCapsConcurrentFetches() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        try (VersioningServicePoller poller = new VersioningServicePoller(3)) {
+            final List<CompletableFuture<Optional<VersionedConfigUpdate>>> polls = IntStream.range(0, 20)
+                    .mapToObj(i -> poller.pollNow(new SlowService(inFlight, maxInFlight)))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(polls.toArray(new CompletableFuture<?>[0])).get(20, TimeUnit.SECONDS);
+        }
+        assertThat(maxInFlight.get()).isBetween(1, 3);
+    }
+
+    private static class SlowService implements VersioningService {
+        private final AtomicInteger inFlight;
+        private final AtomicInteger maxInFlight;
+
+        SlowService(AtomicInteger inFlight, AtomicInteger maxInFlight) {
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        public Optional<VersionedConfigUpdate> checkForUpdate() {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public VersionedConfigUpdate getCurrentState() {
+            return new VersionedConfigUpdate(getCheckoutDirectory(), Collections.emptySet());
+        }
+
+        @Override
+        public Set<Path> getAffectedPaths(ObjectId currentHash, ObjectId newHash) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Path getCheckoutDirectory() {
+            return Paths.get("slow");
+        }
+
+        @Override
+        public String getLatestRevision() {
+            return ObjectId.zeroId().getName();
+        }
+
+        @Override
+        public Optional<ObjectId> getHead() {
+            return Optional.empty();
+        }
+
+        @Override
+        public String getBranch() {
+            return "master";
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
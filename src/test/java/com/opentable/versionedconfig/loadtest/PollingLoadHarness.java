@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.opentable.versionedconfig.GitProperties;
+import com.opentable.versionedconfig.VersionedConfigUpdate;
+import com.opentable.versionedconfig.VersioningService;
+import com.opentable.versionedconfig.VersioningServicePoller;
+import com.opentable.versionedconfig.testing.GitHttpServer;
+import com.opentable.versionedconfig.testing.SyntheticRepoGenerator;
+import com.opentable.versionedconfig.testing.SyntheticRepoSpec;
+
+/**
+ * Puts a fleet of git {@link VersioningService} instances in front of one local smart-HTTP server while commits land at a
+ * steady rate, and reports what that costs the server and how long changes take to reach the clients.
+ * <p>
+ * Not a unit test; run it by hand, e.g. from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=...PollingLoadHarness
+ * -Dexec.args="instances=200 interval=PT10S"}.  Arguments are {@code name=value} pairs:
+ * <dl>
+ * <dt>instances</dt><dd>number of polling clients (default 50)</dd>
+ * <dt>interval</dt><dd>delay between the polls of one client (default PT5S)</dd>
+ * <dt>fetch-limit</dt><dd>fetches allowed in flight at once across the fleet (default 32)</dd>
+ * <dt>commit-interval</dt><dd>time between commits to the server (default PT2S)</dd>
+ * <dt>duration</dt><dd>how long to measure (default PT1M)</dd>
+ * <dt>files</dt><dd>files in the synthetic config repository (default 1000)</dd>
+ * <dt>server-threads</dt><dd>request handler threads on the server (default 8)</dd>
+ * </dl>
+ * All clients share the JVM with the server, so client-side CPU is included in the process figure; the
+ * server figure only counts request handler threads.  Propagation latency runs from a commit landing to a client
+ * reporting it; a client that skips over several commits in one poll only reports the newest.
+ */
+public final class PollingLoadHarness {
+    private final Map<String, String> options;
+    private final Map<ObjectId, Long> commitTimes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger commits = new AtomicInteger();
+
+    private PollingLoadHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new PollingLoadHarness(options).run();
+    }
+
+    private void run() throws Exception {
+        final int instances = intOption("instances", 50);
+        final Duration interval = durationOption("interval", "PT5S");
+        final Duration commitInterval = durationOption("commit-interval", "PT2S");
+        final Duration duration = durationOption("duration", "PT1M");
+
+        final InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription("load"));
+        repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + Constants.MASTER);
+        new SyntheticRepoGenerator(new SyntheticRepoSpec()
+                .setFileCount(intOption("files", 1000))
+                .setHistoryLength(10))
+                .generate(repository);
+
+        final List<VersioningService> services = new ArrayList<>();
+        try (GitHttpServer server = GitHttpServer.serve(repository, intOption("server-threads", 8));
+                VersioningServicePoller poller = new VersioningServicePoller(intOption("fetch-limit", 32))) {
+            log("cloning %d instances from %s", instances, server.getUri());
+            for (int i = 0; i < instances; i++) {
+                services.add(VersioningService.forGitRepository(new GitProperties(server.getUri(), null, "master")));
+            }
+
+            server.resetStatistics();
+            final long cpuStart = processCpuNanos();
+            final long start = System.nanoTime();
+            services.forEach(service -> poller.register(service, interval, this::propagated));
+
+            final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor();
+            committer.scheduleAtFixedRate(() -> commit(repository),
+                    commitInterval.toNanos(), commitInterval.toNanos(), TimeUnit.NANOSECONDS);
+            TimeUnit.NANOSECONDS.sleep(duration.toNanos());
+            committer.shutdownNow();
+            committer.awaitTermination(10, TimeUnit.SECONDS);
+            // let the last commit reach everyone before measuring
+            TimeUnit.NANOSECONDS.sleep(interval.toNanos() * 2);
+
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final double processCpu = (processCpuNanos() - cpuStart) / 1e9;
+            log("%d instances polling every %s, %d commits over %.1fs", instances, interval, commits.get(), seconds);
+            log("server: %d requests (%.1f/s), %s in, %s out (%s/s), %.2f CPU s (%.1f%% of a core)",
+                    server.getRequestCount(), server.getRequestCount() / seconds,
+                    bytes(server.getBytesReceived()), bytes(server.getBytesSent()),
+                    bytes((long) (server.getBytesSent() / seconds)),
+                    server.getCpuTime().toNanos() / 1e9, 100 * server.getCpuTime().toNanos() / 1e9 / seconds);
+            log("process: %.2f CPU s (%.1f%% of a core)", processCpu, 100 * processCpu / seconds);
+            reportLatencies(instances);
+        } finally {
+            for (VersioningService service : services) {
+                service.close();
+            }
+            repository.close();
+        }
+    }
+
+    private void propagated(VersionedConfigUpdate update) {
+        final Long committed = commitTimes.get(update.getNewRevisionMetadata());
+        if (committed != null) {
+            latencies.add(System.nanoTime() - committed);
+        }
+    }
+
+    private void reportLatencies(int instances) {
+        final long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        log("propagation: %d updates delivered to %d instances for %d commits", sorted.length, instances, commits.get());
+        if (sorted.length > 0) {
+            log("latency ms: p50 %d, p90 %d, p99 %d, max %d",
+                    millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99), millis(sorted, 1));
+        }
+    }
+
+    /**
+     * Changes one file per commit, straight into the object database like a push would.
+     */
+    private void commit(Repository repository) {
+        final int n = commits.incrementAndGet();
+        try (ObjectInserter inserter = repository.newObjectInserter();
+                ObjectReader reader = inserter.newReader();
+                RevWalk walk = new RevWalk(reader)) {
+            final ObjectId parent = repository.resolve(Constants.R_HEADS + Constants.MASTER);
+            final DirCache index = DirCache.read(reader, walk.parseCommit(parent).getTree());
+            final ObjectId blob = inserter.insert(Constants.OBJ_BLOB,
+                    ("load.version=" + n + "\n").getBytes(StandardCharsets.UTF_8));
+            final DirCacheEditor editor = index.editor();
+            editor.add(new DirCacheEditor.PathEdit("load.properties") {
+                @Override
+                public void apply(DirCacheEntry ent) {
+                    ent.setFileMode(FileMode.REGULAR_FILE);
+                    ent.setObjectId(blob);
+                }
+            });
+            editor.finish();
+
+            final PersonIdent ident = new PersonIdent("load", "load@localhost");
+            final CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(index.writeTree(inserter));
+            commit.setParentId(parent);
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("load " + n);
+            final ObjectId id = inserter.insert(commit);
+            inserter.flush();
+
+            commitTimes.put(id, System.nanoTime());
+            final RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+            update.setNewObjectId(id);
+            update.setExpectedOldObjectId(parent);
+            update.update();
+        } catch (IOException e) {
+            log("commit %d failed: %s", n, e);
+        }
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private Duration durationOption(String name, String defaultValue) {
+        return Duration.parse(options.getOrDefault(name, defaultValue));
+    }
+
+    private static long processCpuNanos() {
+        final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : 0;
+    }
+
+    private static long millis(long[] sorted, double quantile) {
+        final int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    private static String bytes(long bytes) {
+        return bytes < 1024 * 1024 ? String.format("%.1f KiB", bytes / 1024.0) : String.format("%.1f MiB", bytes / 1048576.0);
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+}
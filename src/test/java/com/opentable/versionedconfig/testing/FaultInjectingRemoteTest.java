@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.GitProperties;
+import com.opentable.versionedconfig.VersionedConfigUpdate;
+import com.opentable.versionedconfig.VersioningService;
+import com.opentable.versionedconfig.VersioningServiceException;
+
+public class FaultInjectingRemoteTest {
+    @Rule
+    public final InMemoryGitRule git = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .inMemoryRule();
+
+    private final FaultInjectingRemote faulty = FaultInjectingRemote.serve(git);
+
+    @After
+    public void closeRemote() {
+        faulty.close();
+    }
+
+    @Test
+    public void testFailsOverFromRefusingRemote() throws Exception {
+        faulty.setFailureRate(1);
+        try (VersioningService service = VersioningService.forGitRepository(withFallback())) {
+            assertThat(service.getCurrentState().getBasePath().resolve("foo.txt")).hasContent("Hello, world");
+        }
+        assertThat(faulty.getRefusedConnectionCount()).isEqualTo(1);
+        assertThat(faulty.getBytesSent()).isZero();
+    }
+
+    @Test
+    public void testFailsOverFromDroppedConnection() throws Exception {
+        faulty.setDropAfterBytes(100);
+        try (VersioningService service = VersioningService.forGitRepository(withFallback())) {
+            assertThat(service.getCurrentState().getBasePath().resolve("foo.txt")).hasContent("Hello, world");
+        }
+        assertThat(faulty.getDroppedConnectionCount()).isEqualTo(1);
+        assertThat(faulty.getBytesSent()).isEqualTo(100);
+    }
+
+    @Test
+    public void testFailNextConnections() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(direct())) {
+            faulty.failNextConnections(1);
+            git.editFile("foo.txt", "Changed").commit("Change");
+            assertThatExceptionOfType(VersioningServiceException.class).isThrownBy(service::checkForUpdate);
+            assertThat(service.checkForUpdate()).isPresent();
+        }
+        assertThat(faulty.getRefusedConnectionCount()).isEqualTo(1);
+    }
+
+    @Test(timeout = 30_000)
+    public void testStallHitsReadTimeout() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(
+                direct().setReadTimeout(Duration.ofSeconds(1)))) {
+            faulty.setStall(0, Duration.ofHours(1));
+            git.editFile("foo.txt", "Changed").commit("Change");
+            final long start = System.nanoTime();
+            assertThatExceptionOfType(VersioningServiceException.class).isThrownBy(service::checkForUpdate);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+
+            faulty.clearFaults();
+            assertThat(service.checkForUpdate()).isPresent();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testOperationTimeoutFailsOverFromStalledNegotiation() throws Exception {
+        // the stall hits the ref advertisement, where JGit never polls for cancellation
+        faulty.setStall(0, Duration.ofHours(1));
+        final long start = System.nanoTime();
+        try (VersioningService service = VersioningService.forGitRepository(
+                withFallback().setOperationTimeout(Duration.ofSeconds(1)))) {
+            assertThat(service.getCurrentState().getBasePath().resolve("foo.txt")).hasContent("Hello, world");
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+        assertThat(faulty.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test(timeout = 30_000)
+    public void testCancelUpdateAbortsStalledFetch() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(withFallback())) {
+            faulty.setStall(0, Duration.ofHours(1));
+            git.editFile("foo.txt", "Changed").commit("Change");
+            final CompletableFuture<Optional<VersionedConfigUpdate>> update =
+                    CompletableFuture.supplyAsync(service::checkForUpdate);
+            Thread.sleep(200);
+            service.cancelUpdate();
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> update.get(10, TimeUnit.SECONDS))
+                    .withCauseInstanceOf(VersioningServiceException.class);
+
+            faulty.clearFaults();
+            assertThat(service.checkForUpdate()).isPresent();
+        }
+    }
+
+    @Test
+    public void testCancelBeforeUpdateIsNotLost() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(direct())) {
+            git.editFile("foo.txt", "Changed").commit("Change");
+            service.cancelUpdate();
+            assertThatExceptionOfType(VersioningServiceException.class).isThrownBy(service::checkForUpdate);
+            assertThat(service.checkForUpdate()).isPresent();
+        }
+    }
+
+    @Test
+    public void testBandwidthCap() throws Exception {
+        final byte[] noise = new byte[48 * 1024];
+        new Random(0).nextBytes(noise);
+        git.editFile("noise.txt", Base64.getEncoder().encodeToString(noise)).commit("Hard to compress");
+
+        faulty.setBandwidth(16 * 1024);
+        final long start = System.nanoTime();
+        try (VersioningService service = VersioningService.forGitRepository(direct())) {
+            assertThat(service.getCurrentState().getBasePath().resolve("noise.txt")).exists();
+        }
+        final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(faulty.getBytesSent() * 1000 / (16 * 1024)));
+        assertThat(faulty.getBytesSent()).isGreaterThan(32 * 1024);
+    }
+
+    @Test
+    public void testLatencyPerRoundTrip() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(direct())) {
+            assertThat(service.checkForUpdate()).isPresent();
+            faulty.setLatency(Duration.ofMillis(500));
+            final long start = System.nanoTime();
+            assertThat(service.checkForUpdate()).isEmpty();
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(500));
+        }
+    }
+
+    private GitProperties direct() {
+        return new GitProperties(faulty.getUri(), null, "master");
+    }
+
+    private GitProperties withFallback() {
+        return new GitProperties(Arrays.asList(faulty.getUri(), git.getUri()), null, "master");
+    }
+}
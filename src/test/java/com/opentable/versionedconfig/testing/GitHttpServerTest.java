@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.GitProperties;
+import com.opentable.versionedconfig.VersionedConfigUpdate;
+import com.opentable.versionedconfig.VersioningService;
+
+public class GitHttpServerTest {
+    @Rule
+    public final InMemoryGitRule git = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .inMemoryRule();
+
+    private final GitHttpServer server = GitHttpServer.serve(git.getRepository());
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testCloneAndFetchOverHttp() throws Exception {
+        assertThat(server.getUri().getScheme()).isEqualTo("http");
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(server.getUri(), null, "master"))) {
+            assertThat(service.getCurrentState().getBasePath().resolve("foo.txt")).hasContent("Hello, world");
+            assertThat(server.getRequestCount()).isGreaterThanOrEqualTo(2);
+            assertThat(server.getBytesSent()).isPositive();
+
+            server.resetStatistics();
+            git.editFile("foo.txt", "Changed").commit("Change");
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(update.get().getChangedFiles()).contains(Paths.get("foo.txt"));
+            assertThat(server.getRequestCount()).isGreaterThanOrEqualTo(2);
+            assertThat(server.getBytesReceived()).isPositive();
+        }
+    }
+}
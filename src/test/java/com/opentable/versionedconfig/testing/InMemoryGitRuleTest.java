@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.GitProperties;
+import com.opentable.versionedconfig.VersionedConfigUpdate;
+import com.opentable.versionedconfig.VersioningService;
+
+public class InMemoryGitRuleTest {
+    @Rule
+    public final InMemoryGitRule git = GitRule.builder()
+            .editFile("foo.txt", "Hello, world")
+            .commit("Initial commit")
+            .appendFile("foo.txt", "!")
+            .commit("Forgot exclamation")
+            .inMemoryRule();
+
+    @Test
+    public void testCommits() throws GitAPIException {
+        assertThat(git.getGitRepo().log().call()).hasSize(2);
+        assertThat(git.getGitRepo().log().call().iterator().next().getFullMessage()).isEqualTo("Forgot exclamation");
+    }
+
+    @Test
+    public void testCloneFromMemory() throws Exception {
+        try (VersioningService service = VersioningService.forGitRepository(
+                new GitProperties(git.getUri(), null, "master"))) {
+            final Path base = service.getCurrentState().getBasePath();
+            assertThat(base.resolve("foo.txt")).hasContent("Hello, world!");
+
+            assertThat(service.checkForUpdate()).isPresent();
+            git.editFile("nested/bar.txt", "Neat!").commit("Very important information");
+            final Optional<VersionedConfigUpdate> update = service.checkForUpdate();
+            assertThat(update).isPresent();
+            assertThat(update.get().getChangedFiles()).containsExactly(Paths.get("nested/bar.txt"));
+            assertThat(base.resolve("nested/bar.txt")).hasContent("Neat!");
+        }
+    }
+
+    @Test
+    public void testFailOnAbsolute() {
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> git.editFile("/nested/config.txt", "Fail"))
+                .withMessageContaining("path must not be absolute");
+    }
+
+    @Test
+    public void testRejectsWorkingTreeOnlyActions() {
+        final GitBuilder builder = GitRule.builder().addAction((root, repo) -> { });
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(builder::inMemoryRule);
+    }
+}
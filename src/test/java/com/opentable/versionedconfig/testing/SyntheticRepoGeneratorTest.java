@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.versionedconfig.testing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Test;
+
+import com.opentable.versionedconfig.GitProperties;
+import com.opentable.versionedconfig.VersioningService;
+
+public class SyntheticRepoGeneratorTest {
+    private final SyntheticRepoSpec spec = new SyntheticRepoSpec()
+            .setFileCount(300)
+            .setFanOut(8)
+            .setFileSizes(16, 512)
+            .setHistoryLength(30)
+            .setChangeFraction(0.05)
+            .setRenameFraction(0.3);
+
+    @Test
+    public void testShape() throws Exception {
+        try (InMemoryRepository repo = newRepository()) {
+            final ObjectId head = new SyntheticRepoGenerator(spec).generate(repo);
+            assertThat(fileCount(repo, head)).isEqualTo(300);
+            assertThat(Git.wrap(repo).log().call()).hasSize(30);
+            assertThat(repo.resolve("refs/heads/master")).isEqualTo(head);
+        }
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        try (InMemoryRepository first = newRepository(); InMemoryRepository second = newRepository()) {
+            assertThat(new SyntheticRepoGenerator(spec).generate(first))
+                    .isEqualTo(new SyntheticRepoGenerator(spec).generate(second));
+        }
+    }
+
+    @Test
+    public void testCloneable() throws Exception {
+        try (InMemoryRepository repo = newRepository()) {
+            new SyntheticRepoGenerator(spec).generate(repo);
+            final URI uri = InProcessGitProtocol.register("synthetic", repo);
+            try (VersioningService service = VersioningService.forGitRepository(new GitProperties(uri, null, "master"))) {
+                assertThat(service.checkForUpdate()).isPresent();
+            } finally {
+                InProcessGitProtocol.unregister(uri);
+            }
+        }
+    }
+
+    private static InMemoryRepository newRepository() {
+        return new InMemoryRepository(new DfsRepositoryDescription("synthetic"));
+    }
+
+    private static int fileCount(Repository repo, ObjectId commit) throws Exception {
+        try (RevWalk walk = new RevWalk(repo); TreeWalk tree = new TreeWalk(repo)) {
+            tree.addTree(walk.parseCommit(commit).getTree());
+            tree.setRecursive(true);
+            int count = 0;
+            while (tree.next()) {
+                count++;
+            }
+            return count;
+        }
+    }
+}